@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.inveasy.akka.actors.benchmarks;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.ConfigFactory;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+/**
+ * In-process actor system the benchmarks run against<br>
+ * Actors are created as TestActorRef, so they process messages on the benchmark thread, without mailbox hand-off
+ */
+final class BenchmarkSystem
+{
+	private BenchmarkSystem()
+	{
+	}
+	
+	static ActorSystem create(String name)
+	{
+		return ActorSystem.create(name, ConfigFactory.parseString("akka.loglevel = WARNING\nakka.stdout-loglevel = WARNING")
+				.withFallback(ConfigFactory.load()));
+	}
+	
+	static void terminate(ActorSystem system) throws Exception
+	{
+		Await.result(system.terminate(), Duration.create(10, "seconds"));
+	}
+}
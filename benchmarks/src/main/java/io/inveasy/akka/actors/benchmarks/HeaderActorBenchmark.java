@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.inveasy.akka.actors.benchmarks;
+
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.TestActorRef;
+import io.inveasy.akka.actors.AbstractHeaderActor;
+import io.inveasy.akka.actors.domain.HeaderMap;
+import io.inveasy.akka.actors.domain.SimpleHeader;
+import io.inveasy.akka.actors.messages.HeaderMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of AbstractHeaderActor.aroundReceive, for a bare message and for one wrapped in a HeaderMessage
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HeaderActorBenchmark
+{
+	private ActorSystem system;
+	private TestActorRef<ReceivingActor> actor;
+	private String message;
+	private HeaderMessage headerMessage;
+	
+	@Setup
+	public void setUp()
+	{
+		system = BenchmarkSystem.create("header-actor");
+		actor = TestActorRef.create(system, Props.create(ReceivingActor.class));
+		message = "message";
+		
+		HeaderMap headers = new HeaderMap();
+		headers.put("tenant", new SimpleHeader(true, "acme"));
+		headers.put("auth", new SimpleHeader(false, "token"));
+		headerMessage = new HeaderMessage(headers.freeze(), message);
+	}
+	
+	@TearDown
+	public void tearDown() throws Exception
+	{
+		BenchmarkSystem.terminate(system);
+	}
+	
+	@Benchmark
+	public void receive()
+	{
+		actor.receive(message);
+	}
+	
+	@Benchmark
+	public void receiveHeaderMessage()
+	{
+		actor.receive(headerMessage);
+	}
+	
+	public static class ReceivingActor extends AbstractHeaderActor
+	{
+		private long received;
+		
+		@Override
+		public Receive createReceive()
+		{
+			return receiveBuilder()
+					.matchAny(message -> received++)
+					.build();
+		}
+	}
+}
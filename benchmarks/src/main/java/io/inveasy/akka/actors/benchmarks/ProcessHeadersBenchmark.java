@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.inveasy.akka.actors.benchmarks;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.TestActorRef;
+import io.inveasy.akka.actors.AbstractHeaderActor;
+import io.inveasy.akka.actors.domain.HeaderMap;
+import io.inveasy.akka.actors.domain.SimpleHeader;
+import io.inveasy.akka.actors.messages.HeaderMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of processing the headers of a message when sending the next one, depending on the number of passthru headers received<br>
+ * The actor receives a message carrying the passthru headers and two dropped ones, adds a header of its own and sends the message on
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ProcessHeadersBenchmark
+{
+	@Param({"0", "1", "4", "16"})
+	private int passthruHeaders;
+	
+	private ActorSystem system;
+	private TestActorRef<ForwardingActor> actor;
+	private HeaderMessage headerMessage;
+	
+	@Setup
+	public void setUp()
+	{
+		system = BenchmarkSystem.create("process-headers");
+		ActorRef sink = TestActorRef.create(system, Props.create(SinkActor.class));
+		actor = TestActorRef.create(system, Props.create(ForwardingActor.class, sink));
+		
+		HeaderMap headers = new HeaderMap();
+		for(int i = 0; i < passthruHeaders; i++)
+			headers.put("passthru-" + i, new SimpleHeader(true, "value-" + i));
+		headers.put("dropped-0", new SimpleHeader(false, "value"));
+		headers.put("dropped-1", new SimpleHeader(false, "value"));
+		headerMessage = new HeaderMessage(headers.freeze(), "message");
+	}
+	
+	@TearDown
+	public void tearDown() throws Exception
+	{
+		BenchmarkSystem.terminate(system);
+	}
+	
+	@Benchmark
+	public void receiveAndSend()
+	{
+		actor.receive(headerMessage);
+	}
+	
+	public static class ForwardingActor extends AbstractHeaderActor
+	{
+		private static final SimpleHeader OWN_HEADER = new SimpleHeader(false, "own");
+		
+		private final ActorRef target;
+		
+		public ForwardingActor(ActorRef target)
+		{
+			this.target = target;
+		}
+		
+		@Override
+		public Receive createReceive()
+		{
+			return receiveBuilder()
+					.matchAny(message ->
+					{
+						headers.put("own", OWN_HEADER);
+						tell(target, message);
+					})
+					.build();
+		}
+	}
+	
+	/** Drops what it receives, so that only the sending side is measured */
+	public static class SinkActor extends AbstractActor
+	{
+		@Override
+		public Receive createReceive()
+		{
+			return receiveBuilder()
+					.matchAny(message -> { })
+					.build();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.inveasy.akka.actors.benchmarks;
+
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.TestActorRef;
+import io.inveasy.akka.actors.AbstractSchedulerActor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of registering and cancelling named schedules, with the system scheduler and with the timing wheel<br>
+ * Delays are short so that cancelled timers are purged by the schedulers while the benchmark runs
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SchedulerBenchmark
+{
+	private static final Object REGISTER_CANCEL = "register-cancel";
+	private static final Object RESCHEDULE = "reschedule";
+	
+	@Param({"false", "true"})
+	private boolean timingWheel;
+	
+	private ActorSystem system;
+	private TestActorRef<SchedulingActor> actor;
+	
+	@Setup
+	public void setUp()
+	{
+		system = BenchmarkSystem.create("scheduler");
+		actor = TestActorRef.create(system, Props.create(SchedulingActor.class, timingWheel));
+	}
+	
+	@TearDown
+	public void tearDown() throws Exception
+	{
+		BenchmarkSystem.terminate(system);
+	}
+	
+	/** Registers a schedule, then cancels it */
+	@Benchmark
+	public void registerCancel()
+	{
+		actor.receive(REGISTER_CANCEL);
+	}
+	
+	/** Registers a schedule under the name of a pending one, which cancels it */
+	@Benchmark
+	public void reschedule()
+	{
+		actor.receive(RESCHEDULE);
+	}
+	
+	public static class SchedulingActor extends AbstractSchedulerActor
+	{
+		private static final Duration DELAY = Duration.ofMillis(100);
+		private static final Object TICK = "tick";
+		
+		private final boolean timingWheel;
+		
+		public SchedulingActor(boolean timingWheel)
+		{
+			this.timingWheel = timingWheel;
+		}
+		
+		@Override
+		protected boolean useTimingWheel()
+		{
+			return timingWheel;
+		}
+		
+		@Override
+		public Receive createReceive()
+		{
+			return receiveBuilder()
+					.matchEquals(REGISTER_CANCEL, message ->
+					{
+						scheduleOnceToSelf("timer", DELAY, TICK);
+						cancelSchedule("timer");
+					})
+					.matchEquals(RESCHEDULE, message -> scheduleOnceToSelf("timer", DELAY, TICK))
+					.matchEquals(TICK, message -> { })
+					.build();
+		}
+	}
+}
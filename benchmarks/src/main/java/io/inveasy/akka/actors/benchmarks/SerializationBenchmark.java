@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.inveasy.akka.actors.benchmarks;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.SerializerWithStringManifest;
+import io.inveasy.akka.actors.domain.AbstractHeader;
+import io.inveasy.akka.actors.domain.HeaderMap;
+import io.inveasy.akka.actors.domain.SimpleHeader;
+import io.inveasy.akka.actors.messages.HeaderMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.NotSerializableException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of serializing a HeaderMessage and reading it back, as done for every remote message<br>
+ * Registered headers are written by their codec, the other ones with Protostuff
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SerializationBenchmark
+{
+	@Param({"1", "4", "16"})
+	private int headerCount;
+	
+	@Param({"registered", "protostuff"})
+	private String headerType;
+	
+	private ActorSystem system;
+	private SerializerWithStringManifest serializer;
+	private HeaderMessage message;
+	private String manifest;
+	private byte[] bytes;
+	
+	@Setup
+	public void setUp()
+	{
+		system = BenchmarkSystem.create("serialization");
+		
+		HeaderMap headers = new HeaderMap();
+		for(int i = 0; i < headerCount; i++)
+		{
+			AbstractHeader header = "registered".equals(headerType)
+					? new SimpleHeader(i % 2 == 0, "value-" + i)
+					: new CustomHeader(i % 2 == 0, "value-" + i);
+			headers.put("header-" + i, header);
+		}
+		message = new HeaderMessage(headers.freeze(), new byte[64]);
+		
+		Serialization serialization = (Serialization)SerializationExtension.apply(system);
+		serializer = (SerializerWithStringManifest)serialization.findSerializerFor(message);
+		manifest = serializer.manifest(message);
+		bytes = serializer.toBinary(message);
+	}
+	
+	@TearDown
+	public void tearDown() throws Exception
+	{
+		BenchmarkSystem.terminate(system);
+	}
+	
+	@Benchmark
+	public byte[] serialize()
+	{
+		return serializer.toBinary(message);
+	}
+	
+	@Benchmark
+	public Object deserialize() throws NotSerializableException
+	{
+		return serializer.fromBinary(bytes, manifest);
+	}
+	
+	@Benchmark
+	public Object roundTrip() throws NotSerializableException
+	{
+		return serializer.fromBinary(serializer.toBinary(message), manifest);
+	}
+	
+	/** Header unknown to the header codecs, written with Protostuff */
+	public static class CustomHeader extends AbstractHeader
+	{
+		public CustomHeader(boolean passthru, String content)
+		{
+			super(passthru, content);
+		}
+		
+		@Override
+		public void preProcess()
+		{
+			// Custom header does nothing
+		}
+		
+		@Override
+		public void postProcess()
+		{
+			// Custom header does nothing
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.inveasy.akka.actors.benchmarks;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.japi.Pair;
+import akka.testkit.TestActorRef;
+import io.inveasy.akka.actors.AbstractHeaderActor;
+import io.inveasy.akka.actors.AbstractYieldActor;
+import io.inveasy.akka.actors.annotations.YieldReceiver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a whole yield round trip : yield() with context args, tell to an echo actor, then dispatch of the reply
+ * to the @YieldReceiver asking for these args<br>
+ * All actors run on the benchmark thread, so each operation is a complete round trip
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class YieldBenchmark
+{
+	@Param({"0", "1", "2", "4", "8"})
+	private int contextParams;
+	
+	private ActorSystem system;
+	private TestActorRef<YieldingActor> actor;
+	private Request request;
+	
+	@Setup
+	public void setUp()
+	{
+		system = BenchmarkSystem.create("yield");
+		ActorRef echo = TestActorRef.create(system, Props.create(EchoActor.class));
+		actor = TestActorRef.create(system, Props.create(YieldingActor.class, echo));
+		request = new Request(contextParams);
+		
+		actor.receive(request);
+		if(actor.underlyingActor().completed != 1)
+			throw new IllegalStateException("The reply of the yield has not been dispatched to its receiver");
+	}
+	
+	@TearDown
+	public void tearDown() throws Exception
+	{
+		BenchmarkSystem.terminate(system);
+	}
+	
+	@Benchmark
+	public void yieldRoundTrip()
+	{
+		actor.receive(request);
+	}
+	
+	public static final class Request
+	{
+		private final Pair<String, Object>[] contextArgs;
+		private final Object reply;
+		
+		@SuppressWarnings("unchecked")
+		private Request(int contextParams)
+		{
+			contextArgs = new Pair[contextParams];
+			for(int i = 0; i < contextParams; i++)
+				contextArgs[i] = new Pair<>("p" + (i + 1), "value-" + (i + 1));
+			
+			switch(contextParams)
+			{
+				case 0: reply = new Reply0(); break;
+				case 1: reply = new Reply1(); break;
+				case 2: reply = new Reply2(); break;
+				case 4: reply = new Reply4(); break;
+				case 8: reply = new Reply8(); break;
+				default: throw new IllegalArgumentException("No receiver takes " + contextParams + " context params");
+			}
+		}
+	}
+	
+	public static final class Reply0 { }
+	public static final class Reply1 { }
+	public static final class Reply2 { }
+	public static final class Reply4 { }
+	public static final class Reply8 { }
+	
+	public static class YieldingActor extends AbstractYieldActor
+	{
+		private final ActorRef echo;
+		private long completed;
+		
+		public YieldingActor(ActorRef echo)
+		{
+			this.echo = echo;
+		}
+		
+		@YieldReceiver(expectedMessageType = Request.class)
+		private void request(Request request)
+		{
+			this.yield(request.contextArgs);
+			tell(echo, request.reply);
+		}
+		
+		@YieldReceiver(expectedMessageType = Reply0.class)
+		private void reply(Reply0 reply)
+		{
+			completed++;
+		}
+		
+		@YieldReceiver(expectedMessageType = Reply1.class)
+		private void reply(Reply1 reply, String p1)
+		{
+			completed++;
+		}
+		
+		@YieldReceiver(expectedMessageType = Reply2.class)
+		private void reply(Reply2 reply, String p1, String p2)
+		{
+			completed++;
+		}
+		
+		@YieldReceiver(expectedMessageType = Reply4.class)
+		private void reply(Reply4 reply, String p1, String p2, String p3, String p4)
+		{
+			completed++;
+		}
+		
+		@YieldReceiver(expectedMessageType = Reply8.class)
+		private void reply(Reply8 reply, String p1, String p2, String p3, String p4, String p5, String p6, String p7, String p8)
+		{
+			completed++;
+		}
+	}
+	
+	/** Replies with the message it receives, along with the yield header */
+	public static class EchoActor extends AbstractHeaderActor
+	{
+		@Override
+		public Receive createReceive()
+		{
+			return receiveBuilder()
+					.matchAny(this::reply)
+					.build();
+		}
+	}
+}
@@ -20,19 +20,38 @@ import akka.actor.ActorRef;
 import akka.actor.ActorSelection;
 import akka.japi.pf.ReceiveBuilder;
 import io.inveasy.akka.actors.domain.AbstractHeader;
+import io.inveasy.akka.actors.domain.DeadlineHeader;
+import io.inveasy.akka.actors.domain.HeaderMap;
+import io.inveasy.akka.actors.domain.RequestIdHeader;
+import io.inveasy.akka.actors.messages.HeaderBatchMessage;
 import io.inveasy.akka.actors.messages.HeaderMessage;
+import io.inveasy.akka.actors.messages.TimerBatch;
+import io.inveasy.akka.actors.metrics.ActorMetrics;
+import io.inveasy.akka.actors.store.ReplyCache;
+import io.inveasy.akka.actors.tracing.Tracing;
 import scala.PartialFunction;
 import scala.runtime.BoxedUnit;
 
+import java.time.Duration;
 import java.util.Map;
-import java.util.TreeMap;
 
 public abstract class AbstractHeaderActor extends AbstractSchedulerActor
 {
+	// Headers as received, frozen, and the modifiable view of them, only created when asked for
+	private HeaderMap receivedHeaders = HeaderMap.EMPTY;
 	private Map<String, AbstractHeader> requestHeaders;
-	protected Map<String, AbstractHeader> getRequestHeaders() { return requestHeaders; }
+	protected Map<String, AbstractHeader> getRequestHeaders()
+	{
+		if(requestHeaders == null)
+			requestHeaders = HeaderMap.copyOnWrite(receivedHeaders);
+		return requestHeaders;
+	}
+	
+	protected Map<String, AbstractHeader> headers = new HeaderMap();
 	
-	protected Map<String, AbstractHeader> headers;
+	// Replies to requests by their id, and the replies of the request being processed, which reply() records
+	private ReplyCache replyCache;
+	private ReplyCache.Replies recordedReplies;
 	
 	public ReceiveBuilder mainReceiveBuilder()
 	{
@@ -42,42 +61,337 @@ public abstract class AbstractHeaderActor extends AbstractSchedulerActor
 	@Override
 	public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object msg)
 	{
+		if(msg instanceof TimerBatch)
+		{
+			// Unpacked before anything else, each message going through the headers as if its timer had sent it alone
+			for(Object message : ((TimerBatch)msg).getMessages())
+				aroundReceive(receive, message);
+			return;
+		}
+		
+		if(msg instanceof HeaderBatchMessage)
+		{
+			// Headers are pre processed once for the whole batch, then each payload is received with them
+			// Batches are not deduplicated by their request id, as some of their payloads may be let in and others not
+			HeaderBatchMessage batch = (HeaderBatchMessage)msg;
+			receiveHeaders(HeaderMap.frozenCopyOf(batch.getHeaders()));
+			recordedReplies = null;
+			for(Object payload : batch.getOriginalMessages())
+			{
+				requestHeaders = null;
+				resetHeaders();
+				if(ActorMetrics.ENABLED)
+					metrics.messageReceived();
+				if(deadlineExceeded(payload))
+					continue;
+				try
+				{
+					Object message = preReceive(payload);
+					if(message != null)
+						super.aroundReceive(receive, message);
+				}
+				finally
+				{
+					releaseRecordedReplies();
+				}
+			}
+			return;
+		}
+		
 		if(msg instanceof HeaderMessage)
 		{
 			HeaderMessage headerMessage = (HeaderMessage)msg;
-			requestHeaders = headerMessage.getHeaders();
+			receiveHeaders(HeaderMap.frozenCopyOf(headerMessage.getHeaders()));
 			msg = headerMessage.getOriginalMessage();
 		}
 		else
-			requestHeaders = new TreeMap<>();
+			receivedHeaders = HeaderMap.EMPTY;
+		requestHeaders = null;
+		recordedReplies = null;
+		resetHeaders();
+		
+		if(ActorMetrics.ENABLED)
+			metrics.messageReceived();
+		if(deadlineExceeded(msg) || replayed())
+			return;
+		try
+		{
+			msg = preReceive(msg);
+			if(msg == null)
+				return;
+			
+			recordReplies();
+			super.aroundReceive(receive, msg);
+		}
+		finally
+		{
+			releaseRecordedReplies();
+		}
+	}
+	
+	/**
+	 * Called with each received message once its headers are known, before it is given to the receive function<br>
+	 * Receives every message as is by default
+	 * @param message The received message, unwrapped from its envelope
+	 * @return The message to give to the receive function, null when it has been handled and must not be received
+	 */
+	protected Object preReceive(Object message)
+	{
+		return message;
+	}
+	
+	/**
+	 * Tells whether the message is dropped when its deadline passed<br>
+	 * Defaults to true
+	 */
+	protected boolean isDeadlineChecked(Object message)
+	{
+		return true;
+	}
+	
+	/**
+	 * Called instead of the receive function with the messages received past their deadline<br>
+	 * Drops them by default, override it to reply with a DeadlineExceeded for instance
+	 * @param message The message, unwrapped from its envelope
+	 * @param deadline The deadline header it came with
+	 */
+	protected void onDeadlineExceeded(Object message, DeadlineHeader deadline)
+	{
+		// Nothing to do by default
+	}
+	
+	/** Gives the message to onDeadlineExceeded() and returns true when its deadline passed */
+	private boolean deadlineExceeded(Object message)
+	{
+		if(receivedHeaders.isEmpty())
+			return false;
+		
+		AbstractHeader header = receivedHeaders.get(DeadlineHeader.KEY);
+		if(!(header instanceof DeadlineHeader) || !((DeadlineHeader)header).isExpired() || !isDeadlineChecked(message))
+			return false;
+		
+		onDeadlineExceeded(message, (DeadlineHeader)header);
+		return true;
+	}
+	
+	/**
+	 * Number of requests whose replies are cached, so that duplicates sent with the same RequestIdHeader are not processed again<br>
+	 * They are given the replies recorded for the request instead, with the headers put for them, and the ones sent later
+	 * when the request is still being processed<br>
+	 * Messages of a HeaderBatchMessage are not deduplicated<br>
+	 * Defaults to 0, meaning replies are not cached
+	 */
+	protected int getIdempotencyCacheSize()
+	{
+		return 0;
+	}
+	
+	/** Time to live of the cached replies, null meaning they are only evicted by newer ones */
+	protected Duration getIdempotencyTimeToLive()
+	{
+		return Duration.ofMinutes(5);
+	}
+	
+	/** Returns the request id header of the current message, or null when it has none or replies are not cached */
+	private RequestIdHeader requestIdHeader()
+	{
+		if(receivedHeaders.isEmpty())
+			return null;
+		
+		AbstractHeader header = receivedHeaders.get(RequestIdHeader.KEY);
+		if(!(header instanceof RequestIdHeader) || getIdempotencyCacheSize() <= 0)
+			return null;
+		
+		if(replyCache == null)
+		{
+			Duration timeToLive = getIdempotencyTimeToLive();
+			replyCache = new ReplyCache(getIdempotencyCacheSize(), timeToLive == null ? 0 : timeToLive.toNanos());
+		}
+		return (RequestIdHeader)header;
+	}
+	
+	/**
+	 * Replays the replies recorded for the request and returns true when it is a duplicate of a request already let in<br>
+	 * Duplicates of a request still being processed are also sent its next replies<br>
+	 * Duplicates of a request whose processing ended without replying are received as usual, without recording their replies
+	 */
+	private boolean replayed()
+	{
+		RequestIdHeader header = requestIdHeader();
+		if(header == null)
+			return false;
+		
+		ReplyCache.Replies replies = replyCache.get(header.getRequestId(), System.nanoTime());
+		if(replies == null || (replies.size() == 0 && !replies.isInProgress()))
+			return false;
+		
+		for(int i = 0; i < replies.size(); i++)
+		{
+			headers = ownHeaders(replies.getHeaders(i));
+			reply(replies.getMessage(i));
+		}
+		if(replies.isInProgress())
+			replies.await(getSender());
+		return true;
+	}
+	
+	/**
+	 * Starts recording the replies of the current message, once it has been let in by preReceive(), when it is a request seen for the first time<br>
+	 * Rejections sent before, such as an Overloaded reply or a deadline exceeded, are therefore never recorded
+	 * The entry is retained until the message has been received
+	 */
+	private void recordReplies()
+	{
+		RequestIdHeader header = requestIdHeader();
+		if(header == null)
+			return;
+		
+		long now = System.nanoTime();
+		if(replyCache.get(header.getRequestId(), now) != null)
+			return;
+		
+		recordedReplies = replyCache.put(header.getRequestId(), now, getSender());
+		recordedReplies.retain();
+	}
+	
+	/** Releases the replies recorded while receiving the current message, which are not recorded anymore */
+	private void releaseRecordedReplies()
+	{
+		if(recordedReplies != null)
+		{
+			recordedReplies.release();
+			recordedReplies = null;
+		}
+	}
+	
+	/** Returns the replies of the request being processed, recorded by reply(), or null when they are not */
+	ReplyCache.Replies getRecordedReplies()
+	{
+		return recordedReplies;
+	}
+	
+	/**
+	 * Records the messages sent from now on as the replies of a request, processed while receiving another message<br>
+	 * The given entry must be retained, it is released once the message has been received
+	 */
+	void setRecordedReplies(ReplyCache.Replies recordedReplies)
+	{
+		releaseRecordedReplies();
+		this.recordedReplies = recordedReplies;
+	}
+	
+	/**
+	 * Returns the given headers, leaving aside the ones the current request passes along<br>
+	 * Replies are recorded without them, and replayed with the ones of the duplicate
+	 */
+	private HeaderMap ownHeaders(Map<String, AbstractHeader> headerz)
+	{
+		Map<String, AbstractHeader> requestHeaderz = currentRequestHeaders();
+		HeaderMap own = new HeaderMap();
+		headerz.forEach((key, header) ->
+		{
+			AbstractHeader requested = requestHeaderz.get(key);
+			if(requested == null || !requested.isPassthru())
+				own.put(key, header);
+		});
+		return own;
+	}
+	
+	private void receiveHeaders(HeaderMap received)
+	{
+		receivedHeaders = received;
 		
 		// TODO Default headers
 		
-		if(requestHeaders != null)
-			requestHeaders.forEach((s, abstractHeader) -> abstractHeader.preProcess());
-		headers = new TreeMap<>();
+		AbstractHeader[] processed = received.getProcessedHeaders();
+		if(processed.length == 0)
+			return;
 		
-		super.aroundReceive(receive, msg);
+		long start = ActorMetrics.ENABLED ? System.nanoTime() : 0;
+		for(AbstractHeader header : processed)
+			header.preProcess();
+		Tracing.hopActor(getSelf());
+		if(ActorMetrics.ENABLED)
+			metrics.headersProcessed(System.nanoTime() - start);
+	}
+	
+	private void resetHeaders()
+	{
+		// Headers left untouched by the previous message are reused as is
+		if(!(headers instanceof HeaderMap) || !headers.isEmpty())
+			headers = new HeaderMap();
 	}
 	
-	/** Processes headers and returns them, ready to be sent */
+	/** Returns the headers of the current message, without creating a modifiable view of them */
+	Map<String, AbstractHeader> currentRequestHeaders()
+	{
+		return requestHeaders != null ? requestHeaders : receivedHeaders;
+	}
+	
+	/**
+	 * Processes headers and returns them frozen, ready to be sent<br>
+	 * Passthru headers of the request are inherited as a shared layer rather than copied, when possible
+	 */
 	private Map<String, AbstractHeader> processHeaders()
 	{
-		Map<String, AbstractHeader> headerz = headers;
+		HeaderMap requestHeaderz = HeaderMap.frozenCopyOf(currentRequestHeaders());
+		if(requestHeaderz.isEmpty())
+			return headers.isEmpty() ? HeaderMap.EMPTY : HeaderMap.frozenCopyOf(headers);
 		
-		if(requestHeaders != null)
+		AbstractHeader[] processed = requestHeaderz.getProcessedHeaders();
+		Map<String, AbstractHeader> headerz = processed.length > 0 ? postProcessHeaders(requestHeaderz, processed) : headers;
+		
+		if(headerz instanceof HeaderMap)
+			((HeaderMap)headerz).inherit(requestHeaderz.getPassthruLayer());
+		else
 		{
-			requestHeaders.forEach((key, header) ->
+			requestHeaderz.getPassthruLayer().forEach((key, header) ->
 			{
-				header.postProcess();
-				if(header.isPassthru() && !headerz.containsKey(key))
+				if(!headerz.containsKey(key))
 					headerz.put(key, header);
 			});
 		}
 		
+		return headerz.isEmpty() ? HeaderMap.EMPTY : HeaderMap.frozenCopyOf(headerz);
+	}
+	
+	/**
+	 * Post processes the processed headers of the request, for the message being sent<br>
+	 * Processed passthru headers may be replaced by another one for the next hop, in the headers of this message only
+	 * @return The headers to send, a copy of the actor's ones when a header is replaced
+	 */
+	private Map<String, AbstractHeader> postProcessHeaders(HeaderMap requestHeaderz, AbstractHeader[] processed)
+	{
+		long start = ActorMetrics.ENABLED ? System.nanoTime() : 0;
+		for(AbstractHeader header : processed)
+			header.postProcess();
+		if(ActorMetrics.ENABLED)
+			metrics.headersProcessed(System.nanoTime() - start);
+		
+		Map<String, AbstractHeader> headerz = headers;
+		for(Map.Entry<String, AbstractHeader> entry : requestHeaderz.entrySet())
+		{
+			AbstractHeader header = entry.getValue();
+			if(header == null || !header.isPassthru() || !header.isProcessed() || headers.containsKey(entry.getKey()))
+				continue;
+			
+			AbstractHeader next = header.nextHop();
+			if(next == header)
+				continue;
+			if(headerz == headers)
+				headerz = HeaderMap.copyOnWrite(headers);
+			headerz.put(entry.getKey(), next);
+		}
 		return headerz;
 	}
 	
+	/** Wraps the message along with the headers to send, or returns it as is when there are none */
+	private Object envelope(Object message)
+	{
+		Map<String, AbstractHeader> headerz = processHeaders();
+		return headerz.isEmpty() ? message : new HeaderMessage(headerz, message);
+	}
+	
 	/**
 	 * Sends a message to the target, sender being this actor
 	 * @param target The target of the message
@@ -89,14 +403,26 @@ public abstract class AbstractHeaderActor extends AbstractSchedulerActor
 	}
 	
 	/**
-	 * Sends a message to target
+	 * Sends a message to target<br>
+	 * Messages sent to the sender of a request with a request id are recorded as its replies, when getIdempotencyCacheSize() is positive
 	 * @param target The target of the message
 	 * @param message The message to send
 	 * @param sender Who is sending this
 	 */
 	public void tell(ActorRef target, Object message, ActorRef sender)
 	{
-		target.tell(new HeaderMessage(processHeaders(), message), sender);
+		if(recordedReplies == null || !target.equals(recordedReplies.getRequester()))
+		{
+			target.tell(envelope(message), sender);
+			return;
+		}
+		
+		// Duplicates received meanwhile are given the reply as well
+		recordedReplies.add(message, ownHeaders(headers).freeze());
+		Object envelope = envelope(message);
+		target.tell(envelope, sender);
+		for(ActorRef duplicate : recordedReplies.getWaiting())
+			duplicate.tell(envelope, sender);
 	}
 	
 	/**
@@ -115,7 +441,31 @@ public abstract class AbstractHeaderActor extends AbstractSchedulerActor
 	 */
 	public void forward(ActorRef target, Object message)
 	{
-		target.forward(new HeaderMessage(processHeaders(), message), getContext());
+		target.forward(envelope(message), getContext());
+	}
+	
+	/**
+	 * Sends several messages to the target in a single envelope, sender being this actor<br>
+	 * Headers are processed once for the whole batch, and the target receives each message with them
+	 * @param target The target of the messages
+	 * @param messages The messages to send, nothing is sent when there is none
+	 */
+	public void tellAll(ActorRef target, Iterable<?> messages)
+	{
+		tellAll(target, messages, getSelf());
+	}
+	
+	/**
+	 * Sends several messages to the target in a single envelope<br>
+	 * Headers are processed once for the whole batch, and the target receives each message with them
+	 * @param target The target of the messages
+	 * @param messages The messages to send, nothing is sent when there is none
+	 * @param sender Who is sending this
+	 */
+	public void tellAll(ActorRef target, Iterable<?> messages, ActorRef sender)
+	{
+		if(messages.iterator().hasNext())
+			target.tell(new HeaderBatchMessage(processHeaders(), messages), sender);
 	}
 	
 	/**
@@ -136,7 +486,31 @@ public abstract class AbstractHeaderActor extends AbstractSchedulerActor
 	 */
 	public void tell(ActorSelection target, Object message, ActorRef sender)
 	{
-		target.tell(new HeaderMessage(processHeaders(), message), sender);
+		target.tell(envelope(message), sender);
+	}
+	
+	/**
+	 * Sends several messages to the target in a single envelope, sender being this actor<br>
+	 * Headers are processed once for the whole batch, and the target receives each message with them
+	 * @param target The target of the messages
+	 * @param messages The messages to send, nothing is sent when there is none
+	 */
+	public void tellAll(ActorSelection target, Iterable<?> messages)
+	{
+		tellAll(target, messages, getSelf());
+	}
+	
+	/**
+	 * Sends several messages to the target in a single envelope<br>
+	 * Headers are processed once for the whole batch, and the target receives each message with them
+	 * @param target The target of the messages
+	 * @param messages The messages to send, nothing is sent when there is none
+	 * @param sender Who is sending this
+	 */
+	public void tellAll(ActorSelection target, Iterable<?> messages, ActorRef sender)
+	{
+		if(messages.iterator().hasNext())
+			target.tell(new HeaderBatchMessage(processHeaders(), messages), sender);
 	}
 	
 	/**
@@ -146,6 +520,6 @@ public abstract class AbstractHeaderActor extends AbstractSchedulerActor
 	 */
 	public void forward(ActorSelection target, Object message)
 	{
-		target.forward(new HeaderMessage(processHeaders(), message), getContext());
+		target.forward(envelope(message), getContext());
 	}
 }
@@ -19,13 +19,34 @@ package io.inveasy.akka.actors;
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.Cancellable;
+import io.inveasy.akka.actors.messages.TimerBatch;
+import io.inveasy.akka.actors.metrics.ActorMetrics;
+import io.inveasy.akka.actors.timer.TimingWheel;
+import io.inveasy.akka.actors.timer.TimingWheelExtension;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
 
 import java.time.Duration;
-import java.util.TreeMap;
+import java.util.HashMap;
 
 public abstract class AbstractSchedulerActor extends AbstractActor
 {
-	private TreeMap<String, Cancellable> schedules = new TreeMap<>();
+	private HashMap<String, Cancellable> schedules = new HashMap<>();
+	private TimingWheel timingWheel;
+	
+	/** Metrics of this actor class, null when they are disabled */
+	final ActorMetrics metrics = ActorMetrics.ENABLED ? ActorMetrics.forClass(getClass()) : null;
+	
+	/**
+	 * Tells whether timers of this actor go through the timing wheel shared by the system instead of its scheduler<br>
+	 * The wheel is only precise to its tick, but scales to many more timers, and delivers the messages an actor
+	 * schedules to itself and which expire together in a single batch<br>
+	 * Defaults to false
+	 */
+	protected boolean useTimingWheel()
+	{
+		return false;
+	}
 	
 	/////////////////// Schedule Runnable ////////////////////
 	///////// Schedule multiple /////////
@@ -38,21 +59,17 @@ public abstract class AbstractSchedulerActor extends AbstractActor
 	/** Runs the runnable every interval, first run being after initialDelay */
 	protected void schedule(String name, Duration initialDelay, Duration interval, Runnable runnable)
 	{
-		Cancellable lastScheduled = schedules.put(name,
-				getContext().getSystem().scheduler().schedule(initialDelay, interval, runnable, getContext().dispatcher()));
-		
-		if(lastScheduled != null && !lastScheduled.isCancelled())
-			lastScheduled.cancel();
+		register(name, useTimingWheel()
+				? timingWheel().schedule(initialDelay, interval, runnable, getContext().dispatcher())
+				: getContext().getSystem().scheduler().schedule(initialDelay, interval, runnable, getContext().dispatcher()));
 	}
 	
 	////////// Schedule once /////////
 	protected void scheduleOnce(String name, Duration delay, Runnable runnable)
 	{
-		Cancellable lastScheduled = schedules.put(name,
-				getContext().getSystem().scheduler().scheduleOnce(delay, runnable, getContext().dispatcher()));
-		
-		if(lastScheduled != null && !lastScheduled.isCancelled())
-			lastScheduled.cancel();
+		register(name, useTimingWheel()
+				? timingWheel().scheduleOnce(delay, runnable, getContext().dispatcher())
+				: getContext().getSystem().scheduler().scheduleOnce(delay, runnable, getContext().dispatcher()));
 	}
 	
 	/////////////////// Schedule Message ////////////////////
@@ -90,11 +107,15 @@ public abstract class AbstractSchedulerActor extends AbstractActor
 	/** Sends the message to the target every interval, sending first message after initialDelay */
 	protected void schedule(String name, Duration initialDelay, Duration interval, ActorRef target, Object message, ActorRef sender)
 	{
-		Cancellable lastScheduled = schedules.put(name,
-				getContext().getSystem().scheduler().schedule(initialDelay, interval, target, message, getContext().dispatcher(), sender));
+		Cancellable scheduled;
+		if(!useTimingWheel())
+			scheduled = getContext().getSystem().scheduler().schedule(initialDelay, interval, target, message, getContext().dispatcher(), sender);
+		else if(target.equals(getSelf()) && sender.equals(getSelf()))
+			scheduled = timingWheel().scheduleToSelf(initialDelay, interval, getSelf(), message);
+		else
+			scheduled = timingWheel().schedule(initialDelay, interval, target, message, sender);
 		
-		if(lastScheduled != null && !lastScheduled.isCancelled())
-			lastScheduled.cancel();
+		register(name, scheduled);
 	}
 	
 	////////// Schedule once /////////
@@ -110,24 +131,62 @@ public abstract class AbstractSchedulerActor extends AbstractActor
 	
 	protected void scheduleOnce(String name, Duration delay, ActorRef target, Object message, ActorRef sender)
 	{
-		Cancellable lastScheduled = schedules.put(name,
-				getContext().getSystem().scheduler().scheduleOnce(delay, target, message, getContext().dispatcher(), sender));
+		Cancellable scheduled;
+		if(!useTimingWheel())
+			scheduled = getContext().getSystem().scheduler().scheduleOnce(delay, target, message, getContext().dispatcher(), sender);
+		else if(target.equals(getSelf()) && sender.equals(getSelf()))
+			scheduled = timingWheel().scheduleOnceToSelf(delay, getSelf(), message);
+		else
+			scheduled = timingWheel().scheduleOnce(delay, target, message, sender);
 		
+		register(name, scheduled);
+	}
+	
+	private void register(String name, Cancellable scheduled)
+	{
+		Cancellable lastScheduled = schedules.put(name, scheduled);
+		
+		if(ActorMetrics.ENABLED && lastScheduled == null)
+			metrics.schedulesChanged(1);
 		if(lastScheduled != null && !lastScheduled.isCancelled())
 			lastScheduled.cancel();
 	}
 	
+	private TimingWheel timingWheel()
+	{
+		if(timingWheel == null)
+			timingWheel = TimingWheelExtension.INSTANCE.get(getContext().getSystem());
+		return timingWheel;
+	}
+	
 	public void cancelSchedule(String name)
 	{
 		Cancellable scheduled = schedules.remove(name);
 		
+		if(ActorMetrics.ENABLED && scheduled != null)
+			metrics.schedulesChanged(-1);
 		if(scheduled != null && !scheduled.isCancelled())
 			scheduled.cancel();
 	}
 	
+	@Override
+	public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object msg)
+	{
+		if(msg instanceof TimerBatch)
+		{
+			// Each message of the batch is received on its own, as if its timer had sent it alone
+			for(Object message : ((TimerBatch)msg).getMessages())
+				aroundReceive(receive, message);
+		}
+		else
+			super.aroundReceive(receive, msg);
+	}
+	
 	@Override
 	public void postStop()
 	{
 		schedules.values().forEach(Cancellable::cancel);
+		if(ActorMetrics.ENABLED)
+			metrics.schedulesChanged(-schedules.size());
 	}
 }
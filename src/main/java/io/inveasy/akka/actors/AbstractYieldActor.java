@@ -17,17 +17,48 @@
 package io.inveasy.akka.actors;
 
 import akka.actor.ActorRef;
+import akka.actor.ActorSelection;
+import akka.actor.AutoReceivedMessage;
+import akka.actor.ExtendedActorSystem;
 import akka.japi.Pair;
 import akka.japi.pf.ReceiveBuilder;
-import io.inveasy.akka.actors.annotations.OriginalSender;
-import io.inveasy.akka.actors.annotations.Param;
-import io.inveasy.akka.actors.annotations.YieldReceiver;
+import akka.pattern.AskTimeoutException;
+import akka.serialization.Serialization;
+import io.inveasy.akka.actors.dispatch.ContextLayout;
+import io.inveasy.akka.actors.dispatch.ContextSlots;
+import io.inveasy.akka.actors.dispatch.YieldContinuation;
+import io.inveasy.akka.actors.dispatch.YieldDispatchPlan;
+import io.inveasy.akka.actors.dispatch.YieldReceiverPlan;
 import io.inveasy.akka.actors.domain.AbstractHeader;
-import io.inveasy.akka.actors.domain.SimpleHeader;
+import io.inveasy.akka.actors.domain.ContextArgs;
+import io.inveasy.akka.actors.domain.HeaderMap;
+import io.inveasy.akka.actors.domain.YieldHeader;
+import io.inveasy.akka.actors.messages.AskReply;
+import io.inveasy.akka.actors.messages.GatherResult;
+import io.inveasy.akka.actors.messages.HeaderMessage;
+import io.inveasy.akka.actors.messages.Overloaded;
+import io.inveasy.akka.actors.messages.YieldTimeout;
+import io.inveasy.akka.actors.metrics.ActorMetrics;
+import io.inveasy.akka.actors.store.CorrelationIdGenerator;
+import io.inveasy.akka.actors.store.EvictionCause;
+import io.inveasy.akka.actors.store.MonotonicIdGenerator;
+import io.inveasy.akka.actors.store.OffHeapYieldSpill;
+import io.inveasy.akka.actors.store.ReplyCache;
+import io.inveasy.akka.actors.store.YieldCodec;
+import io.inveasy.akka.actors.store.YieldStore;
+import io.inveasy.cluster.serialization.ProtostuffSerializable;
+import io.protostuff.LinkedBuffer;
+import io.protostuff.ProtostuffIOUtil;
+import io.protostuff.Schema;
+import io.protostuff.runtime.RuntimeSchema;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
 
-import java.lang.reflect.Method;
-import java.lang.reflect.Parameter;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class AbstractYieldActor extends AbstractHeaderActor
 {
@@ -36,24 +67,53 @@ public abstract class AbstractYieldActor extends AbstractHeaderActor
 	
 	public static class Yield
 	{
-		private String yieldId;
+		private long yieldId;
 		private Object originalMessage;
 		private ActorRef originalSender;
 		private Map<String, AbstractHeader> originalRequestHeaders;
-		private TreeMap<String, Object> context = new TreeMap<>();
+		private ContextSlots context;
+		private Duration timeout;
+		private long timestamp;
 		
-		private Yield(String yieldId, Object originalMessage, ActorRef originalSender, Map<String, AbstractHeader> requestHeaders, Pair<String, Object>[] contextArgs)
+		// Replies of a gather, by index of their target
+		private Object[] replies;
+		private int replyCount;
+		private int quorum;
+		
+		// Run with the reply instead of the receivers, when it has the expected type
+		private Class<?> replyType;
+		private YieldContinuation<Object> continuation;
+		
+		// Completed with the reply when this yield is the one of an ask
+		private CompletableFuture<AskReply> promise;
+		
+		// Replies of the request this yield processes, recorded for its duplicates, and whether the yield is over for them
+		private ReplyCache.Replies recordedReplies;
+		private boolean repliesReleased;
+		
+		private Yield(long yieldId, Object originalMessage, ActorRef originalSender, Map<String, AbstractHeader> requestHeaders, ContextSlots context, Duration timeout)
 		{
 			this.yieldId = yieldId;
 			this.originalMessage = originalMessage;
 			this.originalSender = originalSender;
 			this.originalRequestHeaders = requestHeaders;
-			
-			for(Pair<String, Object> contextArg : contextArgs)
-				context.put(contextArg.first(), contextArg.second());
+			this.context = context;
+			this.timeout = timeout;
+			this.timestamp = System.nanoTime();
+			context.resolve(originalMessage);
 		}
 		
-		public String getYieldId() { return this.yieldId; }
+		public long getYieldId() { return this.yieldId; }
+		/** Returns when this yield has been created, as given by System.nanoTime() */
+		public long getTimestamp() { return this.timestamp; }
+		/** Returns the time the reply is waited for, null when it is waited for as long as the yield is stored */
+		public Duration getTimeout() { return this.timeout; }
+		/** Tells whether this yield is the one of a gather, waiting for the replies of several targets */
+		public boolean isGather() { return this.replies != null; }
+		/** Tells whether this yield is the one of an ask, its reply completing a stage rather than being received */
+		public boolean isAsk() { return this.promise != null; }
+		/** Tells whether the reply of this yield is given to a continuation rather than to the receivers */
+		public boolean hasContinuation() { return this.continuation != null; }
 		public <T> T getOriginalTypedMessage(Class<T> cls)
 		{
 			return cls.cast(getOriginalMessage());
@@ -78,21 +138,53 @@ public abstract class AbstractYieldActor extends AbstractHeaderActor
 		{
 			return cls.cast(get(key));
 		}
+		/** Returns the context args, stored by slot */
+		public ContextSlots getContext()
+		{
+			return context;
+		}
+		
+		/** Hands the recorded replies over to the message resuming this yield, which releases them once received */
+		private ReplyCache.Replies takeReplies()
+		{
+			if(repliesReleased)
+				return null;
+			repliesReleased = true;
+			return recordedReplies;
+		}
+		
+		/** Tells the recorded replies that the request is not waiting for this yield anymore, once */
+		private void releaseReplies()
+		{
+			if(recordedReplies != null && !repliesReleased)
+			{
+				repliesReleased = true;
+				recordedReplies.release();
+			}
+		}
 		
 		public static class YieldBuilder
 		{
-			private String yieldId;
+			private long yieldId;
 			private Object originalMessage;
 			private ActorRef originalSender;
 			private Map<String, AbstractHeader> requestHeaders;
-			private Pair<String, Object>[] contextArgs;
+			private ContextLayout contextLayout = ContextLayout.EMPTY;
+			private Pair<String, Object>[] contextPairs;
+			private ContextArgs contextArgs;
+			private Duration timeout;
+			private int gatherTargets;
+			private int gatherQuorum;
+			private Class<?> replyType;
+			private YieldContinuation<?> continuation;
+			private CompletableFuture<AskReply> promise;
 			
 			public YieldBuilder(Object originalMessage)
 			{
 				this.originalMessage = originalMessage;
 			}
 			
-			public YieldBuilder setYieldId(String yieldId)
+			public YieldBuilder setYieldId(long yieldId)
 			{
 				this.yieldId = yieldId;
 				return this;
@@ -107,15 +199,68 @@ public abstract class AbstractYieldActor extends AbstractHeaderActor
 				this.requestHeaders = requestHeaders;
 				return this;
 			}
+			public YieldBuilder setContextLayout(ContextLayout contextLayout)
+			{
+				this.contextLayout = contextLayout;
+				return this;
+			}
 			public YieldBuilder setContextArgs(Pair<String, Object>[] contextArgs)
 			{
+				this.contextPairs = contextArgs;
+				this.contextArgs = null;
+				return this;
+			}
+			public YieldBuilder setContextArgs(ContextArgs contextArgs)
+			{
+				this.contextPairs = null;
 				this.contextArgs = contextArgs;
 				return this;
 			}
+			public YieldBuilder setTimeout(Duration timeout)
+			{
+				this.timeout = timeout;
+				return this;
+			}
+			public YieldBuilder setGather(int targets, int quorum)
+			{
+				this.gatherTargets = targets;
+				this.gatherQuorum = quorum;
+				return this;
+			}
+			public <T> YieldBuilder setContinuation(Class<T> replyType, YieldContinuation<? super T> continuation)
+			{
+				this.replyType = replyType;
+				this.continuation = continuation;
+				return this;
+			}
+			public YieldBuilder setPromise(CompletableFuture<AskReply> promise)
+			{
+				this.promise = promise;
+				return this;
+			}
 			
+			@SuppressWarnings("unchecked")
 			public Yield create()
 			{
-				return new Yield(yieldId, originalMessage, originalSender, requestHeaders, contextArgs);
+				ContextSlots context = new ContextSlots(contextLayout);
+				if(contextPairs != null)
+				{
+					for(Pair<String, Object> contextArg : contextPairs)
+						context.put(contextArg.first(), contextArg.second());
+				}
+				if(contextArgs != null)
+					context.putAll(contextArgs);
+				
+				Yield yield = new Yield(yieldId, originalMessage, originalSender, requestHeaders, context, timeout);
+				if(gatherTargets > 0)
+				{
+					yield.replies = new Object[gatherTargets];
+					yield.quorum = gatherQuorum;
+				}
+				yield.replyType = replyType;
+				yield.continuation = (YieldContinuation<Object>)continuation;
+				yield.promise = promise;
+				return yield;
 			}
 		}
 	}
@@ -125,111 +270,790 @@ public abstract class AbstractYieldActor extends AbstractHeaderActor
 	{
 		ReceiveBuilder receiveBuilder = super.mainReceiveBuilder();
 		
-		for(Method method : getClass().getDeclaredMethods())
+		boolean timeoutReceived = false;
+		boolean gatherReceived = false;
+		for(YieldReceiverPlan receiver : dispatchPlan().getReceivers())
 		{
-			YieldReceiver yieldReceiver = method.getAnnotation(YieldReceiver.class);
-			
-			if(yieldReceiver != null)
+			receiveBuilder.match(receiver.getExpectedMessageType(), o -> dispatch(receiver, o));
+			timeoutReceived |= receiver.getExpectedMessageType().isAssignableFrom(YieldTimeout.class);
+			gatherReceived |= receiver.getExpectedMessageType().isAssignableFrom(GatherResult.class);
+		}
+		
+		// Without receiver, the gather is simply over
+		if(!gatherReceived)
+		{
+			receiveBuilder.match(GatherResult.class, result ->
 			{
-				Object[] methodParams = new Object[method.getParameterCount()];
-				int messageParameterPosition = -1;
-				final Parameter[] parameters = method.getParameters();
-				int yieldContextPosition = -1;
-				int originalSenderPosition = -1;
-				
-				List<Integer> unresolvedParams = new ArrayList<>();
-				
-				// Find parameter order
-				for(int i = 0; i < methodParams.length; i++)
-				{
-					if(parameters[i].getType().isAssignableFrom(yieldReceiver.expectedMessageType()))
-						messageParameterPosition = i;
-					else if(parameters[i].getType().isAssignableFrom(Yield.class))
-						yieldContextPosition = i;
-					else if(parameters[i].getAnnotation(OriginalSender.class) != null)
-						originalSenderPosition = i;
-					else // We add the unresolved type, we'll try to find if it is in the yield context
-						unresolvedParams.add(i);
-				}
-				
-				final int mParamPos = messageParameterPosition;
-				final int yCP = yieldContextPosition;
-				final int oSP = originalSenderPosition;
-				receiveBuilder.match(yieldReceiver.expectedMessageType(), o -> {
-					this.currentYield = new Yield.YieldBuilder(o)
-							.setRequestHeaders(getRequestHeaders());
-					
-					// Try to get the context
-					Yield context = null;
-					AbstractHeader header = getRequestHeaders().get(ACTOR_YIELD_UUID);
-					if(header != null)
-						context = yields.remove(header.getContent());
-					
-					if(mParamPos != -1)
-						methodParams[mParamPos] = o;
-					if(yCP != -1)
-						methodParams[yCP] = context;
-					if(oSP != -1 && context != null)
-						methodParams[oSP] = context.getOriginalSender();
-					
-					// Try to resolve unresolved params
-					for(int i : unresolvedParams)
-					{
-						if(context == null) // If we don't have any context, resolve all remaining params as null
-							methodParams[i] = null;
-						else
-						{
-							// If the parameter has the @Param annotation, use its value as param name
-							Param paramName = parameters[i].getAnnotation(Param.class);
-							String name = parameters[i].getName();
-							if(paramName != null)
-								name = paramName.value();
-							
-							Object contextObject = context.get(name);
-							if(context.getOriginalMessage() != null && parameters[i].getType().isAssignableFrom(context.getOriginalMessage().getClass()))
-								methodParams[i] = context.getOriginalMessage();
-							else if(contextObject != null && parameters[i].getType().isAssignableFrom(contextObject.getClass()))
-								methodParams[i] = contextObject;
-							else // TODO Make a second pass to search by type
-								methodParams[i] = null;
-						}
-					}
-					
-					method.setAccessible(true);
-					method.invoke(this, methodParams);
-					method.setAccessible(false);
-				});
-			}
+				Yield yield = takeYield(result.getYieldId());
+				if(yield != null)
+					yield.releaseReplies();
+				if(ActorMetrics.ENABLED && yield != null)
+					recordResolved(yield, result.isTimedOut());
+			});
+		}
+		
+		// Without receiver, timed out yields are evicted
+		if(!timeoutReceived)
+		{
+			receiveBuilder.match(YieldTimeout.class, timeout ->
+			{
+				Yield yield = takeYield(timeout.getYieldId());
+				if(yield != null)
+					evicted(yield, EvictionCause.TIMEOUT);
+			});
 		}
 		
 		return receiveBuilder;
 	}
 	
+	/** Returns the dispatch plan of this actor class */
+	private YieldDispatchPlan dispatchPlan()
+	{
+		if(dispatchPlan == null)
+			dispatchPlan = YieldDispatchPlan.forClass(getClass());
+		return dispatchPlan;
+	}
+	
+	/** Resolves the arguments of the receiver for the received message, then invokes it */
+	private void dispatch(YieldReceiverPlan receiver, Object o) throws Exception
+	{
+		Map<String, AbstractHeader> requestHeaders = currentRequestHeaders();
+		this.currentYield = new Yield.YieldBuilder(o)
+				.setRequestHeaders(requestHeaders);
+		
+		// Try to get the context
+		Yield context = null;
+		if(o instanceof GatherResult)
+			context = takeYield(((GatherResult)o).getYieldId());
+		else if(o instanceof YieldTimeout)
+		{
+			// Nothing to do when the reply came first, or the yield has been evicted
+			context = takeYield(((YieldTimeout)o).getYieldId());
+			if(context == null)
+				return;
+		}
+		else
+		{
+			AbstractHeader header = requestHeaders.get(ACTOR_YIELD_UUID);
+			if(header instanceof YieldHeader)
+			{
+				YieldHeader yieldHeader = (YieldHeader)header;
+				if(yieldHeader.getActorSerial() == actorSerial)
+					context = takeYield(yieldHeader.getYieldId());
+			}
+		}
+		
+		if(context != null)
+			setRecordedReplies(context.takeReplies());
+		if(ActorMetrics.ENABLED && context != null)
+			recordResolved(context, o instanceof YieldTimeout || (o instanceof GatherResult && ((GatherResult)o).isTimedOut()));
+		
+		Object[] methodParams = new Object[receiver.getParameterCount()];
+		if(receiver.getMessagePosition() != -1)
+			methodParams[receiver.getMessagePosition()] = o;
+		if(receiver.getYieldPosition() != -1)
+			methodParams[receiver.getYieldPosition()] = context;
+		if(receiver.getOriginalSenderPosition() != -1 && context != null)
+			methodParams[receiver.getOriginalSenderPosition()] = context.getOriginalSender();
+		
+		// Context params are resolved on first read, only those of this receiver, if we don't have any context, they all remain null
+		if(context != null)
+		{
+			int[] positions = receiver.getContextPositions();
+			int[] slots = receiver.getContextSlots();
+			ContextSlots contextSlots = context.getContext();
+			for(int i = 0; i < positions.length; i++)
+				methodParams[positions[i]] = contextSlots.getResolved(slots[i]);
+		}
+		
+		if(ActorMetrics.ENABLED)
+		{
+			long start = System.nanoTime();
+			receiver.getInvoker().invoke(this, methodParams);
+			metrics.handlerExecuted(System.nanoTime() - start);
+		}
+		else
+			receiver.getInvoker().invoke(this, methodParams);
+	}
+	
+	/** Records the end of a yield, which came with its reply unless it timed out */
+	private void recordResolved(Yield yield, boolean timedOut)
+	{
+		if(timedOut)
+			metrics.yieldTimedOut();
+		else
+			metrics.yieldCompleted(System.nanoTime() - yield.getTimestamp());
+	}
+	
 	@Override
 	public Receive createReceive()
 	{
 		return mainReceiveBuilder().build();
 	}
 	
-	private Map<String, Yield> yields = new TreeMap<>();
+	@Override
+	public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object msg)
+	{
+		if(msg instanceof Unstashed)
+		{
+			// Stashed requests come back in their envelope, and are admitted before the newer ones
+			unstashing--;
+			unstashed = true;
+			try
+			{
+				super.aroundReceive(receive, ((Unstashed)msg).envelope);
+			}
+			finally
+			{
+				unstashed = false;
+			}
+		}
+		else
+			super.aroundReceive(receive, msg);
+	}
+	
+	@Override
+	public void postStop()
+	{
+		if(ActorMetrics.ENABLED && yields != null)
+			metrics.yieldsDropped(yields.size());
+		if(yields != null)
+		{
+			// Asks are never spilled, the pending ones are all on heap
+			yields.forEachOnHeap(yield ->
+			{
+				if(yield.isAsk())
+					yield.promise.completeExceptionally(new AskTimeoutException("Actor stopped before the reply came"));
+			});
+		}
+		if(stash != null)
+		{
+			for(StashedMessage stashed : stash)
+				getContext().getSystem().deadLetters().tell(stashed.envelope(), stashed.sender);
+			stash = null;
+		}
+		super.postStop();
+	}
+	
+	/**
+	 * Holds back the requests received while too many yields are in flight,
+	 * collects the replies of gathers, which are received as a single GatherResult once the gather completes,
+	 * and gives replies to the continuation of their yield, looked up by its id before the receivers are matched
+	 */
+	@Override
+	protected Object preReceive(Object message)
+	{
+		if(yields == null)
+			return message;
+		
+		// Sweeps go through the usual header reset, as evicted yields can be replied to from onYieldEvicted()
+		if(message == SWEEP_YIELDS)
+		{
+			yields.sweep(System.nanoTime());
+			return null;
+		}
+		
+		if(message instanceof YieldTimeout)
+		{
+			Yield yield = yields.get(((YieldTimeout)message).getYieldId());
+			if(yield != null && yield.isAsk())
+			{
+				evicted(takeYield(yield.getYieldId()), EvictionCause.TIMEOUT);
+				return null;
+			}
+			if(yield != null && yield.hasContinuation())
+				return continueWith(yield, message);
+			return yield != null && yield.isGather() ? gatherResult(yield, true) : message;
+		}
+		
+		AbstractHeader header = currentRequestHeaders().get(ACTOR_YIELD_UUID);
+		if(!(header instanceof YieldHeader) || ((YieldHeader)header).getActorSerial() != actorSerial)
+			return admit(message);
+		
+		YieldHeader yieldHeader = (YieldHeader)header;
+		if(yieldHeader.getIndex() < 0)
+		{
+			Yield yield = yields.get(yieldHeader.getYieldId());
+			return yield != null && yield.hasContinuation() ? continueWith(yield, message) : message;
+		}
+		
+		// Late replies of a completed gather are dropped
+		Yield gather = yields.get(yieldHeader.getYieldId());
+		if(gather == null || !gather.isGather())
+			return null;
+		
+		int index = yieldHeader.getIndex();
+		if(index >= gather.replies.length || gather.replies[index] != null)
+			return null;
+		
+		gather.replies[index] = message;
+		gather.replyCount++;
+		return gather.replyCount >= gather.quorum ? gatherResult(gather, false) : null;
+	}
+	
+	/**
+	 * Runs the continuation of the yield with its reply and returns null, the yield being over<br>
+	 * Replies which do not have the expected type are returned, to be matched by the receivers
+	 */
+	private Object continueWith(Yield yield, Object message)
+	{
+		if(!yield.replyType.isInstance(message))
+			return message;
+		
+		takeYield(yield.getYieldId());
+		setRecordedReplies(yield.takeReplies());
+		if(ActorMetrics.ENABLED)
+			recordResolved(yield, message instanceof YieldTimeout);
+		
+		// The continuation can yield again, as a receiver of the reply would
+		this.currentYield = new Yield.YieldBuilder(message)
+				.setRequestHeaders(currentRequestHeaders());
+		if(ActorMetrics.ENABLED)
+		{
+			long start = System.nanoTime();
+			yield.continuation.accept(message, yield);
+			metrics.handlerExecuted(System.nanoTime() - start);
+		}
+		else
+			yield.continuation.accept(message, yield);
+		return null;
+	}
+	
+	private GatherResult gatherResult(Yield gather, boolean timedOut)
+	{
+		return new GatherResult(gather.getYieldId(), gather.replies, gather.replyCount, timedOut);
+	}
+	
+	/** Lets the message in, unless it is a request and the yield limit is reached : it is then stashed, or rejected */
+	private Object admit(Object message)
+	{
+		int limit = getYieldBackpressureLimit();
+		if(limit == Integer.MAX_VALUE || !isRequest(message))
+			return message;
+		
+		// Newer requests wait for the stashed ones to be taken back, so that they are processed in order
+		boolean waiting = stash != null && !stash.isEmpty() && !unstashed;
+		if(!waiting && yields.size() < limit)
+			return message;
+		
+		if(stash == null)
+			stash = new ArrayDeque<>();
+		StashedMessage stashed = new StashedMessage(message, HeaderMap.frozenCopyOf(currentRequestHeaders()), getSender());
+		if(unstashed)
+			stash.addFirst(stashed);
+		else if(stash.size() < getMaxStashedRequests())
+			stash.addLast(stashed);
+		else
+			tell(getSender(), new Overloaded(message, yields.size()));
+		return null;
+	}
+	
+	/** Takes back as many stashed requests as yields can be created */
+	private void resume()
+	{
+		if(stash == null || stash.isEmpty())
+			return;
+		
+		int free = getYieldBackpressureLimit() - yields.size() - unstashing;
+		for(; free > 0 && !stash.isEmpty(); free--)
+		{
+			StashedMessage stashed = stash.pollFirst();
+			unstashing++;
+			getSelf().tell(new Unstashed(stashed.envelope()), stashed.sender);
+		}
+	}
+	
+	private static final String SWEEP_SCHEDULE = "yield-sweep";
+	private static final String TIMEOUT_SCHEDULE_PREFIX = "yield-timeout-";
+	private static final Object SWEEP_YIELDS = new Object();
+	
+	private static final AtomicLong ACTOR_SERIALS = new AtomicLong();
+	
+	/** Identifies this actor among the yield actors of this JVM, ACTOR_UUID identifying the JVM itself */
+	private final long actorSerial = ACTOR_SERIALS.incrementAndGet();
+	private YieldDispatchPlan dispatchPlan;
+	private CorrelationIdGenerator correlationIds;
+	private YieldStore yields;
 	private Yield.YieldBuilder currentYield;
 	
+	// Requests held back by the yield limit, and the number of them sent back to this actor which did not come yet
+	private ArrayDeque<StashedMessage> stash;
+	private int unstashing;
+	private boolean unstashed;
+	
+	/** Maximum number of yields in flight, the oldest ones are evicted above it */
+	protected int getMaxInFlightYields()
+	{
+		return Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * Number of yields in flight above which new requests are held back until replies come<br>
+	 * They are stashed, up to getMaxStashedRequests(), then rejected with an Overloaded reply<br>
+	 * Defaults to Integer.MAX_VALUE, meaning requests are never held back
+	 */
+	protected int getYieldBackpressureLimit()
+	{
+		return Integer.MAX_VALUE;
+	}
+	
+	/** Maximum number of requests stashed while the yield limit is reached, 0 meaning they are rejected right away */
+	protected int getMaxStashedRequests()
+	{
+		return Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * Tells whether a message which is not a reply is a new request, held back while the yield limit is reached<br>
+	 * Defaults to the messages sent by other actors, except the ones Akka handles itself such as Terminated
+	 */
+	protected boolean isRequest(Object message)
+	{
+		return !getSelf().equals(getSender()) && !(message instanceof AutoReceivedMessage);
+	}
+	
+	/** Replies to the yields of this actor are received past their deadline, so that their yield completes */
+	@Override
+	protected boolean isDeadlineChecked(Object message)
+	{
+		AbstractHeader header = currentRequestHeaders().get(ACTOR_YIELD_UUID);
+		return !(header instanceof YieldHeader) || ((YieldHeader)header).getActorSerial() != actorSerial;
+	}
+	
+	/** Time to live of the yields whose reply has not come, null meaning they never expire */
+	protected Duration getYieldTimeToLive()
+	{
+		return null;
+	}
+	
+	/** Interval between two sweeps of the expired yields, defaults to their time to live */
+	protected Duration getYieldSweepInterval()
+	{
+		return getYieldTimeToLive();
+	}
+	
+	/**
+	 * Number of yields kept on heap, above which the oldest ones are spilled off-heap until their reply comes<br>
+	 * Only yields whose original message and context args are strings, primitives, enums or ProtostuffSerializable are spilled<br>
+	 * Defaults to Integer.MAX_VALUE, meaning yields are never spilled
+	 */
+	protected int getMaxOnHeapYields()
+	{
+		return Integer.MAX_VALUE;
+	}
+	
+	/** Creates the generator of the ids of the yields of this actor, a plain counter by default */
+	protected CorrelationIdGenerator createCorrelationIdGenerator()
+	{
+		return new MonotonicIdGenerator();
+	}
+	
+	/**
+	 * Called when a yield is dropped before its reply came, either because it expired or because too many yields are in flight<br>
+	 * Does nothing by default
+	 * @param yield The dropped yield
+	 * @param cause Why it has been dropped
+	 */
+	protected void onYieldEvicted(Yield yield, EvictionCause cause)
+	{
+		// Nothing to do by default
+	}
+	
+	/** Returns the yield store, creating it (and scheduling its sweeps) on first use */
+	private YieldStore yields()
+	{
+		if(yields == null)
+		{
+			Duration timeToLive = getYieldTimeToLive();
+			long timeToLiveNanos = timeToLive == null ? 0 : timeToLive.toNanos();
+			int maxOnHeap = getMaxOnHeapYields();
+			if(maxOnHeap == Integer.MAX_VALUE)
+				yields = new YieldStore(getMaxInFlightYields(), timeToLiveNanos, this::evicted);
+			else
+				yields = new YieldStore(getMaxInFlightYields(), timeToLiveNanos, this::evicted, maxOnHeap, new SpilledYieldCodec(), new OffHeapYieldSpill());
+			
+			if(yields.isExpiring())
+				scheduleToSelf(SWEEP_SCHEDULE, getYieldSweepInterval(), SWEEP_YIELDS);
+		}
+		
+		return yields;
+	}
+	
+	/** Removes the yield from the store, cancelling its timeout */
+	private Yield takeYield(long yieldId)
+	{
+		Yield yield = yields == null ? null : yields.remove(yieldId);
+		if(yield != null && yield.getTimeout() != null)
+			cancelSchedule(TIMEOUT_SCHEDULE_PREFIX + yieldId);
+		if(yield != null)
+			resume();
+		return yield;
+	}
+	
+	private void evicted(Yield yield, EvictionCause cause)
+	{
+		if(ActorMetrics.ENABLED)
+			metrics.yieldEvicted(cause);
+		if(yield.getTimeout() != null)
+			cancelSchedule(TIMEOUT_SCHEDULE_PREFIX + yield.getYieldId());
+		if(yield.isAsk())
+		{
+			yield.promise.completeExceptionally(new AskTimeoutException(cause == EvictionCause.TIMEOUT
+					? "Ask timed out after " + yield.getTimeout().toMillis() + " ms" : "Ask dropped before the reply came (" + cause + ")"));
+		}
+		yield.releaseReplies();
+		onYieldEvicted(yield, cause);
+		resume();
+	}
+	
 	@SafeVarargs
 	// TODO This method is final !!!!!
 	protected final void yield(Pair<String, Object>... contextArgs)
+	{
+		storeYield(yieldBuilder().setContextArgs(contextArgs));
+	}
+	
+	/**
+	 * Same as yield(Pair...), with context args whose int and long values are not boxed
+	 * @param contextArgs The args to store in the yield context
+	 */
+	protected final void yield(ContextArgs contextArgs)
+	{
+		storeYield(yieldBuilder().setContextArgs(contextArgs));
+	}
+	
+	/**
+	 * Same as yield(Pair...), the reply being waited for the given time at most<br>
+	 * When it elapses first, the actor receives a YieldTimeout dispatched with the context of this yield, which is dropped
+	 * @param timeout The time to wait for the reply
+	 * @param contextArgs The args to store in the yield context
+	 */
+	@SafeVarargs
+	@SuppressWarnings("varargs")
+	protected final void yield(Duration timeout, Pair<String, Object>... contextArgs)
+	{
+		storeYield(yieldBuilder().setContextArgs(contextArgs).setTimeout(timeout));
+	}
+	
+	/**
+	 * Same as yield(ContextArgs), the reply being waited for the given time at most<br>
+	 * When it elapses first, the actor receives a YieldTimeout dispatched with the context of this yield, which is dropped
+	 * @param timeout The time to wait for the reply
+	 * @param contextArgs The args to store in the yield context
+	 */
+	protected final void yield(Duration timeout, ContextArgs contextArgs)
+	{
+		storeYield(yieldBuilder().setContextArgs(contextArgs).setTimeout(timeout));
+	}
+	
+	/**
+	 * Same as yield(Pair...), the reply being given to the continuation rather than to the receivers<br>
+	 * The continuation is found by the id of the yield, before the receivers are matched, so that flows expecting
+	 * replies of the same type are told apart, replies of another type being matched by the receivers as usual
+	 * @param replyType The type of the reply expected by the continuation
+	 * @param continuation What to do with the reply
+	 * @param contextArgs The args to store in the yield context
+	 */
+	@SafeVarargs
+	@SuppressWarnings("varargs")
+	protected final <T> void yield(Class<T> replyType, YieldContinuation<? super T> continuation, Pair<String, Object>... contextArgs)
+	{
+		storeYield(yieldBuilder().setContextArgs(contextArgs).setContinuation(replyType, continuation));
+	}
+	
+	/**
+	 * Same as yield(Class, YieldContinuation, Pair...), with context args whose int and long values are not boxed
+	 */
+	protected final <T> void yield(Class<T> replyType, YieldContinuation<? super T> continuation, ContextArgs contextArgs)
+	{
+		storeYield(yieldBuilder().setContextArgs(contextArgs).setContinuation(replyType, continuation));
+	}
+	
+	/**
+	 * Same as yield(Class, YieldContinuation, Pair...), the reply being waited for the given time at most<br>
+	 * When it elapses first, the YieldTimeout is given to the continuation if it expects it, otherwise matched by the receivers
+	 */
+	@SafeVarargs
+	@SuppressWarnings("varargs")
+	protected final <T> void yield(Duration timeout, Class<T> replyType, YieldContinuation<? super T> continuation, Pair<String, Object>... contextArgs)
+	{
+		storeYield(yieldBuilder().setContextArgs(contextArgs).setTimeout(timeout).setContinuation(replyType, continuation));
+	}
+	
+	/**
+	 * Same as yield(Duration, Class, YieldContinuation, Pair...), with context args whose int and long values are not boxed
+	 */
+	protected final <T> void yield(Duration timeout, Class<T> replyType, YieldContinuation<? super T> continuation, ContextArgs contextArgs)
+	{
+		storeYield(yieldBuilder().setContextArgs(contextArgs).setTimeout(timeout).setContinuation(replyType, continuation));
+	}
+	
+	/**
+	 * Sends the message to every target under a single yield, then waits for their replies<br>
+	 * Once quorum targets replied, or the timeout elapsed, the actor receives a single GatherResult holding the replies,
+	 * dispatched with the context of this yield<br>
+	 * Targets must reply with the headers of the message, as header actors do
+	 * @param targets The actors to send the message to
+	 * @param message The message to send
+	 * @param quorum The number of replies to wait for, between 1 and the number of targets
+	 * @param timeout The time to wait for the replies at most, null to wait as long as the yield is stored
+	 * @param contextArgs The args to store in the yield context
+	 */
+	@SafeVarargs
+	@SuppressWarnings("varargs")
+	protected final void gather(Collection<ActorRef> targets, Object message, int quorum, Duration timeout, Pair<String, Object>... contextArgs)
+	{
+		gather(targets, message, quorum, yieldBuilder().setContextArgs(contextArgs).setTimeout(timeout));
+	}
+	
+	/**
+	 * Same as gather(Collection, Object, int, Duration, Pair...), with context args whose int and long values are not boxed
+	 */
+	protected final void gather(Collection<ActorRef> targets, Object message, int quorum, Duration timeout, ContextArgs contextArgs)
+	{
+		gather(targets, message, quorum, yieldBuilder().setContextArgs(contextArgs).setTimeout(timeout));
+	}
+	
+	private void gather(Collection<ActorRef> targets, Object message, int quorum, Yield.YieldBuilder yieldBuilder)
+	{
+		if(quorum < 1 || quorum > targets.size())
+			throw new IllegalArgumentException("Quorum must be between 1 and the " + targets.size() + " targets");
+		
+		AbstractHeader previousHeader = headers.get(ACTOR_YIELD_UUID);
+		long yieldId = storeYield(yieldBuilder.setGather(targets.size(), quorum));
+		
+		// Each target gets its index along with the yield, so that its reply finds its place
+		int index = 0;
+		for(ActorRef target : targets)
+		{
+			headers.put(ACTOR_YIELD_UUID, new YieldHeader(actorSerial, yieldId, index++));
+			tell(target, message);
+		}
+		
+		restoreYieldHeader(previousHeader);
+	}
+	
+	/**
+	 * Sends the message to the target, and returns a stage completed with its reply, along with the headers it came with<br>
+	 * The reply is correlated like the one of a yield, so no temporary actor is created and headers are kept on both ways<br>
+	 * The stage is completed by this actor when it receives the reply, which is not given to the receive function :
+	 * callbacks which are not async run on the actor, and can use its state<br>
+	 * It fails with an AskTimeoutException when the timeout elapses first, the yield is evicted, or the actor stops<br>
+	 * Headers put for the next messages are left as they were
+	 * @param target The target of the message
+	 * @param message The message to send
+	 * @param timeout The time to wait for the reply
+	 */
+	protected final CompletionStage<AskReply> ask(ActorRef target, Object message, Duration timeout)
+	{
+		AbstractHeader previousHeader = headers.get(ACTOR_YIELD_UUID);
+		CompletableFuture<AskReply> promise = storeAsk(timeout);
+		tell(target, message);
+		restoreYieldHeader(previousHeader);
+		return promise;
+	}
+	
+	/**
+	 * Same as ask(ActorRef, Object, Duration), for an actor selection
+	 */
+	protected final CompletionStage<AskReply> ask(ActorSelection target, Object message, Duration timeout)
+	{
+		AbstractHeader previousHeader = headers.get(ACTOR_YIELD_UUID);
+		CompletableFuture<AskReply> promise = storeAsk(timeout);
+		tell(target, message);
+		restoreYieldHeader(previousHeader);
+		return promise;
+	}
+	
+	private CompletableFuture<AskReply> storeAsk(Duration timeout)
+	{
+		Objects.requireNonNull(timeout, "The timeout of an ask is required");
+		CompletableFuture<AskReply> promise = new CompletableFuture<>();
+		storeYield(yieldBuilder().setContextArgs((ContextArgs)null).setTimeout(timeout).setPromise(promise)
+				.setContinuation(Object.class, (reply, yield) -> promise.complete(new AskReply(reply, HeaderMap.frozenCopyOf(currentRequestHeaders())))));
+		return promise;
+	}
+	
+	/** Puts back the yield header there was before a message was sent under its own yield */
+	private void restoreYieldHeader(AbstractHeader previousHeader)
+	{
+		if(previousHeader != null)
+			headers.put(ACTOR_YIELD_UUID, previousHeader);
+		else
+			headers.remove(ACTOR_YIELD_UUID);
+	}
+	
+	private Yield.YieldBuilder yieldBuilder()
 	{
 		if(currentYield == null)
 			currentYield = new Yield.YieldBuilder(null);
+		return currentYield;
+	}
+	
+	private long storeYield(Yield.YieldBuilder yieldBuilder)
+	{
+		// Generate an id for this yield, unique within this actor
+		if(correlationIds == null)
+			correlationIds = createCorrelationIdGenerator();
+		long yieldId = correlationIds.nextId();
 		
-		// Generate a uid for this yield
-		String yieldId = UUID.randomUUID().toString();
-		
-		Yield yield = currentYield.setYieldId(yieldId)
+		Yield yield = yieldBuilder.setYieldId(yieldId)
 				.setOriginalSender(getSender())
-				.setContextArgs(contextArgs)
+				.setContextLayout(dispatchPlan().getContextLayout())
 				.create();
+		yield.recordedReplies = getRecordedReplies();
+		if(yield.recordedReplies != null)
+			yield.recordedReplies.retain();
+		
+		// Options only apply to the yield they were given to
+		yieldBuilder.setTimeout(null).setGather(0, 0).setContinuation(null, null).setPromise(null);
+		
+		yields().put(yieldId, yield);
+		if(ActorMetrics.ENABLED)
+			metrics.yieldCreated();
+		headers.put(ACTOR_YIELD_UUID, new YieldHeader(actorSerial, yieldId));
+		
+		if(yield.getTimeout() != null)
+			scheduleOnceToSelf(TIMEOUT_SCHEDULE_PREFIX + yieldId, yield.getTimeout(), new YieldTimeout(yieldId, yield.getTimeout()));
+		return yieldId;
+	}
+	
+	//////////////////// Backpressure ////////////////////
+	/** Request held back by the yield limit */
+	private static final class StashedMessage
+	{
+		private final Object message;
+		private final HeaderMap headers;
+		private final ActorRef sender;
+		
+		private StashedMessage(Object message, HeaderMap headers, ActorRef sender)
+		{
+			this.message = message;
+			this.headers = headers;
+			this.sender = sender;
+		}
+		
+		/** Returns the request as it was received, along with its headers */
+		private Object envelope()
+		{
+			return headers.isEmpty() ? message : new HeaderMessage(headers, message);
+		}
+	}
+	
+	/** Stashed request sent back by this actor to itself, once yields completed */
+	private static final class Unstashed
+	{
+		private final Object envelope;
+		
+		private Unstashed(Object envelope)
+		{
+			this.envelope = envelope;
+		}
+	}
+	
+	//////////////////// Off-heap spill ////////////////////
+	/** Yield as written off-heap, the original sender being kept as its serialized path */
+	private static final class SpilledYield
+	{
+		private long yieldId;
+		private long timestamp;
+		private long timeoutNanos = -1;
+		private Object originalMessage;
+		private String originalSender;
+		private HashMap<String, AbstractHeader> requestHeaders;
+		
+		// Context args, object values being only the non null ones, in order
+		private String[] names;
+		private byte[] kinds;
+		private long[] primitives;
+		private Object[] values;
+	}
+	
+	private static final Schema<SpilledYield> SPILLED_YIELD_SCHEMA = RuntimeSchema.getSchema(SpilledYield.class);
+	
+	/** Encodes the yields of this actor with Protostuff, when their content is known to be serializable */
+	private final class SpilledYieldCodec implements YieldCodec
+	{
+		@Override
+		public byte[] encode(Yield yield)
+		{
+			if(yield.isGather() || yield.hasContinuation() || yield.recordedReplies != null || !isSpillable(yield.getOriginalMessage()))
+				return null;
+			
+			ContextArgs args = yield.getContext().toArgs();
+			List<String> names = new ArrayList<>(args.size());
+			List<Object> values = new ArrayList<>(args.size());
+			byte[] kinds = new byte[args.size()];
+			long[] primitives = new long[args.size()];
+			for(int i = 0; i < args.size(); i++)
+			{
+				if(args.getKind(i) == ContextArgs.OBJECT)
+				{
+					if(args.getValue(i) == null)
+						continue;
+					if(!isSpillable(args.getValue(i)))
+						return null;
+					values.add(args.getValue(i));
+				}
+				kinds[names.size()] = args.getKind(i);
+				primitives[names.size()] = args.getPrimitive(i);
+				names.add(args.getName(i));
+			}
+			
+			SpilledYield spilled = new SpilledYield();
+			spilled.yieldId = yield.getYieldId();
+			spilled.timestamp = yield.getTimestamp();
+			spilled.timeoutNanos = yield.getTimeout() == null ? -1 : yield.getTimeout().toNanos();
+			spilled.originalMessage = yield.getOriginalMessage();
+			spilled.originalSender = yield.getOriginalSender() == null ? null : Serialization.serializedActorPath(yield.getOriginalSender());
+			spilled.requestHeaders = yield.getRequestHeaders() == null ? null : new HashMap<>(yield.getRequestHeaders());
+			spilled.names = names.toArray(new String[0]);
+			spilled.kinds = Arrays.copyOf(kinds, names.size());
+			spilled.primitives = Arrays.copyOf(primitives, names.size());
+			spilled.values = values.toArray();
+			
+			try
+			{
+				return ProtostuffIOUtil.toByteArray(spilled, SPILLED_YIELD_SCHEMA, LinkedBuffer.allocate());
+			}
+			catch(RuntimeException e)
+			{
+				// Headers may not be serializable, the yield stays on heap
+				return null;
+			}
+		}
 		
-		yields.put(yieldId, yield);
-		headers.put(ACTOR_YIELD_UUID, new SimpleHeader(true, yieldId));
+		@Override
+		public Yield decode(byte[] bytes)
+		{
+			SpilledYield spilled = SPILLED_YIELD_SCHEMA.newMessage();
+			ProtostuffIOUtil.mergeFrom(bytes, spilled, SPILLED_YIELD_SCHEMA);
+			
+			ContextSlots context = new ContextSlots(dispatchPlan().getContextLayout());
+			int value = 0;
+			for(int i = 0; spilled.names != null && i < spilled.names.length; i++)
+			{
+				if(spilled.kinds[i] == ContextArgs.INT)
+					context.putAll(ContextArgs.args().putInt(spilled.names[i], (int)spilled.primitives[i]));
+				else if(spilled.kinds[i] == ContextArgs.LONG)
+					context.putAll(ContextArgs.args().putLong(spilled.names[i], spilled.primitives[i]));
+				else
+					context.put(spilled.names[i], spilled.values[value++]);
+			}
+			
+			ActorRef originalSender = spilled.originalSender == null ? null
+					: ((ExtendedActorSystem)getContext().getSystem()).provider().resolveActorRef(spilled.originalSender);
+			Yield yield = new Yield(spilled.yieldId, spilled.originalMessage, originalSender,
+					spilled.requestHeaders == null ? null : HeaderMap.frozenCopyOf(spilled.requestHeaders),
+					context, spilled.timeoutNanos < 0 ? null : Duration.ofNanos(spilled.timeoutNanos));
+			yield.timestamp = spilled.timestamp;
+			return yield;
+		}
+		
+		private boolean isSpillable(Object value)
+		{
+			return value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+					|| value instanceof Character || value instanceof Enum || value instanceof ProtostuffSerializable;
+		}
 	}
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.collections;
+
+import java.util.Arrays;
+
+/**
+ * Hash map with primitive long keys and non-null values<br>
+ * Uses open addressing with linear probing, so that neither keys nor entries are boxed<br>
+ * Not thread-safe
+ * @param <V> The type of the values
+ */
+public class LongObjectHashMap<V>
+{
+	private static final int MIN_CAPACITY = 8;
+	
+	private long[] keys;
+	private Object[] values;
+	private int mask;
+	private int size;
+	private int resizeThreshold;
+	
+	public LongObjectHashMap()
+	{
+		this(MIN_CAPACITY);
+	}
+	
+	/**
+	 * Creates a map able to hold the given number of entries without resizing
+	 * @param expectedSize The expected number of entries
+	 */
+	public LongObjectHashMap(int expectedSize)
+	{
+		allocate(capacityFor(expectedSize));
+	}
+	
+	/** Returns the value mapped to the key, or null */
+	@SuppressWarnings("unchecked")
+	public V get(long key)
+	{
+		for(int index = indexOf(key); values[index] != null; index = (index + 1) & mask)
+		{
+			if(keys[index] == key)
+				return (V)values[index];
+		}
+		return null;
+	}
+	
+	/** Tells whether the key is mapped */
+	public boolean containsKey(long key)
+	{
+		return get(key) != null;
+	}
+	
+	/**
+	 * Maps the value to the key
+	 * @return The value previously mapped to the key, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value)
+	{
+		if(value == null)
+			throw new NullPointerException("Null values are not supported");
+		
+		int index = indexOf(key);
+		for(; values[index] != null; index = (index + 1) & mask)
+		{
+			if(keys[index] == key)
+			{
+				V previous = (V)values[index];
+				values[index] = value;
+				return previous;
+			}
+		}
+		
+		keys[index] = key;
+		values[index] = value;
+		if(++size > resizeThreshold)
+			rehash(values.length << 1);
+		
+		return null;
+	}
+	
+	/**
+	 * Removes the mapping of the key
+	 * @return The value which was mapped to the key, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key)
+	{
+		for(int index = indexOf(key); values[index] != null; index = (index + 1) & mask)
+		{
+			if(keys[index] == key)
+			{
+				V previous = (V)values[index];
+				values[index] = null;
+				size--;
+				compactChain(index);
+				return previous;
+			}
+		}
+		return null;
+	}
+	
+	/** Returns the number of entries */
+	public int size()
+	{
+		return size;
+	}
+	
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+	
+	/** Removes all the entries, keeping the current capacity */
+	public void clear()
+	{
+		Arrays.fill(values, null);
+		size = 0;
+	}
+	
+	/** Calls the action for each entry, in no particular order */
+	@SuppressWarnings("unchecked")
+	public void forEach(LongObjectConsumer<? super V> action)
+	{
+		for(int i = 0; i < values.length; i++)
+		{
+			if(values[i] != null)
+				action.accept(keys[i], (V)values[i]);
+		}
+	}
+	
+	/** Consumer of a primitive key and its value */
+	@FunctionalInterface
+	public interface LongObjectConsumer<V>
+	{
+		void accept(long key, V value);
+	}
+	
+	/** Shifts back the entries following a removed one, so that probing chains stay unbroken */
+	private void compactChain(int deleted)
+	{
+		for(int index = (deleted + 1) & mask; values[index] != null; index = (index + 1) & mask)
+		{
+			int home = indexOf(keys[index]);
+			
+			// Move the entry if its home slot is not between the hole and its current position
+			if((index > deleted && (home <= deleted || home > index)) || (index < deleted && home <= deleted && home > index))
+			{
+				keys[deleted] = keys[index];
+				values[deleted] = values[index];
+				values[index] = null;
+				deleted = index;
+			}
+		}
+	}
+	
+	private int indexOf(long key)
+	{
+		// Fibonacci hashing, so that sequential keys spread over the table
+		return (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+	
+	private void rehash(int capacity)
+	{
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		
+		for(int i = 0; i < oldValues.length; i++)
+		{
+			if(oldValues[i] != null)
+			{
+				int index = indexOf(oldKeys[i]);
+				while(values[index] != null)
+					index = (index + 1) & mask;
+				
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+	
+	private void allocate(int capacity)
+	{
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		resizeThreshold = capacity / 2;
+	}
+	
+	private static int capacityFor(int expectedSize)
+	{
+		int capacity = MIN_CAPACITY;
+		while(capacity / 2 < expectedSize)
+			capacity <<= 1;
+		return capacity;
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.collections;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer, for any number of producers and consumers<br>
+ * Each slot has a sequence telling whether it can be written or read for the current turn of the ring,
+ * elements offered while the buffer is full are refused rather than blocking the producer
+ * @param <E> The type of the elements
+ */
+public class RingBuffer<E>
+{
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong head = new AtomicLong();
+	
+	/**
+	 * Creates an empty buffer
+	 * @param capacity The number of elements it holds, rounded up to a power of two
+	 */
+	public RingBuffer(int capacity)
+	{
+		if(capacity < 1 || capacity > 1 << 30)
+			throw new IllegalArgumentException("Ring buffer capacity must be between 1 and 2^30");
+		
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		if(size == 0)
+			size = 1;
+		elements = new AtomicReferenceArray<>(size);
+		sequences = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++)
+			sequences.set(i, i);
+		mask = size - 1;
+	}
+	
+	/**
+	 * Adds an element to the buffer
+	 * @return False when the buffer is full and the element has not been added
+	 */
+	public boolean offer(E element)
+	{
+		long position = tail.get();
+		while(true)
+		{
+			int index = (int)position & mask;
+			long difference = sequences.get(index) - position;
+			if(difference == 0)
+			{
+				if(tail.compareAndSet(position, position + 1))
+				{
+					elements.lazySet(index, element);
+					sequences.lazySet(index, position + 1);
+					return true;
+				}
+			}
+			else if(difference < 0)
+			{
+				// The slot still holds the element of the previous turn
+				return false;
+			}
+			position = tail.get();
+		}
+	}
+	
+	/** Removes and returns the oldest element, null when the buffer is empty */
+	public E poll()
+	{
+		long position = head.get();
+		while(true)
+		{
+			int index = (int)position & mask;
+			long difference = sequences.get(index) - (position + 1);
+			if(difference == 0)
+			{
+				if(head.compareAndSet(position, position + 1))
+				{
+					E element = elements.get(index);
+					elements.lazySet(index, null);
+					sequences.lazySet(index, position + mask + 1);
+					return element;
+				}
+			}
+			else if(difference < 0)
+				return null;
+			position = head.get();
+		}
+	}
+	
+	/** Returns the number of elements the buffer holds, which may be stale as soon as it is returned */
+	public int size()
+	{
+		long size = tail.get() - head.get();
+		return (int)Math.max(0, Math.min(size, mask + 1));
+	}
+	
+	/** Tells whether the buffer is empty, which may be stale as soon as it is returned */
+	public boolean isEmpty()
+	{
+		return tail.get() == head.get();
+	}
+	
+	/** Returns the number of elements the buffer can hold */
+	public int capacity()
+	{
+		return mask + 1;
+	}
+}
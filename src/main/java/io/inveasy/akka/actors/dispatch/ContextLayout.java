@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.dispatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Layout of the yield contexts of an actor class<br>
+ * Every context arg name requested by the receivers of the class is interned to a slot,
+ * so that resolving arguments when a reply comes is a matter of indexing an array<br>
+ * Each distinct pair of name and type requested by a receiver parameter also gets a parameter slot,
+ * whose value is resolved once when the yield is stored
+ * @see ContextSlots
+ */
+public final class ContextLayout
+{
+	public static final ContextLayout EMPTY = new ContextLayout(Collections.emptyList(), Collections.emptyList());
+	
+	private final Map<String, Integer> slots = new HashMap<>();
+	private final String[] names;
+	private final Class<?>[] types;
+	private final int[] parameterNameSlots;
+	private final int[] parameterTypeSlots;
+	private final Map<String, Map<Class<?>, Integer>> parameterSlots = new HashMap<>();
+	
+	// Type slots each class of value is assignable to, computed once per class
+	private final ClassValue<boolean[]> typeMatches = new ClassValue<boolean[]>()
+	{
+		@Override
+		protected boolean[] computeValue(Class<?> type)
+		{
+			boolean[] matches = new boolean[types.length];
+			for(int i = 0; i < types.length; i++)
+				matches[i] = types[i].isAssignableFrom(type);
+			return matches;
+		}
+	};
+	
+	/**
+	 * Creates a layout holding a slot for each distinct name, and a parameter slot for each distinct name and type
+	 * @param names The names of the context parameters, in slot order
+	 * @param types The types of these parameters, primitive ones being boxed
+	 */
+	public ContextLayout(List<String> names, List<Class<?>> types)
+	{
+		if(names.size() != types.size())
+			throw new IllegalArgumentException("Each context parameter name must have its type");
+		
+		Map<Class<?>, Integer> typeSlots = new HashMap<>();
+		List<Integer> nameSlotList = new ArrayList<>();
+		List<Integer> typeSlotList = new ArrayList<>();
+		for(int i = 0; i < names.size(); i++)
+		{
+			String name = names.get(i);
+			Class<?> type = types.get(i);
+			slots.putIfAbsent(name, slots.size());
+			typeSlots.putIfAbsent(type, typeSlots.size());
+			
+			Map<Class<?>, Integer> nameParameters = parameterSlots.computeIfAbsent(name, key -> new HashMap<>());
+			if(nameParameters.putIfAbsent(type, nameSlotList.size()) == null)
+			{
+				nameSlotList.add(slots.get(name));
+				typeSlotList.add(typeSlots.get(type));
+			}
+		}
+		
+		this.names = new String[slots.size()];
+		slots.forEach((name, slot) -> this.names[slot] = name);
+		this.types = new Class<?>[typeSlots.size()];
+		typeSlots.forEach((type, slot) -> this.types[slot] = type);
+		this.parameterNameSlots = nameSlotList.stream().mapToInt(Integer::intValue).toArray();
+		this.parameterTypeSlots = typeSlotList.stream().mapToInt(Integer::intValue).toArray();
+	}
+	
+	/** Returns the slot of the name, or -1 if no receiver requests it */
+	public int slotOf(String name)
+	{
+		Integer slot = slots.get(name);
+		return slot == null ? -1 : slot;
+	}
+	
+	/** Returns the name interned to this slot */
+	public String nameOf(int slot)
+	{
+		return names[slot];
+	}
+	
+	/** Returns the number of slots */
+	public int size()
+	{
+		return names.length;
+	}
+	
+	/** Returns the parameter slot of the name and type, or -1 if no receiver requests them */
+	public int parameterSlotOf(String name, Class<?> type)
+	{
+		Map<Class<?>, Integer> nameParameters = parameterSlots.get(name);
+		Integer slot = nameParameters == null ? null : nameParameters.get(type);
+		return slot == null ? -1 : slot;
+	}
+	
+	/** Returns the number of parameter slots */
+	public int parameterCount()
+	{
+		return parameterNameSlots.length;
+	}
+	
+	/** Returns the slot of the name of this parameter slot */
+	int parameterNameSlot(int parameterSlot)
+	{
+		return parameterNameSlots[parameterSlot];
+	}
+	
+	/** Returns the type slot of this parameter slot */
+	int parameterTypeSlot(int parameterSlot)
+	{
+		return parameterTypeSlots[parameterSlot];
+	}
+	
+	/** Returns the number of distinct parameter types */
+	int typeCount()
+	{
+		return types.length;
+	}
+	
+	/** Tells, for each type slot, whether values of the class can be given to parameters of this type */
+	boolean[] typeMatches(Class<?> type)
+	{
+		return typeMatches.get(type);
+	}
+}
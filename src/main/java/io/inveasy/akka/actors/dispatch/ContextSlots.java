@@ -0,0 +1,298 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.dispatch;
+
+import io.inveasy.akka.actors.domain.ContextArgs;
+
+import java.util.Arrays;
+
+/**
+ * Storage of the context args of a yield<br>
+ * Args whose name is part of the layout are stored by slot, int and long ones without being boxed<br>
+ * Args no receiver requests are kept aside, and only reachable by name<br>
+ * Parameter slots of the layout are resolved when the receiver of the reply reads them, only once each
+ * @see ContextLayout
+ */
+public final class ContextSlots
+{
+	// Marks a type matched by several args, which cannot be resolved by type
+	private static final Object AMBIGUOUS = new Object();
+	// Marks a parameter already resolved to null
+	private static final Object UNRESOLVED = new Object();
+	
+	private final ContextLayout layout;
+	private Object originalMessage;
+	private boolean resolvable;
+	private Object[] resolved;
+	private Object[] byType;
+	private Object[] values;
+	private long[] primitives;
+	private byte[] kinds;
+	private String[] extraNames;
+	private Object[] extraValues;
+	private int extraCount;
+	
+	public ContextSlots(ContextLayout layout)
+	{
+		this.layout = layout;
+	}
+	
+	/** Stores an arg */
+	public void put(String name, Object value)
+	{
+		changed();
+		int slot = layout.slotOf(name);
+		if(slot == -1)
+			putExtra(name, value);
+		else
+		{
+			values()[slot] = value;
+			if(kinds != null)
+				kinds[slot] = ContextArgs.OBJECT;
+		}
+	}
+	
+	/** Stores all the args */
+	public void putAll(ContextArgs args)
+	{
+		for(int i = 0; i < args.size(); i++)
+		{
+			if(args.getKind(i) == ContextArgs.OBJECT)
+				put(args.getName(i), args.getValue(i));
+			else
+				putPrimitive(args.getName(i), args.getPrimitive(i), args.getKind(i));
+		}
+	}
+	
+	/** Returns the arg registered under this name, boxing it if it is a primitive */
+	public Object get(String name)
+	{
+		int slot = layout.slotOf(name);
+		if(slot != -1)
+			return get(slot);
+		
+		for(int i = 0; i < extraCount; i++)
+		{
+			if(extraNames[i].equals(name))
+				return extraValues[i];
+		}
+		return null;
+	}
+	
+	/** Returns the arg stored in this slot, boxing it if it is a primitive */
+	public Object get(int slot)
+	{
+		if(values == null)
+			return null;
+		if(kinds != null && kinds[slot] == ContextArgs.INT)
+			return (int)primitives[slot];
+		if(kinds != null && kinds[slot] == ContextArgs.LONG)
+			return primitives[slot];
+		return values[slot];
+	}
+	
+	/** Returns the kind (OBJECT, INT or LONG) of the arg stored in this slot */
+	public byte getKind(int slot)
+	{
+		return kinds == null ? ContextArgs.OBJECT : kinds[slot];
+	}
+	
+	/** Returns the arg stored in this slot when it is an int or a long */
+	public long getPrimitive(int slot)
+	{
+		return primitives == null ? 0 : primitives[slot];
+	}
+	
+	/** Returns all the args of these slots, so that they can be stored elsewhere and put back with putAll */
+	public ContextArgs toArgs()
+	{
+		ContextArgs args = ContextArgs.args();
+		for(int slot = 0; values != null && slot < values.length; slot++)
+		{
+			byte kind = getKind(slot);
+			if(kind == ContextArgs.INT)
+				args.putInt(layout.nameOf(slot), (int)primitives[slot]);
+			else if(kind == ContextArgs.LONG)
+				args.putLong(layout.nameOf(slot), primitives[slot]);
+			else if(values[slot] != null)
+				args.put(layout.nameOf(slot), values[slot]);
+		}
+		for(int i = 0; i < extraCount; i++)
+			args.put(extraNames[i], extraValues[i]);
+		return args;
+	}
+	
+	/**
+	 * Sets the original message parameters are resolved against, to be called once all the args are stored<br>
+	 * Parameters are only resolved when the receiver of the reply asks for them, see getResolved
+	 * @param originalMessage The original message of the yield
+	 */
+	public void resolve(Object originalMessage)
+	{
+		this.originalMessage = originalMessage;
+		this.resolvable = true;
+		this.resolved = null;
+	}
+	
+	/**
+	 * Returns the value resolved for this parameter slot, null when there is none or resolve has not been called<br>
+	 * A parameter gets the original message when it is of its type, else the arg of its name when it is of its type,
+	 * else the single arg of its type, if there is only one
+	 */
+	public Object getResolved(int parameterSlot)
+	{
+		if(!resolvable)
+			return null;
+		
+		if(resolved == null)
+			resolved = new Object[layout.parameterCount()];
+		else if(resolved[parameterSlot] != null)
+			return resolved[parameterSlot] == UNRESOLVED ? null : resolved[parameterSlot];
+		
+		Object value = resolveParameter(parameterSlot);
+		resolved[parameterSlot] = value == null ? UNRESOLVED : value;
+		return value;
+	}
+	
+	/** Returns the layout of these slots */
+	public ContextLayout getLayout()
+	{
+		return layout;
+	}
+	
+	private void putPrimitive(String name, long value, byte kind)
+	{
+		changed();
+		int slot = layout.slotOf(name);
+		if(slot == -1)
+		{
+			putExtra(name, kind == ContextArgs.INT ? (Object)(int)value : (Object)value);
+			return;
+		}
+		
+		if(primitives == null)
+		{
+			primitives = new long[layout.size()];
+			kinds = new byte[layout.size()];
+		}
+		
+		values()[slot] = null;
+		primitives[slot] = value;
+		kinds[slot] = kind;
+	}
+	
+	private Object resolveParameter(int parameterSlot)
+	{
+		int type = layout.parameterTypeSlot(parameterSlot);
+		if(originalMessage != null && layout.typeMatches(originalMessage.getClass())[type])
+			return originalMessage;
+		
+		int nameSlot = layout.parameterNameSlot(parameterSlot);
+		Class<?> valueType = typeOf(nameSlot);
+		if(valueType != null && layout.typeMatches(valueType)[type])
+			return get(nameSlot);
+		
+		if(byType == null)
+			byType = indexByType();
+		return byType[type] == AMBIGUOUS ? null : byType[type];
+	}
+	
+	/** Drops what has been resolved, as the args changed */
+	private void changed()
+	{
+		resolved = null;
+		byType = null;
+	}
+	
+	/** Returns the class of the arg stored in this slot, without boxing primitives, or null when it is empty */
+	private Class<?> typeOf(int slot)
+	{
+		byte kind = getKind(slot);
+		if(kind == ContextArgs.INT)
+			return Integer.class;
+		if(kind == ContextArgs.LONG)
+			return Long.class;
+		Object value = values == null ? null : values[slot];
+		return value == null ? null : value.getClass();
+	}
+	
+	/** Indexes the args by the types of the layout they match, types matched by several args being ambiguous */
+	private Object[] indexByType()
+	{
+		Object[] byType = new Object[layout.typeCount()];
+		for(int slot = 0; values != null && slot < values.length; slot++)
+		{
+			// Primitives are only boxed when they match a type
+			Class<?> type = typeOf(slot);
+			if(type != null)
+				indexByType(byType, type, slot, null);
+		}
+		for(int i = 0; i < extraCount; i++)
+		{
+			if(extraValues[i] != null)
+				indexByType(byType, extraValues[i].getClass(), -1, extraValues[i]);
+		}
+		return byType;
+	}
+	
+	private void indexByType(Object[] byType, Class<?> valueType, int slot, Object value)
+	{
+		boolean[] matches = layout.typeMatches(valueType);
+		for(int type = 0; type < matches.length; type++)
+		{
+			if(!matches[type])
+				continue;
+			if(value == null)
+				value = get(slot);
+			byType[type] = byType[type] == null ? value : AMBIGUOUS;
+		}
+	}
+	
+	private Object[] values()
+	{
+		if(values == null)
+			values = new Object[layout.size()];
+		return values;
+	}
+	
+	private void putExtra(String name, Object value)
+	{
+		for(int i = 0; i < extraCount; i++)
+		{
+			if(extraNames[i].equals(name))
+			{
+				extraValues[i] = value;
+				return;
+			}
+		}
+		
+		if(extraNames == null)
+		{
+			extraNames = new String[2];
+			extraValues = new Object[2];
+		}
+		else if(extraCount == extraNames.length)
+		{
+			extraNames = Arrays.copyOf(extraNames, extraCount << 1);
+			extraValues = Arrays.copyOf(extraValues, extraCount << 1);
+		}
+		
+		extraNames[extraCount] = name;
+		extraValues[extraCount] = value;
+		extraCount++;
+	}
+}
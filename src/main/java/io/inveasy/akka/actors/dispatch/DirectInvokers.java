@@ -0,0 +1,186 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.dispatch;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Invokers spun by LambdaMetafactory, which call their receiver as a lambda calls the method it refers to<br>
+ * A lambda cannot spread an array of arguments, so there is one interface per arity, spreading them in its default method
+ */
+final class DirectInvokers
+{
+	/** Receivers with more parameters are invoked through a method handle */
+	static final int MAX_PARAMETERS = 6;
+	
+	private static final Class<?>[] INVOKERS = {
+			Invoker0.class, Invoker1.class, Invoker2.class, Invoker3.class, Invoker4.class, Invoker5.class, Invoker6.class
+	};
+	
+	private DirectInvokers()
+	{
+	}
+	
+	/**
+	 * Spins an invoker calling the method directly, or returns null when it cannot<br>
+	 * The method must be a public instance method of a public class, taking public types visible from the class loader of this library
+	 * @param method The method to call
+	 */
+	static YieldInvoker spin(Method method)
+	{
+		int parameterCount = method.getParameterCount();
+		if(parameterCount > MAX_PARAMETERS || Modifier.isStatic(method.getModifiers()) || !Modifier.isPublic(method.getModifiers()))
+			return null;
+		if(!isAccessible(method.getDeclaringClass()))
+			return null;
+		for(Class<?> type : method.getParameterTypes())
+		{
+			if(!isAccessible(type))
+				return null;
+		}
+		
+		try
+		{
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			MethodType invokeType = MethodType.genericMethodType(parameterCount + 1).changeReturnType(void.class);
+			// Arguments are cast to the receiver's parameter types, primitive ones being unboxed
+			MethodType castType = MethodType.methodType(void.class, method.getParameterTypes()).wrap()
+					.changeReturnType(void.class).insertParameterTypes(0, method.getDeclaringClass());
+			CallSite site = LambdaMetafactory.metafactory(lookup, "invoke", MethodType.methodType(INVOKERS[parameterCount]),
+					invokeType, lookup.unreflect(method), castType);
+			return (YieldInvoker)site.getTarget().invoke();
+		}
+		catch(LambdaConversionException | IllegalAccessException e)
+		{
+			return null;
+		}
+		catch(Throwable t)
+		{
+			throw new IllegalStateException("Cannot spin the invoker of yield receiver " + method, t);
+		}
+	}
+	
+	/** Tells whether the class spun next to this one can refer to the type, which is resolved by name from its class loader */
+	private static boolean isAccessible(Class<?> type)
+	{
+		while(type.isArray())
+			type = type.getComponentType();
+		if(type.isPrimitive())
+			return true;
+		if(!Modifier.isPublic(type.getModifiers()))
+			return false;
+		
+		try
+		{
+			return Class.forName(type.getName(), false, DirectInvokers.class.getClassLoader()) == type;
+		}
+		catch(ClassNotFoundException | LinkageError e)
+		{
+			return false;
+		}
+	}
+	
+	@FunctionalInterface
+	interface Invoker0 extends YieldInvoker
+	{
+		void invoke(Object actor) throws Exception;
+		
+		@Override
+		default void invoke(Object actor, Object[] args) throws Exception
+		{
+			invoke(actor);
+		}
+	}
+	
+	@FunctionalInterface
+	interface Invoker1 extends YieldInvoker
+	{
+		void invoke(Object actor, Object arg0) throws Exception;
+		
+		@Override
+		default void invoke(Object actor, Object[] args) throws Exception
+		{
+			invoke(actor, args[0]);
+		}
+	}
+	
+	@FunctionalInterface
+	interface Invoker2 extends YieldInvoker
+	{
+		void invoke(Object actor, Object arg0, Object arg1) throws Exception;
+		
+		@Override
+		default void invoke(Object actor, Object[] args) throws Exception
+		{
+			invoke(actor, args[0], args[1]);
+		}
+	}
+	
+	@FunctionalInterface
+	interface Invoker3 extends YieldInvoker
+	{
+		void invoke(Object actor, Object arg0, Object arg1, Object arg2) throws Exception;
+		
+		@Override
+		default void invoke(Object actor, Object[] args) throws Exception
+		{
+			invoke(actor, args[0], args[1], args[2]);
+		}
+	}
+	
+	@FunctionalInterface
+	interface Invoker4 extends YieldInvoker
+	{
+		void invoke(Object actor, Object arg0, Object arg1, Object arg2, Object arg3) throws Exception;
+		
+		@Override
+		default void invoke(Object actor, Object[] args) throws Exception
+		{
+			invoke(actor, args[0], args[1], args[2], args[3]);
+		}
+	}
+	
+	@FunctionalInterface
+	interface Invoker5 extends YieldInvoker
+	{
+		void invoke(Object actor, Object arg0, Object arg1, Object arg2, Object arg3, Object arg4) throws Exception;
+		
+		@Override
+		default void invoke(Object actor, Object[] args) throws Exception
+		{
+			invoke(actor, args[0], args[1], args[2], args[3], args[4]);
+		}
+	}
+	
+	@FunctionalInterface
+	interface Invoker6 extends YieldInvoker
+	{
+		void invoke(Object actor, Object arg0, Object arg1, Object arg2, Object arg3, Object arg4, Object arg5) throws Exception;
+		
+		@Override
+		default void invoke(Object actor, Object[] args) throws Exception
+		{
+			invoke(actor, args[0], args[1], args[2], args[3], args[4], args[5]);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.dispatch;
+
+import io.inveasy.akka.actors.AbstractYieldActor.Yield;
+
+/**
+ * Code run with the reply of a single yield, found by the id of the yield rather than by the type of the reply<br>
+ * It is run by the actor, in place of the receive function
+ * @param <T> The type of the reply
+ */
+@FunctionalInterface
+public interface YieldContinuation<T>
+{
+	/**
+	 * Continues with the reply
+	 * @param reply The reply of the yield
+	 * @param yield The yield, with its original message, sender and context args
+	 */
+	void accept(T reply, Yield yield);
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.dispatch;
+
+import io.inveasy.akka.actors.annotations.YieldReceiver;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Dispatch plan of an actor class, holding the plans of all its yield receivers<br>
+ * Plans are built once per class and shared by all its instances (and their restarts)
+ */
+public final class YieldDispatchPlan
+{
+	private static final ClassValue<YieldDispatchPlan> PLANS = new ClassValue<YieldDispatchPlan>()
+	{
+		@Override
+		protected YieldDispatchPlan computeValue(Class<?> type)
+		{
+			return load(type);
+		}
+	};
+	
+	private final List<YieldReceiverPlan> receivers;
+	private final ContextLayout contextLayout;
+	
+	private YieldDispatchPlan(List<YieldReceiverPlan> receivers)
+	{
+		this.receivers = Collections.unmodifiableList(receivers);
+		
+		// Every context parameter name of the class gets its slot, and every name and type its parameter slot
+		List<String> names = new ArrayList<>();
+		List<Class<?>> types = new ArrayList<>();
+		for(YieldReceiverPlan receiver : receivers)
+		{
+			Collections.addAll(names, receiver.getContextNames());
+			Collections.addAll(types, receiver.getContextArgumentTypes());
+		}
+		this.contextLayout = names.isEmpty() ? ContextLayout.EMPTY : new ContextLayout(names, types);
+		
+		for(YieldReceiverPlan receiver : receivers)
+			receiver.bind(contextLayout);
+	}
+	
+	/**
+	 * Returns the dispatch plan of the given actor class
+	 * @param actorClass The class of the actor
+	 */
+	public static YieldDispatchPlan forClass(Class<?> actorClass)
+	{
+		return PLANS.get(actorClass);
+	}
+	
+	/**
+	 * Returns the plans of the yield receivers declared in the actor class
+	 */
+	public List<YieldReceiverPlan> getReceivers()
+	{
+		return receivers;
+	}
+	
+	/**
+	 * Returns the layout of the yield contexts of the actor class
+	 */
+	public ContextLayout getContextLayout()
+	{
+		return contextLayout;
+	}
+	
+	private static YieldDispatchPlan load(Class<?> actorClass)
+	{
+		// Use the plan generated at compile time when there is one
+		try
+		{
+			Class<?> providerClass = Class.forName(actorClass.getName() + YieldDispatchPlanProvider.SUFFIX, true, actorClass.getClassLoader());
+			YieldDispatchPlanProvider provider = (YieldDispatchPlanProvider)providerClass.getDeclaredConstructor().newInstance();
+			return new YieldDispatchPlan(new ArrayList<>(provider.getReceivers()));
+		}
+		catch(ClassNotFoundException e)
+		{
+			// No generated plan, scan the class
+		}
+		catch(ReflectiveOperationException | ClassCastException e)
+		{
+			throw new IllegalStateException("Cannot load generated dispatch plan of " + actorClass.getName(), e);
+		}
+		
+		List<YieldReceiverPlan> receivers = new ArrayList<>();
+		for(Method method : actorClass.getDeclaredMethods())
+		{
+			if(method.isAnnotationPresent(YieldReceiver.class))
+				receivers.add(YieldReceiverPlan.of(method));
+		}
+		
+		return new YieldDispatchPlan(receivers);
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.dispatch;
+
+import java.util.List;
+
+/**
+ * Provides the receiver plans of an actor class without reflective scanning<br>
+ * Implementations are generated at compile time by YieldDispatchPlanProcessor, and named
+ * after the actor class binary name followed by SUFFIX
+ * @see io.inveasy.akka.actors.processor.YieldDispatchPlanProcessor
+ */
+public interface YieldDispatchPlanProvider
+{
+	String SUFFIX = "$$YieldDispatchPlan";
+	
+	/**
+	 * Returns the plans of all the yield receivers declared in the actor class
+	 */
+	List<YieldReceiverPlan> getReceivers();
+}
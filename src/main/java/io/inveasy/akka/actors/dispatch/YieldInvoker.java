@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.dispatch;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+
+/**
+ * Direct invoker of a yield receiver method<br>
+ * The underlying method is bound once, so that calling it does not go through reflection anymore
+ */
+@FunctionalInterface
+public interface YieldInvoker
+{
+	/**
+	 * Invokes the receiver
+	 * @param actor The actor on which the receiver is invoked (ignored for static receivers)
+	 * @param args The arguments of the receiver, in declaration order
+	 */
+	void invoke(Object actor, Object[] args) throws Exception;
+	
+	/**
+	 * Creates an invoker bound to the method of the given class, found by its exact signature
+	 * @param declaringClass The class declaring the method
+	 * @param name The name of the method
+	 * @param parameterTypes The parameter types of the method
+	 */
+	static YieldInvoker of(Class<?> declaringClass, String name, Class<?>... parameterTypes)
+	{
+		try
+		{
+			return of(declaringClass.getDeclaredMethod(name, parameterTypes));
+		}
+		catch(NoSuchMethodException e)
+		{
+			throw new IllegalStateException("Cannot find yield receiver " + name + " in " + declaringClass.getName(), e);
+		}
+	}
+	
+	/**
+	 * Creates an invoker bound to the given method<br>
+	 * Public receivers of public classes get an invoker spun by LambdaMetafactory, which calls them directly, as plans generated at compile time do<br>
+	 * Other receivers are made accessible once here, and called through a method handle held by the returned lambda :
+	 * calls skip reflection's access checks but stay indirect, the JIT does not inline the method through a handle which is not a constant
+	 * @param method The method to bind
+	 * @see io.inveasy.akka.actors.processor.YieldDispatchPlanProcessor
+	 */
+	static YieldInvoker of(Method method)
+	{
+		YieldInvoker direct = DirectInvokers.spin(method);
+		if(direct != null)
+			return direct;
+		
+		MethodHandle handle;
+		try
+		{
+			method.setAccessible(true);
+			handle = MethodHandles.lookup().unreflect(method);
+		}
+		catch(IllegalAccessException e)
+		{
+			throw new IllegalStateException("Cannot bind yield receiver " + method, e);
+		}
+		
+		if(Modifier.isStatic(method.getModifiers()))
+			handle = MethodHandles.dropArguments(handle, 0, Object.class);
+		
+		final MethodHandle invoker = handle.asSpreader(Object[].class, method.getParameterCount())
+				.asType(MethodType.methodType(void.class, Object.class, Object[].class));
+		
+		return (actor, args) -> {
+			try
+			{
+				invoker.invokeExact(actor, args);
+			}
+			catch(Exception | Error e)
+			{
+				throw e;
+			}
+			catch(Throwable t)
+			{
+				throw new UndeclaredThrowableException(t);
+			}
+		};
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.dispatch;
+
+import io.inveasy.akka.actors.AbstractYieldActor.Yield;
+import io.inveasy.akka.actors.annotations.OriginalSender;
+import io.inveasy.akka.actors.annotations.Param;
+import io.inveasy.akka.actors.annotations.YieldReceiver;
+
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dispatch plan of a single yield receiver method<br>
+ * Holds the invoker of the method and where each kind of argument has to be put when calling it
+ * @see YieldDispatchPlan
+ */
+public final class YieldReceiverPlan
+{
+	private final Class<?> expectedMessageType;
+	private final YieldInvoker invoker;
+	private final int parameterCount;
+	private final int messagePosition;
+	private final int yieldPosition;
+	private final int originalSenderPosition;
+	private final int[] contextPositions;
+	private final String[] contextNames;
+	private final Class<?>[] contextTypes;
+	private final Class<?>[] contextArgumentTypes;
+	private int[] contextSlots;
+	
+	/**
+	 * Creates a new receiver plan<br>
+	 * Positions are -1 when the method does not request the corresponding argument
+	 * @param expectedMessageType The type of the message this receiver handles
+	 * @param invoker The invoker of the receiver method
+	 * @param parameterCount The number of parameters of the receiver method
+	 * @param messagePosition The position of the received message
+	 * @param yieldPosition The position of the yield context
+	 * @param originalSenderPosition The position of the original sender
+	 * @param contextPositions The positions of the parameters resolved from the yield context
+	 * @param contextNames The names under which these parameters are resolved
+	 * @param contextTypes The types of these parameters
+	 */
+	public YieldReceiverPlan(Class<?> expectedMessageType, YieldInvoker invoker, int parameterCount,
+							 int messagePosition, int yieldPosition, int originalSenderPosition,
+							 int[] contextPositions, String[] contextNames, Class<?>[] contextTypes)
+	{
+		this.expectedMessageType = expectedMessageType;
+		this.invoker = invoker;
+		this.parameterCount = parameterCount;
+		this.messagePosition = messagePosition;
+		this.yieldPosition = yieldPosition;
+		this.originalSenderPosition = originalSenderPosition;
+		this.contextPositions = contextPositions;
+		this.contextNames = contextNames;
+		this.contextTypes = contextTypes;
+		
+		this.contextArgumentTypes = new Class<?>[contextTypes.length];
+		for(int i = 0; i < contextTypes.length; i++)
+			contextArgumentTypes[i] = boxed(contextTypes[i]);
+	}
+	
+	/**
+	 * Builds the plan of a method annotated with @YieldReceiver
+	 * @param method The receiver method
+	 */
+	public static YieldReceiverPlan of(Method method)
+	{
+		YieldReceiver yieldReceiver = method.getAnnotation(YieldReceiver.class);
+		if(yieldReceiver == null)
+			throw new IllegalArgumentException(method + " is not annotated with @YieldReceiver");
+		
+		final Parameter[] parameters = method.getParameters();
+		int messagePosition = -1;
+		int yieldPosition = -1;
+		int originalSenderPosition = -1;
+		List<Integer> unresolvedParams = new ArrayList<>();
+		
+		// Find parameter order
+		for(int i = 0; i < parameters.length; i++)
+		{
+			if(parameters[i].getType().isAssignableFrom(yieldReceiver.expectedMessageType()))
+				messagePosition = i;
+			else if(parameters[i].getType().isAssignableFrom(Yield.class))
+				yieldPosition = i;
+			else if(parameters[i].getAnnotation(OriginalSender.class) != null)
+				originalSenderPosition = i;
+			else // We add the unresolved type, we'll try to find if it is in the yield context
+				unresolvedParams.add(i);
+		}
+		
+		int[] contextPositions = new int[unresolvedParams.size()];
+		String[] contextNames = new String[contextPositions.length];
+		Class<?>[] contextTypes = new Class<?>[contextPositions.length];
+		for(int i = 0; i < contextPositions.length; i++)
+		{
+			Parameter parameter = parameters[unresolvedParams.get(i)];
+			
+			// If the parameter has the @Param annotation, use its value as param name
+			Param paramName = parameter.getAnnotation(Param.class);
+			contextPositions[i] = unresolvedParams.get(i);
+			contextNames[i] = paramName != null ? paramName.value() : parameter.getName();
+			contextTypes[i] = parameter.getType();
+		}
+		
+		return new YieldReceiverPlan(yieldReceiver.expectedMessageType(), YieldInvoker.of(method), parameters.length,
+				messagePosition, yieldPosition, originalSenderPosition, contextPositions, contextNames, contextTypes);
+	}
+	
+	public Class<?> getExpectedMessageType() { return expectedMessageType; }
+	public YieldInvoker getInvoker() { return invoker; }
+	public int getParameterCount() { return parameterCount; }
+	public int getMessagePosition() { return messagePosition; }
+	public int getYieldPosition() { return yieldPosition; }
+	public int getOriginalSenderPosition() { return originalSenderPosition; }
+	public int[] getContextPositions() { return contextPositions; }
+	public String[] getContextNames() { return contextNames; }
+	public Class<?>[] getContextTypes() { return contextTypes; }
+	/** Returns the types of the parameters resolved from the yield context, primitive ones being boxed */
+	public Class<?>[] getContextArgumentTypes() { return contextArgumentTypes; }
+	/** Returns the parameter slots of the parameters resolved from the yield context, in the layout of the actor class */
+	public int[] getContextSlots() { return contextSlots; }
+	
+	/** Interns the context parameter names and types to their parameter slots in the layout of the actor class */
+	void bind(ContextLayout layout)
+	{
+		int[] slots = new int[contextNames.length];
+		for(int i = 0; i < slots.length; i++)
+			slots[i] = layout.parameterSlotOf(contextNames[i], contextArgumentTypes[i]);
+		this.contextSlots = slots;
+	}
+	
+	private static Class<?> boxed(Class<?> type)
+	{
+		if(!type.isPrimitive())
+			return type;
+		return MethodType.methodType(type).wrap().returnType();
+	}
+}
@@ -18,13 +18,16 @@ package io.inveasy.akka.actors.domain;
 
 /**
  * Base class for the header functionality<br>
- * Check SimpleHeader for an out-of-the-box implementation
+ * Check SimpleHeader for an out-of-the-box implementation<br>
+ * Setters of subclasses with a registered codec call changed(), as encodings of sent headers are cached :
+ * layers holding processed headers or headers without codec are never cached, as they may change on their own
  * @see SimpleHeader
  */
 public abstract class AbstractHeader
 {
 	private boolean passthru;
 	private String content;
+	private int version;
 	
 	/**
 	 * Creates a new header
@@ -42,6 +45,24 @@ public abstract class AbstractHeader
 	/** This method will be called before headers are sent */
 	public abstract void postProcess();
 	
+	/**
+	 * Tells whether preProcess and postProcess do something, headers for which they are no-ops are skipped<br>
+	 * Defaults to true
+	 */
+	public boolean isProcessed()
+	{
+		return true;
+	}
+	
+	/**
+	 * Returns the header passed along in place of this one when it is passthru, once postProcess has been called<br>
+	 * Only called on processed headers, defaults to this header itself
+	 */
+	public AbstractHeader nextHop()
+	{
+		return this;
+	}
+	
 	/**
 	 * Tells whether this header should be passed along or dropped when forwarding unless specific behaviour
 	 */
@@ -56,6 +77,7 @@ public abstract class AbstractHeader
 	public AbstractHeader setPassthru(boolean passthru)
 	{
 		this.passthru = passthru;
+		changed();
 		return this;
 	}
 	
@@ -73,6 +95,22 @@ public abstract class AbstractHeader
 	public AbstractHeader setContent(String content)
 	{
 		this.content = content;
+		changed();
 		return this;
 	}
+	
+	/**
+	 * Returns the number of times this header has been modified<br>
+	 * It tells whether an encoding of the header is still up to date
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+	
+	/** To be called by subclasses whenever their state is modified */
+	protected void changed()
+	{
+		version++;
+	}
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.inveasy.akka.actors.domain;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Header carrying raw bytes, such as tokens or binary identifiers, without formatting them as text<br>
+ * The bytes are not copied when read, so they must not be modified once the header is sent<br>
+ * Its content is the Base64 form of the bytes, for compatibility with string headers
+ * @see AbstractHeader
+ */
+public class BinaryHeader extends AbstractHeader
+{
+	private static final byte[] NO_BYTES = new byte[0];
+	
+	private byte[] value;
+	
+	public BinaryHeader(boolean passthru, byte[] value)
+	{
+		super(passthru, null);
+		this.value = value == null ? NO_BYTES : value;
+	}
+	
+	/** Creates a header holding a copy of the remaining bytes of the buffer, leaving its position untouched */
+	public BinaryHeader(boolean passthru, ByteBuffer value)
+	{
+		this(passthru, copyOf(value));
+	}
+	
+	@Override
+	public void preProcess()
+	{
+		// Binary header does nothing
+	}
+	
+	@Override
+	public void postProcess()
+	{
+		// Binary header does nothing
+	}
+	
+	@Override
+	public boolean isProcessed()
+	{
+		return false;
+	}
+	
+	/** Returns the bytes of the header, not copied : set them back with setValue() once modified */
+	public byte[] getValue()
+	{
+		return value;
+	}
+	
+	/** Returns a read-only view of the bytes of the header */
+	public ByteBuffer getBuffer()
+	{
+		return ByteBuffer.wrap(value).asReadOnlyBuffer();
+	}
+	
+	/** Returns the number of bytes of the header */
+	public int length()
+	{
+		return value.length;
+	}
+	
+	/** Sets the bytes of the header, not copied */
+	public BinaryHeader setValue(byte[] value)
+	{
+		this.value = value == null ? NO_BYTES : value;
+		changed();
+		return this;
+	}
+	
+	/** Sets the bytes of the header to a copy of the remaining bytes of the buffer, leaving its position untouched */
+	public BinaryHeader setValue(ByteBuffer value)
+	{
+		this.value = copyOf(value);
+		changed();
+		return this;
+	}
+	
+	@Override
+	public String getContent()
+	{
+		return Base64.getEncoder().encodeToString(value);
+	}
+	
+	/** Decodes the Base64 form of the bytes */
+	@Override
+	public BinaryHeader setContent(String content)
+	{
+		value = content == null ? NO_BYTES : Base64.getDecoder().decode(content);
+		changed();
+		return this;
+	}
+	
+	@Override
+	/* Overridden for builder pattern convenience */
+	public BinaryHeader setPassthru(boolean passthru)
+	{
+		super.setPassthru(passthru);
+		return this;
+	}
+	
+	private static byte[] copyOf(ByteBuffer buffer)
+	{
+		if(buffer == null)
+			return NO_BYTES;
+		
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+}
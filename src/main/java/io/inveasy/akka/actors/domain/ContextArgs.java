@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.domain;
+
+import java.util.Arrays;
+
+/**
+ * Context args registered along with a yield<br>
+ * Unlike pairs, int and long args are kept unboxed
+ * <pre>
+ * yield(ContextArgs.args().put("name", name).putInt("retries", retries));
+ * </pre>
+ */
+public final class ContextArgs
+{
+	public static final byte OBJECT = 0;
+	public static final byte INT = 1;
+	public static final byte LONG = 2;
+	
+	private String[] names = new String[4];
+	private Object[] values = new Object[4];
+	private long[] primitives = new long[4];
+	private byte[] kinds = new byte[4];
+	private int size;
+	
+	/** Creates new empty context args */
+	public static ContextArgs args()
+	{
+		return new ContextArgs();
+	}
+	
+	/** Adds an arg to the context */
+	public ContextArgs put(String name, Object value)
+	{
+		return add(name, value, 0, OBJECT);
+	}
+	
+	/** Adds an int arg to the context, without boxing it */
+	public ContextArgs putInt(String name, int value)
+	{
+		return add(name, null, value, INT);
+	}
+	
+	/** Adds a long arg to the context, without boxing it */
+	public ContextArgs putLong(String name, long value)
+	{
+		return add(name, null, value, LONG);
+	}
+	
+	/** Returns the number of args */
+	public int size() { return size; }
+	/** Returns the name of the index-th arg */
+	public String getName(int index) { return names[index]; }
+	/** Returns the kind (OBJECT, INT or LONG) of the index-th arg */
+	public byte getKind(int index) { return kinds[index]; }
+	/** Returns the value of the index-th arg when it is an object */
+	public Object getValue(int index) { return values[index]; }
+	/** Returns the value of the index-th arg when it is an int or a long */
+	public long getPrimitive(int index) { return primitives[index]; }
+	
+	private ContextArgs add(String name, Object value, long primitive, byte kind)
+	{
+		if(size == names.length)
+		{
+			names = Arrays.copyOf(names, size << 1);
+			values = Arrays.copyOf(values, size << 1);
+			primitives = Arrays.copyOf(primitives, size << 1);
+			kinds = Arrays.copyOf(kinds, size << 1);
+		}
+		
+		names[size] = name;
+		values[size] = value;
+		primitives[size] = primitive;
+		kinds[size] = kind;
+		size++;
+		return this;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.domain;
+
+import java.time.Duration;
+
+/**
+ * Passthru header carrying the time after which the caller no longer waits for the result of a message<br>
+ * Header actors receiving a message past its deadline do not receive it, so that expired work stops along the chain<br>
+ * The deadline is a wall clock time, so clocks of the nodes must be kept in sync
+ */
+public class DeadlineHeader extends AbstractHeader
+{
+	/** Key the deadline header is sent with */
+	public static final String KEY = "deadline";
+	
+	private final long deadline;
+	
+	/**
+	 * Creates a deadline header
+	 * @param deadline The deadline, in milliseconds since the epoch
+	 */
+	public DeadlineHeader(long deadline)
+	{
+		super(true, null);
+		this.deadline = deadline;
+	}
+	
+	/** Creates the header of a deadline elapsing after the given budget */
+	public static DeadlineHeader in(Duration budget)
+	{
+		return new DeadlineHeader(System.currentTimeMillis() + budget.toMillis());
+	}
+	
+	@Override
+	public void preProcess()
+	{
+		// Deadline header does nothing
+	}
+	
+	@Override
+	public void postProcess()
+	{
+		// Deadline header does nothing
+	}
+	
+	@Override
+	public boolean isProcessed()
+	{
+		return false;
+	}
+	
+	/** Returns the deadline, in milliseconds since the epoch */
+	public long getDeadline()
+	{
+		return deadline;
+	}
+	
+	/** Returns the time left before the deadline, negative once it passed */
+	public Duration getRemaining()
+	{
+		return Duration.ofMillis(deadline - System.currentTimeMillis());
+	}
+	
+	/** Tells whether the deadline passed */
+	public boolean isExpired()
+	{
+		return System.currentTimeMillis() > deadline;
+	}
+	
+	/** Returns the decimal form of the deadline */
+	@Override
+	public String getContent()
+	{
+		return Long.toString(deadline);
+	}
+}
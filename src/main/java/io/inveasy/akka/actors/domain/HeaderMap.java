@@ -0,0 +1,648 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.domain;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Header map specialised for the few headers a message usually carries<br>
+ * Entries are held in two arrays sorted by key, so iteration order is the same as a TreeMap's,
+ * and keys are interned so that looking them up is mostly a matter of reference comparisons<br>
+ * A map can be frozen when it is sent : snapshot() returns a frozen map sharing the arrays of this one,
+ * which copies them on its next modification only<br>
+ * A map can also inherit a frozen parent layer, holding the passthru headers of the message being processed :
+ * its own entries shadow the parent ones, which are shared instead of being copied at each hop
+ */
+public class HeaderMap extends AbstractMap<String, AbstractHeader>
+{
+	private static final int INTERNED_KEYS_LIMIT = 1024;
+	private static final ConcurrentHashMap<String, String> INTERNED_KEYS = new ConcurrentHashMap<>();
+	private static final String[] NO_KEYS = new String[0];
+	private static final AbstractHeader[] NO_HEADERS = new AbstractHeader[0];
+	
+	/** Layers above this depth are flattened, so that lookups stay short along long chains */
+	private static final int MAX_DEPTH = 4;
+	
+	/** Empty frozen map */
+	public static final HeaderMap EMPTY = new HeaderMap().freeze();
+	
+	private String[] keys = NO_KEYS;
+	private AbstractHeader[] values = NO_HEADERS;
+	private int size;
+	private HeaderMap parent;
+	private int depth;
+	private int visibleSize;
+	private boolean frozen;
+	private boolean shared;
+	
+	// Computed once frozen
+	private AbstractHeader[] processedHeaders;
+	private HeaderMap passthruLayer;
+	private volatile Encoding encoding;
+	
+	/** Creates a new empty map */
+	public HeaderMap()
+	{
+	}
+	
+	/** Creates a new map holding the same headers as the given one */
+	public HeaderMap(Map<String, ? extends AbstractHeader> headers)
+	{
+		if(headers instanceof HeaderMap)
+		{
+			HeaderMap headerMap = (HeaderMap)headers;
+			keys = headerMap.keys;
+			values = headerMap.values;
+			size = headerMap.size;
+			parent = headerMap.parent;
+			depth = headerMap.depth;
+			visibleSize = headerMap.visibleSize;
+			shared = true;
+			if(!headerMap.frozen)
+				headerMap.shared = true;
+		}
+		else
+			putAll(headers);
+	}
+	
+	/**
+	 * Returns a modifiable map holding the given headers<br>
+	 * Header maps are not copied until one of them is modified
+	 */
+	public static HeaderMap copyOnWrite(Map<String, ? extends AbstractHeader> headers)
+	{
+		return headers == null ? new HeaderMap() : new HeaderMap(headers);
+	}
+	
+	/**
+	 * Returns a frozen map holding the given headers, which is the given map itself when it is already frozen
+	 */
+	public static HeaderMap frozenCopyOf(Map<String, ? extends AbstractHeader> headers)
+	{
+		if(headers instanceof HeaderMap)
+			return ((HeaderMap)headers).snapshot();
+		return new HeaderMap(headers).freeze();
+	}
+	
+	/** Interns a header key, so that it is compared by reference */
+	public static String intern(String key)
+	{
+		String interned = INTERNED_KEYS.get(key);
+		if(interned != null)
+			return interned;
+		if(INTERNED_KEYS.size() >= INTERNED_KEYS_LIMIT)
+			return key;
+		
+		interned = INTERNED_KEYS.putIfAbsent(key, key);
+		return interned == null ? key : interned;
+	}
+	
+	/** Makes this map unmodifiable */
+	public HeaderMap freeze()
+	{
+		if(frozen)
+			return this;
+		
+		if(parent != null && parent.depth >= MAX_DEPTH)
+			flattenParent();
+		
+		frozen = true;
+		processedHeaders = computeProcessedHeaders();
+		passthruLayer = computePassthruLayer();
+		return this;
+	}
+	
+	/** Tells whether this map is unmodifiable */
+	public boolean isFrozen()
+	{
+		return frozen;
+	}
+	
+	/**
+	 * Returns a frozen map holding the current headers of this map<br>
+	 * Both maps share their entries, this one copies them on its next modification
+	 */
+	public HeaderMap snapshot()
+	{
+		if(frozen)
+			return this;
+		
+		return new HeaderMap(this).freeze();
+	}
+	
+	/**
+	 * Makes the entries of the layer visible through this map, unless this map shadows them<br>
+	 * The layer is referenced, not copied
+	 * @param layer A frozen map
+	 */
+	public void inherit(HeaderMap layer)
+	{
+		if(layer == parent || layer.isEmpty())
+			return;
+		if(!layer.frozen)
+			throw new IllegalArgumentException("Only frozen maps can be inherited");
+		
+		checkModifiable();
+		if(parent != null)
+			flattenParent();
+		
+		parent = layer;
+		depth = layer.depth + 1;
+		visibleSize = layer.size();
+		for(int i = 0; i < size; i++)
+		{
+			if(!layer.containsKey(keys[i]))
+				visibleSize++;
+		}
+	}
+	
+	/** Returns the layer this map inherits, or null */
+	public HeaderMap getParent()
+	{
+		return parent;
+	}
+	
+	/** Calls the action for the entries held by this map itself, not inherited ones */
+	public void forEachOwn(BiConsumer<? super String, ? super AbstractHeader> action)
+	{
+		for(int i = 0; i < size; i++)
+			action.accept(keys[i], values[i]);
+	}
+	
+	/** Returns the number of entries held by this map itself, not inherited ones */
+	public int ownSize()
+	{
+		return size;
+	}
+	
+	/**
+	 * Returns the visible headers whose pre and post processing are not no-ops<br>
+	 * Frozen maps compute them once
+	 * @see AbstractHeader#isProcessed()
+	 */
+	public AbstractHeader[] getProcessedHeaders()
+	{
+		return frozen ? processedHeaders : computeProcessedHeaders();
+	}
+	
+	/**
+	 * Returns a frozen map holding the visible passthru headers of this frozen map<br>
+	 * It is this map itself when all its headers are passthru, otherwise it shares the parent layers of this map
+	 */
+	public HeaderMap getPassthruLayer()
+	{
+		if(!frozen)
+			throw new IllegalStateException("Only frozen maps have a passthru layer");
+		return passthruLayer;
+	}
+	
+	/**
+	 * Returns the encoding of this frozen map cached by the given owner, or null<br>
+	 * It is dropped once a header of this map or of its parent layers has been modified since it was cached
+	 */
+	public byte[] getCachedEncoding(Object owner)
+	{
+		Encoding cached = encoding;
+		return cached != null && cached.owner == owner && cached.version == version() ? cached.bytes : null;
+	}
+	
+	/** Caches an encoding of this frozen map, for the given owner */
+	public void cacheEncoding(Object owner, byte[] bytes)
+	{
+		if(frozen)
+			encoding = new Encoding(owner, bytes, version());
+	}
+	
+	@Override
+	public int size()
+	{
+		return parent == null ? size : visibleSize;
+	}
+	
+	@Override
+	public boolean isEmpty()
+	{
+		return size() == 0;
+	}
+	
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return indexOf(key) >= 0 || (parent != null && parent.containsKey(key));
+	}
+	
+	@Override
+	public AbstractHeader get(Object key)
+	{
+		int index = indexOf(key);
+		if(index >= 0)
+			return values[index];
+		return parent != null ? parent.get(key) : null;
+	}
+	
+	@Override
+	public AbstractHeader put(String key, AbstractHeader value)
+	{
+		int index = indexOf(key);
+		checkModifiable();
+		
+		if(index >= 0)
+		{
+			AbstractHeader previous = values[index];
+			values[index] = value;
+			return previous;
+		}
+		
+		AbstractHeader shadowed = null;
+		if(parent != null)
+		{
+			if(parent.containsKey(key))
+				shadowed = parent.get(key);
+			else
+				visibleSize++;
+		}
+		
+		// Insert at the sorted position
+		int position = -index - 1;
+		if(size == keys.length)
+		{
+			keys = Arrays.copyOf(keys, Math.max(4, size << 1));
+			values = Arrays.copyOf(values, keys.length);
+		}
+		System.arraycopy(keys, position, keys, position + 1, size - position);
+		System.arraycopy(values, position, values, position + 1, size - position);
+		keys[position] = intern(key);
+		values[position] = value;
+		size++;
+		return shadowed;
+	}
+	
+	@Override
+	public AbstractHeader remove(Object key)
+	{
+		if(!containsKey(key))
+			return null;
+		
+		checkModifiable();
+		if(parent != null)
+			flattenParent();
+		
+		int index = indexOf(key);
+		AbstractHeader previous = values[index];
+		removeAt(index);
+		return previous;
+	}
+	
+	@Override
+	public void clear()
+	{
+		checkModifiable();
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+		parent = null;
+		depth = 0;
+	}
+	
+	@Override
+	public void forEach(BiConsumer<? super String, ? super AbstractHeader> action)
+	{
+		if(parent == null)
+		{
+			for(int i = 0; i < size; i++)
+				action.accept(keys[i], values[i]);
+		}
+		else
+		{
+			Flattened flattened = flatten();
+			for(int i = 0; i < flattened.size; i++)
+				action.accept(flattened.keys[i], flattened.values[i]);
+		}
+	}
+	
+	@Override
+	public Set<Entry<String, AbstractHeader>> entrySet()
+	{
+		return new AbstractSet<Entry<String, AbstractHeader>>()
+		{
+			@Override
+			public Iterator<Entry<String, AbstractHeader>> iterator()
+			{
+				if(parent != null && !frozen)
+					flattenParent();
+				return parent == null ? new EntryIterator() : new FlattenedIterator(flatten());
+			}
+			
+			@Override
+			public int size()
+			{
+				return HeaderMap.this.size();
+			}
+		};
+	}
+	
+	/**
+	 * Returns the index of the key among the entries of this map itself, or (-(insertion point) - 1) when it is absent
+	 */
+	private int indexOf(Object key)
+	{
+		if(key == null)
+			throw new NullPointerException("Null header keys are not supported");
+		
+		// Interned keys match by reference most of the time
+		for(int i = 0; i < size; i++)
+		{
+			if(keys[i] == key)
+				return i;
+		}
+		
+		String stringKey = (String)key;
+		for(int i = 0; i < size; i++)
+		{
+			int comparison = keys[i].compareTo(stringKey);
+			if(comparison == 0)
+				return i;
+			if(comparison > 0)
+				return -i - 1;
+		}
+		return -size - 1;
+	}
+	
+	private void removeAt(int index)
+	{
+		System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+		System.arraycopy(values, index + 1, values, index, size - index - 1);
+		size--;
+		keys[size] = null;
+		values[size] = null;
+	}
+	
+	/** Fails if this map is frozen, and takes its own copy of the entries if they are shared */
+	private void checkModifiable()
+	{
+		if(frozen)
+			throw new UnsupportedOperationException("Headers are frozen once sent");
+		
+		if(shared)
+		{
+			keys = Arrays.copyOf(keys, Math.max(4, keys.length));
+			values = Arrays.copyOf(values, keys.length);
+			shared = false;
+		}
+	}
+	
+	/** Copies the inherited entries into this map's own entries, and drops the parent */
+	private void flattenParent()
+	{
+		Flattened flattened = flatten();
+		keys = flattened.keys;
+		values = flattened.values;
+		size = flattened.size;
+		parent = null;
+		depth = 0;
+		shared = false;
+	}
+	
+	/** Returns the visible entries of this map, merging its own entries with the inherited ones */
+	private Flattened flatten()
+	{
+		if(parent == null)
+			return new Flattened(Arrays.copyOf(keys, Math.max(4, size)), Arrays.copyOf(values, Math.max(4, size)), size);
+		
+		Flattened inherited = parent.flatten();
+		int capacity = Math.max(4, inherited.size + size);
+		String[] mergedKeys = new String[capacity];
+		AbstractHeader[] mergedValues = new AbstractHeader[capacity];
+		int merged = 0;
+		int own = 0;
+		int other = 0;
+		
+		// Both are sorted, own entries win over inherited ones
+		while(own < size || other < inherited.size)
+		{
+			int comparison = own == size ? 1 : other == inherited.size ? -1 : keys[own].compareTo(inherited.keys[other]);
+			if(comparison <= 0)
+			{
+				mergedKeys[merged] = keys[own];
+				mergedValues[merged++] = values[own++];
+				if(comparison == 0)
+					other++;
+			}
+			else
+			{
+				mergedKeys[merged] = inherited.keys[other];
+				mergedValues[merged++] = inherited.values[other++];
+			}
+		}
+		
+		return new Flattened(mergedKeys, mergedValues, merged);
+	}
+	
+	private AbstractHeader[] computeProcessedHeaders()
+	{
+		AbstractHeader[] inherited = parent == null ? NO_HEADERS : parent.getProcessedHeaders();
+		int count = 0;
+		for(int i = 0; i < size; i++)
+		{
+			if(values[i] != null && values[i].isProcessed())
+				count++;
+		}
+		if(count == 0 && inherited.length == 0)
+			return NO_HEADERS;
+		
+		List<AbstractHeader> processed = new ArrayList<>(count + inherited.length);
+		for(int i = 0; i < size; i++)
+		{
+			if(values[i] != null && values[i].isProcessed())
+				processed.add(values[i]);
+		}
+		
+		// Inherited headers shadowed by own entries are not visible
+		if(inherited.length > 0)
+		{
+			Flattened inheritedEntries = parent.flatten();
+			for(int i = 0; i < inheritedEntries.size; i++)
+			{
+				AbstractHeader header = inheritedEntries.values[i];
+				if(header != null && header.isProcessed() && indexOf(inheritedEntries.keys[i]) < 0)
+					processed.add(header);
+			}
+		}
+		return processed.toArray(NO_HEADERS);
+	}
+	
+	private HeaderMap computePassthruLayer()
+	{
+		HeaderMap inherited = parent == null ? null : parent.getPassthruLayer();
+		boolean allPassthru = true;
+		boolean shadowsInherited = false;
+		for(int i = 0; i < size; i++)
+		{
+			if(values[i] == null || !values[i].isPassthru())
+			{
+				allPassthru = false;
+				shadowsInherited |= parent != null && parent.containsKey(keys[i]);
+			}
+		}
+		
+		if(allPassthru && inherited == parent)
+			return this;
+		
+		HeaderMap layer = new HeaderMap();
+		if(shadowsInherited)
+		{
+			// A dropped header hides an inherited one, which must stay hidden : copy the visible passthru headers
+			forEach((key, header) ->
+			{
+				if(header != null && header.isPassthru())
+					layer.put(key, header);
+			});
+		}
+		else
+		{
+			for(int i = 0; i < size; i++)
+			{
+				if(values[i] != null && values[i].isPassthru())
+					layer.put(keys[i], values[i]);
+			}
+			if(inherited != null)
+				layer.inherit(inherited);
+		}
+		
+		// Avoid an empty layer in the middle of the chain
+		if(layer.size == 0 && layer.parent != null)
+			return layer.parent;
+		return layer.freeze();
+	}
+	
+	private static final class Flattened
+	{
+		private final String[] keys;
+		private final AbstractHeader[] values;
+		private final int size;
+		
+		private Flattened(String[] keys, AbstractHeader[] values, int size)
+		{
+			this.keys = keys;
+			this.values = values;
+			this.size = size;
+		}
+	}
+	
+	/** Sums the versions of the headers of this map and its parent layers, any modification of them increasing it */
+	private long version()
+	{
+		long version = 0;
+		for(HeaderMap layer = this; layer != null; layer = layer.parent)
+		{
+			for(int i = 0; i < layer.size; i++)
+			{
+				if(layer.values[i] != null)
+					version += layer.values[i].getVersion();
+			}
+		}
+		return version;
+	}
+	
+	private static final class Encoding
+	{
+		private final Object owner;
+		private final byte[] bytes;
+		private final long version;
+		
+		private Encoding(Object owner, byte[] bytes, long version)
+		{
+			this.owner = owner;
+			this.bytes = bytes;
+			this.version = version;
+		}
+	}
+	
+	private class EntryIterator implements Iterator<Entry<String, AbstractHeader>>
+	{
+		private int next;
+		private int last = -1;
+		
+		@Override
+		public boolean hasNext()
+		{
+			return next < size;
+		}
+		
+		@Override
+		public Entry<String, AbstractHeader> next()
+		{
+			if(next >= size)
+				throw new NoSuchElementException();
+			
+			last = next++;
+			final String key = keys[last];
+			return new SimpleEntry<String, AbstractHeader>(key, values[last])
+			{
+				@Override
+				public AbstractHeader setValue(AbstractHeader value)
+				{
+					super.setValue(value);
+					return put(key, value);
+				}
+			};
+		}
+		
+		@Override
+		public void remove()
+		{
+			if(last < 0)
+				throw new IllegalStateException();
+			
+			checkModifiable();
+			removeAt(last);
+			next = last;
+			last = -1;
+		}
+	}
+	
+	/** Iterator over the visible entries of a frozen layered map */
+	private static class FlattenedIterator implements Iterator<Entry<String, AbstractHeader>>
+	{
+		private final Flattened flattened;
+		private int next;
+		
+		private FlattenedIterator(Flattened flattened)
+		{
+			this.flattened = flattened;
+		}
+		
+		@Override
+		public boolean hasNext()
+		{
+			return next < flattened.size;
+		}
+		
+		@Override
+		public Entry<String, AbstractHeader> next()
+		{
+			if(next >= flattened.size)
+				throw new NoSuchElementException();
+			
+			Entry<String, AbstractHeader> entry = new SimpleImmutableEntry<>(flattened.keys[next], flattened.values[next]);
+			next++;
+			return entry;
+		}
+	}
+}
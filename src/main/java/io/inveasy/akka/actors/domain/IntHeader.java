@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.inveasy.akka.actors.domain;
+
+/**
+ * Header carrying an int, without boxing it nor formatting it as text<br>
+ * Its content is the decimal form of the value, for compatibility with string headers
+ * @see AbstractHeader
+ */
+public class IntHeader extends AbstractHeader
+{
+	private int value;
+	
+	public IntHeader(boolean passthru, int value)
+	{
+		super(passthru, null);
+		this.value = value;
+	}
+	
+	@Override
+	public void preProcess()
+	{
+		// Int header does nothing
+	}
+	
+	@Override
+	public void postProcess()
+	{
+		// Int header does nothing
+	}
+	
+	@Override
+	public boolean isProcessed()
+	{
+		return false;
+	}
+	
+	/** Returns the value of the header */
+	public int getValue()
+	{
+		return value;
+	}
+	
+	/** Sets the value of the header */
+	public IntHeader setValue(int value)
+	{
+		this.value = value;
+		changed();
+		return this;
+	}
+	
+	@Override
+	public String getContent()
+	{
+		return Integer.toString(value);
+	}
+	
+	/** Parses the decimal form of the value */
+	@Override
+	public IntHeader setContent(String content)
+	{
+		value = Integer.parseInt(content);
+		changed();
+		return this;
+	}
+	
+	@Override
+	/* Overridden for builder pattern convenience */
+	public IntHeader setPassthru(boolean passthru)
+	{
+		super.setPassthru(passthru);
+		return this;
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.inveasy.akka.actors.domain;
+
+/**
+ * Header carrying a long, without boxing it nor formatting it as text<br>
+ * Its content is the decimal form of the value, for compatibility with string headers
+ * @see AbstractHeader
+ */
+public class LongHeader extends AbstractHeader
+{
+	private long value;
+	
+	public LongHeader(boolean passthru, long value)
+	{
+		super(passthru, null);
+		this.value = value;
+	}
+	
+	@Override
+	public void preProcess()
+	{
+		// Long header does nothing
+	}
+	
+	@Override
+	public void postProcess()
+	{
+		// Long header does nothing
+	}
+	
+	@Override
+	public boolean isProcessed()
+	{
+		return false;
+	}
+	
+	/** Returns the value of the header */
+	public long getValue()
+	{
+		return value;
+	}
+	
+	/** Sets the value of the header */
+	public LongHeader setValue(long value)
+	{
+		this.value = value;
+		changed();
+		return this;
+	}
+	
+	@Override
+	public String getContent()
+	{
+		return Long.toString(value);
+	}
+	
+	/** Parses the decimal form of the value */
+	@Override
+	public LongHeader setContent(String content)
+	{
+		value = Long.parseLong(content);
+		changed();
+		return this;
+	}
+	
+	@Override
+	/* Overridden for builder pattern convenience */
+	public LongHeader setPassthru(boolean passthru)
+	{
+		super.setPassthru(passthru);
+		return this;
+	}
+}
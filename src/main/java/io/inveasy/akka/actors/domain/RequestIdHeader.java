@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.domain;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Header identifying a request, kept the same when it is retried or redelivered<br>
+ * Header actors caching their replies receive a request once, duplicates being given the replies recorded for it
+ */
+public class RequestIdHeader extends AbstractHeader
+{
+	/** Key the request id header is sent with */
+	public static final String KEY = "request-id";
+	
+	private final long requestId;
+	
+	public RequestIdHeader(long requestId)
+	{
+		super(false, null);
+		this.requestId = requestId;
+	}
+	
+	/** Creates the header of a new request, with a random id */
+	public static RequestIdHeader random()
+	{
+		return new RequestIdHeader(ThreadLocalRandom.current().nextLong());
+	}
+	
+	@Override
+	public void preProcess()
+	{
+		// Request id header does nothing
+	}
+	
+	@Override
+	public void postProcess()
+	{
+		// Request id header does nothing
+	}
+	
+	@Override
+	public boolean isProcessed()
+	{
+		return false;
+	}
+	
+	/** Returns the id of the request */
+	public long getRequestId()
+	{
+		return requestId;
+	}
+	
+	/** Returns the hexadecimal form of the id */
+	@Override
+	public String getContent()
+	{
+		return String.format("%016x", requestId);
+	}
+}
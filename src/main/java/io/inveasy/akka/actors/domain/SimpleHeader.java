@@ -39,6 +39,12 @@ public class SimpleHeader extends AbstractHeader
 		// Simple header does nothing
 	}
 	
+	@Override
+	public boolean isProcessed()
+	{
+		return false;
+	}
+	
 	@Override
 	/* Overridden for builder pattern convenience */
 	public SimpleHeader setPassthru(boolean passthru)
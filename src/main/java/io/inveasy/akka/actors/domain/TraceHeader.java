@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.inveasy.akka.actors.domain;
+
+import io.inveasy.akka.actors.tracing.Tracing;
+
+/**
+ * Passthru header carrying the trace a message belongs to, and the span which sent it<br>
+ * The sampling decision is taken once, when the trace starts : unsampled headers are passed along untouched,
+ * while each actor receiving a sampled one records the span of its hop and sends the next hops with its own span id
+ * @see Tracing
+ */
+public class TraceHeader extends AbstractHeader
+{
+	/** Key the trace header is sent with */
+	public static final String KEY = "trace";
+	
+	private final long traceId;
+	private final long spanId;
+	private final boolean sampled;
+	
+	public TraceHeader(long traceId, long spanId, boolean sampled)
+	{
+		super(true, null);
+		this.traceId = traceId;
+		this.spanId = spanId;
+		this.sampled = sampled;
+	}
+	
+	/** Starts a new trace, sampled according to the sample rate of Tracing */
+	public static TraceHeader start()
+	{
+		return start(Tracing.sample());
+	}
+	
+	/**
+	 * Starts a new trace
+	 * @param sampled Tells whether the hops of the trace are recorded
+	 */
+	public static TraceHeader start(boolean sampled)
+	{
+		return new TraceHeader(Tracing.newId(), Tracing.newId(), sampled);
+	}
+	
+	@Override
+	public void preProcess()
+	{
+		Tracing.hopStarted(this);
+	}
+	
+	@Override
+	public void postProcess()
+	{
+		Tracing.hopSending(this);
+	}
+	
+	/** Only sampled headers are processed, unsampled ones cost nothing along the chain */
+	@Override
+	public boolean isProcessed()
+	{
+		return sampled;
+	}
+	
+	@Override
+	public AbstractHeader nextHop()
+	{
+		return sampled ? Tracing.nextHop(this) : this;
+	}
+	
+	/** Returns the id of the trace, shared by every hop of the chain */
+	public long getTraceId()
+	{
+		return traceId;
+	}
+	
+	/** Returns the id of the span which sent the message */
+	public long getSpanId()
+	{
+		return spanId;
+	}
+	
+	/** Tells whether the hops of the trace are recorded */
+	public boolean isSampled()
+	{
+		return sampled;
+	}
+	
+	/** Returns the textual form of the trace, as trace id, span id and sampled flag */
+	@Override
+	public String getContent()
+	{
+		return String.format("%016x-%016x-%s", traceId, spanId, sampled ? "01" : "00");
+	}
+}
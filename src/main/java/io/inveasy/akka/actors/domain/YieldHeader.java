@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.domain;
+
+/**
+ * Header correlating a reply with the yield waiting for it<br>
+ * The yield is identified by the serial of the actor which created it, and by its id within this actor
+ */
+public class YieldHeader extends AbstractHeader
+{
+	private long actorSerial;
+	private long yieldId;
+	private int index;
+	
+	public YieldHeader(long actorSerial, long yieldId)
+	{
+		this(actorSerial, yieldId, -1);
+	}
+	
+	public YieldHeader(long actorSerial, long yieldId, int index)
+	{
+		super(true, null);
+		this.actorSerial = actorSerial;
+		this.yieldId = yieldId;
+		this.index = index;
+	}
+	
+	@Override
+	public void preProcess()
+	{
+		// Yield header does nothing
+	}
+	
+	@Override
+	public void postProcess()
+	{
+		// Yield header does nothing
+	}
+	
+	@Override
+	public boolean isProcessed()
+	{
+		return false;
+	}
+	
+	/** Returns the serial of the actor which created the yield */
+	public long getActorSerial()
+	{
+		return actorSerial;
+	}
+	
+	/** Returns the id of the yield within its actor */
+	public long getYieldId()
+	{
+		return yieldId;
+	}
+	
+	/** Returns the index of the target among the targets of a gather, -1 for plain yields */
+	public int getIndex()
+	{
+		return index;
+	}
+	
+	/** Returns the textual form of the correlation, for compatibility with string headers */
+	@Override
+	public String getContent()
+	{
+		String content = Long.toHexString(actorSerial) + '.' + Long.toHexString(yieldId);
+		return index < 0 ? content : content + '#' + index;
+	}
+}
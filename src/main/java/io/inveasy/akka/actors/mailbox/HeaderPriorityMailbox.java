@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.mailbox;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.DeadLetter;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import com.typesafe.config.Config;
+import io.inveasy.akka.actors.collections.RingBuffer;
+import io.inveasy.akka.actors.domain.AbstractHeader;
+import io.inveasy.akka.actors.domain.IntHeader;
+import io.inveasy.akka.actors.domain.LongHeader;
+import io.inveasy.akka.actors.messages.HeaderBatchMessage;
+import io.inveasy.akka.actors.messages.HeaderMessage;
+import scala.Option;
+
+import java.util.Map;
+
+/**
+ * Mailbox ordering messages by the priority header they are sent with, read once when they are enqueued<br>
+ * Each priority has its own bounded lane, lane 0 being the most urgent, so that enqueuing never contends on a global heap<br>
+ * Messages without priority go to the default lane, and messages whose lane is full are sent to dead letters<br>
+ * To keep lower lanes from starving, one message is taken from them in turn every starvation-interval messages<br>
+ * Configured under inveasy.akka-actors.header-priority-mailbox, which actors opt in with Props.withMailbox()
+ */
+public class HeaderPriorityMailbox implements MailboxType, ProducesMessageQueue<HeaderPriorityMailbox.HeaderPriorityMessageQueue>
+{
+	/** Configuration path of the mailbox shipped with the library */
+	public static final String CONFIG_PATH = "inveasy.akka-actors.header-priority-mailbox";
+	
+	private final String headerKey;
+	private final int lanes;
+	private final int defaultLane;
+	private final int laneCapacity;
+	private final int starvationInterval;
+	
+	public HeaderPriorityMailbox(ActorSystem.Settings settings, Config config)
+	{
+		this.headerKey = config.getString("header-key");
+		this.lanes = config.getInt("lanes");
+		this.defaultLane = config.getInt("default-lane");
+		this.laneCapacity = config.getInt("lane-capacity");
+		this.starvationInterval = config.getInt("starvation-interval");
+		
+		if(lanes < 1 || defaultLane < 0 || defaultLane >= lanes)
+			throw new IllegalArgumentException("Header priority mailbox needs at least one lane, the default lane being one of them");
+		if(starvationInterval < 1)
+			throw new IllegalArgumentException("Header priority mailbox starvation interval must be positive");
+	}
+	
+	@Override
+	public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system)
+	{
+		return new HeaderPriorityMessageQueue(system.isDefined() ? system.get().deadLetters() : null);
+	}
+	
+	/**
+	 * Returns the lane of the message, from its priority header<br>
+	 * IntHeader and LongHeader values are used as is, other headers must hold a number
+	 */
+	protected int laneOf(Object message)
+	{
+		Map<String, AbstractHeader> headers;
+		if(message instanceof HeaderMessage)
+			headers = ((HeaderMessage)message).getHeaders();
+		else if(message instanceof HeaderBatchMessage)
+			headers = ((HeaderBatchMessage)message).getHeaders();
+		else
+			return defaultLane;
+		
+		AbstractHeader header = headers.get(headerKey);
+		long priority;
+		if(header == null)
+			return defaultLane;
+		else if(header instanceof IntHeader)
+			priority = ((IntHeader)header).getValue();
+		else if(header instanceof LongHeader)
+			priority = ((LongHeader)header).getValue();
+		else
+		{
+			try
+			{
+				priority = Long.parseLong(header.getContent().trim());
+			}
+			catch(RuntimeException e)
+			{
+				return defaultLane;
+			}
+		}
+		
+		return (int)Math.max(0, Math.min(priority, lanes - 1));
+	}
+	
+	/** Message queue of an actor, with a lane per priority */
+	public class HeaderPriorityMessageQueue implements MessageQueue
+	{
+		private final RingBuffer<Envelope>[] queues;
+		private final ActorRef deadLetters;
+		
+		// Only touched by the actor processing its mailbox, which Akka hands over between threads safely
+		private int dequeued;
+		private int starvedLane;
+		
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		private HeaderPriorityMessageQueue(ActorRef deadLetters)
+		{
+			this.queues = new RingBuffer[lanes];
+			for(int i = 0; i < lanes; i++)
+				queues[i] = new RingBuffer<>(laneCapacity);
+			this.deadLetters = deadLetters;
+		}
+		
+		@Override
+		public void enqueue(ActorRef receiver, Envelope handle)
+		{
+			if(!queues[laneOf(handle.message())].offer(handle) && deadLetters != null)
+				deadLetters.tell(new DeadLetter(handle.message(), handle.sender(), receiver), handle.sender());
+		}
+		
+		@Override
+		public Envelope dequeue()
+		{
+			// Lower lanes are served in turn once in a while, even when upper ones always have messages
+			if(++dequeued >= starvationInterval && queues.length > 1)
+			{
+				dequeued = 0;
+				for(int i = 1; i < queues.length; i++)
+				{
+					starvedLane = starvedLane % (queues.length - 1) + 1;
+					Envelope envelope = queues[starvedLane].poll();
+					if(envelope != null)
+						return envelope;
+				}
+			}
+			
+			for(RingBuffer<Envelope> queue : queues)
+			{
+				Envelope envelope = queue.poll();
+				if(envelope != null)
+					return envelope;
+			}
+			return null;
+		}
+		
+		@Override
+		public int numberOfMessages()
+		{
+			int count = 0;
+			for(RingBuffer<Envelope> queue : queues)
+				count += queue.size();
+			return count;
+		}
+		
+		@Override
+		public boolean hasMessages()
+		{
+			for(RingBuffer<Envelope> queue : queues)
+			{
+				if(!queue.isEmpty())
+					return true;
+			}
+			return false;
+		}
+		
+		@Override
+		public void cleanUp(ActorRef owner, MessageQueue deadLetters)
+		{
+			for(RingBuffer<Envelope> queue : queues)
+			{
+				Envelope envelope;
+				while((envelope = queue.poll()) != null)
+					deadLetters.enqueue(owner, envelope);
+			}
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.messages;
+
+import io.inveasy.akka.actors.domain.AbstractHeader;
+
+import java.util.Map;
+
+/**
+ * Reply to an ask of a yield actor, along with the headers it came with
+ */
+public final class AskReply
+{
+	private final Object message;
+	private final Map<String, AbstractHeader> headers;
+	
+	public AskReply(Object message, Map<String, AbstractHeader> headers)
+	{
+		this.message = message;
+		this.headers = headers;
+	}
+	
+	/**
+	 * Returns the reply
+	 */
+	public Object getMessage()
+	{
+		return message;
+	}
+	
+	/**
+	 * Returns the reply, cast to the given type
+	 */
+	public <T> T getTypedMessage(Class<T> cls)
+	{
+		return cls.cast(message);
+	}
+	
+	/**
+	 * Returns the headers of the reply, frozen
+	 */
+	public Map<String, AbstractHeader> getHeaders()
+	{
+		return headers;
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.messages;
+
+import io.inveasy.cluster.serialization.ProtostuffSerializable;
+
+/**
+ * Reply of a header actor to a request it did not process, because its deadline passed before it was received<br>
+ * Header actors only send it when onDeadlineExceeded() is overridden to do so
+ */
+public final class DeadlineExceeded implements ProtostuffSerializable
+{
+	private Object message;
+	private long deadline;
+	
+	public DeadlineExceeded(Object message, long deadline)
+	{
+		this.message = message;
+		this.deadline = deadline;
+	}
+	
+	/**
+	 * Returns the request which was not processed
+	 */
+	public Object getMessage()
+	{
+		return message;
+	}
+	
+	/**
+	 * Returns the deadline of the request, in milliseconds since the epoch
+	 */
+	public long getDeadline()
+	{
+		return deadline;
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.messages;
+
+/**
+ * Message received by a yield actor when a gather completes, holding the replies of its targets<br>
+ * It is dispatched to the receiver expecting it with the context of the gather
+ */
+public final class GatherResult
+{
+	private final long yieldId;
+	private final Object[] replies;
+	private final int replyCount;
+	private final boolean timedOut;
+	
+	public GatherResult(long yieldId, Object[] replies, int replyCount, boolean timedOut)
+	{
+		this.yieldId = yieldId;
+		this.replies = replies;
+		this.replyCount = replyCount;
+		this.timedOut = timedOut;
+	}
+	
+	/**
+	 * Returns the id of the yield of the gather
+	 */
+	public long getYieldId()
+	{
+		return yieldId;
+	}
+	
+	/**
+	 * Returns the replies, at the index of their target, null for the targets which did not reply
+	 */
+	public Object[] getReplies()
+	{
+		return replies;
+	}
+	
+	/**
+	 * Returns the reply of the target at the given index, null if it did not reply
+	 */
+	public <T> T getReply(int index, Class<T> cls)
+	{
+		return cls.cast(replies[index]);
+	}
+	
+	/**
+	 * Returns the number of targets
+	 */
+	public int size()
+	{
+		return replies.length;
+	}
+	
+	/**
+	 * Returns the number of targets which replied
+	 */
+	public int getReplyCount()
+	{
+		return replyCount;
+	}
+	
+	/**
+	 * Tells whether every target replied
+	 */
+	public boolean isComplete()
+	{
+		return replyCount == replies.length;
+	}
+	
+	/**
+	 * Tells whether the gather completed because its timeout elapsed before the quorum was reached
+	 */
+	public boolean isTimedOut()
+	{
+		return timedOut;
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.messages;
+
+import io.inveasy.akka.actors.domain.AbstractHeader;
+import io.inveasy.akka.actors.domain.HeaderMap;
+import io.inveasy.cluster.serialization.ProtostuffSerializable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Message class, used when sending several messages (as payloads) sharing the same headers<br>
+ * Receiving actors deliver each payload in turn, as if it had been sent in its own HeaderMessage
+ */
+public class HeaderBatchMessage implements ProtostuffSerializable
+{
+	private Map<String, AbstractHeader> headers;
+	private List<Object> originalMessages;
+	
+	/**
+	 * Creates a new batch of messages with headers<br>
+	 * Headers are frozen when the message is created, modifying the given map afterwards does not affect the message
+	 * @param headers The headers shared by the messages of this batch
+	 * @param originalMessages The messages which will be sent as payloads along with headers
+	 */
+	public HeaderBatchMessage(Map<String, AbstractHeader> headers, Iterable<?> originalMessages)
+	{
+		this.headers = headers == null ? HeaderMap.EMPTY : HeaderMap.frozenCopyOf(headers);
+		this.originalMessages = new ArrayList<>();
+		for(Object message : originalMessages)
+			this.originalMessages.add(message);
+	}
+	
+	/**
+	 * Returns the header map of this batch, which is unmodifiable
+	 */
+	public Map<String, AbstractHeader> getHeaders()
+	{
+		return headers;
+	}
+	
+	/**
+	 * Returns the original messages, in the order they were given
+	 */
+	public List<Object> getOriginalMessages()
+	{
+		return originalMessages;
+	}
+}
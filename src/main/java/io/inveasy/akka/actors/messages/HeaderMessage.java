@@ -17,6 +17,7 @@
 package io.inveasy.akka.actors.messages;
 
 import io.inveasy.akka.actors.domain.AbstractHeader;
+import io.inveasy.akka.actors.domain.HeaderMap;
 import io.inveasy.cluster.serialization.ProtostuffSerializable;
 
 import java.util.Map;
@@ -30,18 +31,19 @@ public class HeaderMessage implements ProtostuffSerializable
 	private Object originalMessage;
 	
 	/**
-	 * Creates a new message with headers
+	 * Creates a new message with headers<br>
+	 * Headers are frozen when the message is created, modifying the given map afterwards does not affect the message
 	 * @param headers The headers of this message
 	 * @param originalMessage The message which will be sent as payload along with headers
 	 */
 	public HeaderMessage(Map<String, AbstractHeader> headers, Object originalMessage)
 	{
-		this.headers = headers;
+		this.headers = headers == null ? HeaderMap.EMPTY : HeaderMap.frozenCopyOf(headers);
 		this.originalMessage = originalMessage;
 	}
 	
 	/**
-	 * Returns the header map of this message
+	 * Returns the header map of this message, which is unmodifiable
 	 */
 	public Map<String, AbstractHeader> getHeaders()
 	{
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.inveasy.akka.actors.messages;
+
+import io.inveasy.cluster.serialization.ProtostuffSerializable;
+
+/**
+ * Reply of a yield actor to a request it rejected, because too many of its yields were in flight
+ * and no more requests could be stashed until they complete<br>
+ * It is sent with the headers of the request, so that it reaches the yield of the requester waiting for the reply
+ */
+public final class Overloaded implements ProtostuffSerializable
+{
+	private Object message;
+	private int inFlightYields;
+	
+	public Overloaded(Object message, int inFlightYields)
+	{
+		this.message = message;
+		this.inFlightYields = inFlightYields;
+	}
+	
+	/**
+	 * Returns the rejected request
+	 */
+	public Object getMessage()
+	{
+		return message;
+	}
+	
+	/**
+	 * Returns the number of yields the actor had in flight when it rejected the request
+	 */
+	public int getInFlightYields()
+	{
+		return inFlightYields;
+	}
+}
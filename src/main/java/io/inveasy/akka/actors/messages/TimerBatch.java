@@ -0,0 +1,41 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.messages;
+
+import java.util.List;
+
+/**
+ * Message class, used by the timing wheel to deliver at once the messages of several timers an actor set to itself<br>
+ * Scheduler and header actors receive each message in turn, before any header is handled, it is never sent across the network
+ */
+public final class TimerBatch
+{
+	private final List<Object> messages;
+	
+	public TimerBatch(List<Object> messages)
+	{
+		this.messages = messages;
+	}
+	
+	/**
+	 * Returns the messages of the timers, which expired during the same tick
+	 */
+	public List<Object> getMessages()
+	{
+		return messages;
+	}
+}
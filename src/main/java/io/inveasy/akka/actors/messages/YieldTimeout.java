@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.messages;
+
+import java.time.Duration;
+
+/**
+ * Message received by a yield actor when the timeout given to one of its yields elapsed before the reply came<br>
+ * It is dispatched to the receiver expecting it with the context of the yield, which is then dropped
+ */
+public final class YieldTimeout
+{
+	private final long yieldId;
+	private final Duration timeout;
+	
+	public YieldTimeout(long yieldId, Duration timeout)
+	{
+		this.yieldId = yieldId;
+		this.timeout = timeout;
+	}
+	
+	/**
+	 * Returns the id of the yield which timed out
+	 */
+	public long getYieldId()
+	{
+		return yieldId;
+	}
+	
+	/**
+	 * Returns the timeout which elapsed
+	 */
+	public Duration getTimeout()
+	{
+		return timeout;
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.metrics;
+
+import io.inveasy.akka.actors.store.EvictionCause;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the actors of a class, shared by all its instances<br>
+ * Recording is lock-free and allocation-free, and only happens when the system property
+ * inveasy.akka-actors.metrics.enabled is true at startup : otherwise the checks of ENABLED are compiled away<br>
+ * Metrics of each class are registered in the platform MBean server, as io.inveasy.akka.actors:type=ActorMetrics,name=(class name)
+ */
+public final class ActorMetrics implements ActorMetricsMXBean
+{
+	/** Tells whether metrics are recorded, read once from the inveasy.akka-actors.metrics.enabled system property */
+	public static final boolean ENABLED = Boolean.getBoolean("inveasy.akka-actors.metrics.enabled");
+	
+	private static final String DOMAIN = "io.inveasy.akka.actors";
+	private static final MetricsListener[] NO_LISTENERS = new MetricsListener[0];
+	private static volatile MetricsListener[] listeners = NO_LISTENERS;
+	
+	private static final ClassValue<ActorMetrics> METRICS = new ClassValue<ActorMetrics>()
+	{
+		@Override
+		protected ActorMetrics computeValue(Class<?> type)
+		{
+			ActorMetrics metrics = new ActorMetrics(type);
+			metrics.register();
+			return metrics;
+		}
+	};
+	
+	private final Class<?> actorClass;
+	private final LongAdder messagesReceived = new LongAdder();
+	private final LongAdder yieldsCreated = new LongAdder();
+	private final LongAdder yieldsCompleted = new LongAdder();
+	private final LongAdder yieldsTimedOut = new LongAdder();
+	private final LongAdder yieldsEvicted = new LongAdder();
+	private final LongAdder inFlightYields = new LongAdder();
+	private final LongAdder schedules = new LongAdder();
+	private final LatencyHistogram yieldRoundTrip = new LatencyHistogram();
+	private final LatencyHistogram handlerExecution = new LatencyHistogram();
+	private final LatencyHistogram headerProcessing = new LatencyHistogram();
+	
+	private ActorMetrics(Class<?> actorClass)
+	{
+		this.actorClass = actorClass;
+	}
+	
+	/**
+	 * Returns the metrics of the given actor class
+	 * @param actorClass The class of the actor
+	 */
+	public static ActorMetrics forClass(Class<?> actorClass)
+	{
+		return METRICS.get(actorClass);
+	}
+	
+	/** Adds a listener, told about the events of every actor class */
+	public static synchronized void addListener(MetricsListener listener)
+	{
+		MetricsListener[] current = listeners;
+		MetricsListener[] added = Arrays.copyOf(current, current.length + 1);
+		added[current.length] = listener;
+		listeners = added;
+	}
+	
+	/** Removes a listener added before */
+	public static synchronized void removeListener(MetricsListener listener)
+	{
+		MetricsListener[] current = listeners;
+		for(int i = 0; i < current.length; i++)
+		{
+			if(current[i] == listener)
+			{
+				MetricsListener[] removed = new MetricsListener[current.length - 1];
+				System.arraycopy(current, 0, removed, 0, i);
+				System.arraycopy(current, i + 1, removed, i, current.length - i - 1);
+				listeners = removed;
+				return;
+			}
+		}
+	}
+	
+	/** Returns the actor class these metrics are about */
+	public Class<?> getActorClass()
+	{
+		return actorClass;
+	}
+	
+	//////////////////// Recording ////////////////////
+	public void messageReceived()
+	{
+		messagesReceived.increment();
+	}
+	
+	public void yieldCreated()
+	{
+		yieldsCreated.increment();
+		inFlightYields.increment();
+	}
+	
+	public void yieldCompleted(long roundTripNanos)
+	{
+		yieldsCompleted.increment();
+		inFlightYields.decrement();
+		yieldRoundTrip.record(roundTripNanos);
+		for(MetricsListener listener : listeners)
+			listener.onYieldCompleted(actorClass, roundTripNanos);
+	}
+	
+	/** Records a yield resolved otherwise than by its reply, as its timeout or the end of its gather */
+	public void yieldTimedOut()
+	{
+		yieldsTimedOut.increment();
+		inFlightYields.decrement();
+	}
+	
+	public void yieldEvicted(EvictionCause cause)
+	{
+		yieldsEvicted.increment();
+		inFlightYields.decrement();
+		for(MetricsListener listener : listeners)
+			listener.onYieldEvicted(actorClass, cause);
+	}
+	
+	/** Records yields dropped along with their actor */
+	public void yieldsDropped(int count)
+	{
+		inFlightYields.add(-count);
+	}
+	
+	public void handlerExecuted(long nanos)
+	{
+		handlerExecution.record(nanos);
+		for(MetricsListener listener : listeners)
+			listener.onHandlerExecuted(actorClass, nanos);
+	}
+	
+	public void headersProcessed(long nanos)
+	{
+		headerProcessing.record(nanos);
+		for(MetricsListener listener : listeners)
+			listener.onHeadersProcessed(actorClass, nanos);
+	}
+	
+	public void schedulesChanged(int delta)
+	{
+		schedules.add(delta);
+	}
+	
+	//////////////////// JMX ////////////////////
+	@Override
+	public long getMessagesReceived() { return messagesReceived.sum(); }
+	@Override
+	public long getYieldsCreated() { return yieldsCreated.sum(); }
+	@Override
+	public long getYieldsCompleted() { return yieldsCompleted.sum(); }
+	@Override
+	public long getYieldsTimedOut() { return yieldsTimedOut.sum(); }
+	@Override
+	public long getYieldsEvicted() { return yieldsEvicted.sum(); }
+	@Override
+	public long getInFlightYields() { return inFlightYields.sum(); }
+	@Override
+	public long getSchedules() { return schedules.sum(); }
+	@Override
+	public LatencySnapshot getYieldRoundTrip() { return yieldRoundTrip.snapshot(); }
+	@Override
+	public LatencySnapshot getHandlerExecution() { return handlerExecution.snapshot(); }
+	@Override
+	public LatencySnapshot getHeaderProcessing() { return headerProcessing.snapshot(); }
+	
+	private void register()
+	{
+		try
+		{
+			ObjectName name = new ObjectName(DOMAIN + ":type=ActorMetrics,name=" + ObjectName.quote(actorClass.getName()));
+			if(!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		}
+		catch(JMException e)
+		{
+			// Metrics are still recorded, and reachable through forClass
+		}
+	}
+}
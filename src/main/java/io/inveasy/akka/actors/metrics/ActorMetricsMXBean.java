@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.metrics;
+
+/**
+ * Metrics of an actor class, as exposed through JMX
+ * @see ActorMetrics
+ */
+public interface ActorMetricsMXBean
+{
+	/** Number of messages received by the actors of the class */
+	long getMessagesReceived();
+	
+	/** Number of yields created */
+	long getYieldsCreated();
+	
+	/** Number of yields whose reply came */
+	long getYieldsCompleted();
+	
+	/** Number of yields whose timeout elapsed before their reply came */
+	long getYieldsTimedOut();
+	
+	/** Number of yields evicted from the store before their reply came */
+	long getYieldsEvicted();
+	
+	/** Number of yields waiting for their reply */
+	long getInFlightYields();
+	
+	/** Number of named schedules held */
+	long getSchedules();
+	
+	/** Time from yield() to the reply */
+	LatencySnapshot getYieldRoundTrip();
+	
+	/** Time spent in yield receivers */
+	LatencySnapshot getHandlerExecution();
+	
+	/** Time spent pre processing received headers and post processing sent ones */
+	LatencySnapshot getHeaderProcessing();
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds, with one bucket per power of two<br>
+ * Recording is a couple of uncontended additions, without lock nor allocation, at the price of percentiles being
+ * only precise to a factor of two
+ */
+public final class LatencyHistogram
+{
+	private static final int BUCKETS = 64;
+	
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	
+	public LatencyHistogram()
+	{
+		for(int i = 0; i < BUCKETS; i++)
+			buckets[i] = new LongAdder();
+	}
+	
+	/** Records a duration, negative ones counting as 0 */
+	public void record(long nanos)
+	{
+		long value = Math.max(0, nanos);
+		buckets[BUCKETS - 1 - Long.numberOfLeadingZeros(value | 1)].increment();
+		count.increment();
+		sum.add(value);
+	}
+	
+	/** Returns the recorded durations summarised, the histogram going on recording meanwhile */
+	public LatencySnapshot snapshot()
+	{
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			counts[i] = buckets[i].sum();
+			total += counts[i];
+		}
+		
+		long mean = total == 0 ? 0 : sum.sum() / total;
+		return new LatencySnapshot(total, mean, percentile(counts, total, 0.5), percentile(counts, total, 0.99), percentile(counts, total, 1));
+	}
+	
+	/** Returns the upper bound of the bucket holding the given percentile */
+	private static long percentile(long[] counts, long total, double percentile)
+	{
+		if(total == 0)
+			return 0;
+		
+		long rank = (long)Math.ceil(total * percentile);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts[i];
+			if(seen >= rank)
+				return i >= 62 ? Long.MAX_VALUE : (2L << i) - 1;
+		}
+		return Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.metrics;
+
+/**
+ * Summary of a latency histogram at some point, durations being in nanoseconds<br>
+ * Percentiles are the upper bound of their power of two bucket
+ */
+public final class LatencySnapshot
+{
+	private final long count;
+	private final long meanNanos;
+	private final long p50Nanos;
+	private final long p99Nanos;
+	private final long maxNanos;
+	
+	public LatencySnapshot(long count, long meanNanos, long p50Nanos, long p99Nanos, long maxNanos)
+	{
+		this.count = count;
+		this.meanNanos = meanNanos;
+		this.p50Nanos = p50Nanos;
+		this.p99Nanos = p99Nanos;
+		this.maxNanos = maxNanos;
+	}
+	
+	public long getCount() { return count; }
+	public long getMeanNanos() { return meanNanos; }
+	public long getP50Nanos() { return p50Nanos; }
+	public long getP99Nanos() { return p99Nanos; }
+	public long getMaxNanos() { return maxNanos; }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.metrics;
+
+import io.inveasy.akka.actors.store.EvictionCause;
+
+/**
+ * Told about the events recorded by the actor metrics, from the thread of the actor<br>
+ * Implementations must be quick, they run on the processing path of every message
+ * @see ActorMetrics#addListener(MetricsListener)
+ */
+public interface MetricsListener
+{
+	/** Called when the reply of a yield came */
+	default void onYieldCompleted(Class<?> actorClass, long roundTripNanos)
+	{
+	}
+	
+	/** Called when a yield is dropped before its reply came */
+	default void onYieldEvicted(Class<?> actorClass, EvictionCause cause)
+	{
+	}
+	
+	/** Called when a yield receiver returned */
+	default void onHandlerExecuted(Class<?> actorClass, long nanos)
+	{
+	}
+	
+	/** Called when headers have been pre processed or post processed */
+	default void onHeadersProcessed(Class<?> actorClass, long nanos)
+	{
+	}
+}
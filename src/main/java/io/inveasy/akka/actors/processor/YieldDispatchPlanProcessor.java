@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.processor;
+
+import io.inveasy.akka.actors.annotations.OriginalSender;
+import io.inveasy.akka.actors.annotations.Param;
+import io.inveasy.akka.actors.annotations.YieldReceiver;
+import io.inveasy.akka.actors.dispatch.YieldDispatchPlanProvider;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Annotation processor generating the dispatch plans of yield actors at compile time<br>
+ * For each class declaring @YieldReceiver methods, it generates a YieldDispatchPlanProvider,
+ * so that the actor does not scan its methods nor read annotations when it starts<br>
+ * Receivers which are not private are called directly, private ones are bound by their exact signature<br>
+ * This processor is opt-in : it has to be declared in the annotationProcessors of the compiler plugin
+ * @see YieldDispatchPlanProvider
+ */
+@SupportedAnnotationTypes("io.inveasy.akka.actors.annotations.YieldReceiver")
+public class YieldDispatchPlanProcessor extends AbstractProcessor
+{
+	private static final String PLAN = "io.inveasy.akka.actors.dispatch.YieldReceiverPlan";
+	private static final String INVOKER = "io.inveasy.akka.actors.dispatch.YieldInvoker";
+	private static final String YIELD = "io.inveasy.akka.actors.AbstractYieldActor.Yield";
+	
+	@Override
+	public SourceVersion getSupportedSourceVersion()
+	{
+		return SourceVersion.latestSupported();
+	}
+	
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+	{
+		Map<TypeElement, List<ExecutableElement>> receiversByClass = new LinkedHashMap<>();
+		for(Element element : roundEnv.getElementsAnnotatedWith(YieldReceiver.class))
+		{
+			if(element.getKind() == ElementKind.METHOD)
+				receiversByClass.computeIfAbsent((TypeElement)element.getEnclosingElement(), k -> new ArrayList<>())
+						.add((ExecutableElement)element);
+		}
+		
+		receiversByClass.forEach(this::generate);
+		return false;
+	}
+	
+	private void generate(TypeElement actorClass, List<ExecutableElement> receivers)
+	{
+		// Private classes cannot be referenced from the generated plan, they keep being scanned at runtime
+		if(!isAccessible(actorClass))
+		{
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+					"No dispatch plan generated for private class " + actorClass.getQualifiedName(), actorClass);
+			return;
+		}
+		
+		Elements elements = processingEnv.getElementUtils();
+		String packageName = elements.getPackageOf(actorClass).getQualifiedName().toString();
+		String binaryName = elements.getBinaryName(actorClass).toString();
+		String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)) + YieldDispatchPlanProvider.SUFFIX;
+		
+		StringBuilder source = new StringBuilder();
+		if(!packageName.isEmpty())
+			source.append("package ").append(packageName).append(";\n\n");
+		source.append("/** Generated by ").append(getClass().getName()).append(", do not edit */\n")
+				.append("public final class ").append(simpleName).append(" implements ").append(YieldDispatchPlanProvider.class.getCanonicalName()).append("\n{\n")
+				.append("\t@Override\n")
+				.append("\tpublic java.util.List<").append(PLAN).append("> getReceivers()\n\t{\n")
+				.append("\t\tjava.util.List<").append(PLAN).append("> receivers = new java.util.ArrayList<>();\n");
+		
+		for(ExecutableElement receiver : receivers)
+			appendReceiver(source, actorClass, receiver);
+		
+		source.append("\t\treturn receivers;\n\t}\n}\n");
+		
+		try(Writer writer = processingEnv.getFiler().createSourceFile(packageName.isEmpty() ? simpleName : packageName + "." + simpleName, actorClass).openWriter())
+		{
+			writer.write(source.toString());
+		}
+		catch(IOException e)
+		{
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write dispatch plan: " + e.getMessage(), actorClass);
+		}
+	}
+	
+	private void appendReceiver(StringBuilder source, TypeElement actorClass, ExecutableElement receiver)
+	{
+		Types types = processingEnv.getTypeUtils();
+		TypeMirror expectedMessageType = types.erasure(getExpectedMessageType(receiver));
+		TypeMirror yieldType = types.erasure(processingEnv.getElementUtils().getTypeElement(YIELD).asType());
+		List<? extends VariableElement> parameters = receiver.getParameters();
+		
+		int messagePosition = -1;
+		int yieldPosition = -1;
+		int originalSenderPosition = -1;
+		StringJoiner contextPositions = new StringJoiner(", ", "new int[] {", "}");
+		StringJoiner contextNames = new StringJoiner(", ", "new String[] {", "}");
+		StringJoiner contextTypes = new StringJoiner(", ", "new Class<?>[] {", "}");
+		StringJoiner parameterTypes = new StringJoiner(", ");
+		StringJoiner arguments = new StringJoiner(", ");
+		
+		// Find parameter order, the same way it is done at runtime
+		for(int i = 0; i < parameters.size(); i++)
+		{
+			VariableElement parameter = parameters.get(i);
+			TypeMirror type = types.erasure(parameter.asType());
+			parameterTypes.add(type + ".class");
+			arguments.add("(" + boxed(type) + ")args[" + i + "]");
+			
+			if(types.isSubtype(expectedMessageType, type))
+				messagePosition = i;
+			else if(types.isSubtype(yieldType, type))
+				yieldPosition = i;
+			else if(parameter.getAnnotation(OriginalSender.class) != null)
+				originalSenderPosition = i;
+			else
+			{
+				Param paramName = parameter.getAnnotation(Param.class);
+				contextPositions.add(String.valueOf(i));
+				contextNames.add(quote(paramName != null ? paramName.value() : parameter.getSimpleName().toString()));
+				contextTypes.add(type + ".class");
+			}
+		}
+		
+		String invoker;
+		String methodName = receiver.getSimpleName().toString();
+		if(receiver.getModifiers().contains(Modifier.PRIVATE))
+			invoker = INVOKER + ".of(" + actorClass.getQualifiedName() + ".class, " + quote(methodName)
+					+ (parameters.isEmpty() ? "" : ", " + parameterTypes) + ")";
+		else if(receiver.getModifiers().contains(Modifier.STATIC))
+			invoker = "(actor, args) -> " + actorClass.getQualifiedName() + "." + methodName + "(" + arguments + ")";
+		else
+			invoker = "(actor, args) -> ((" + actorClass.getQualifiedName() + ")actor)." + methodName + "(" + arguments + ")";
+		
+		source.append("\t\treceivers.add(new ").append(PLAN).append("(")
+				.append(expectedMessageType).append(".class, ")
+				.append(invoker).append(", ")
+				.append(parameters.size()).append(", ")
+				.append(messagePosition).append(", ")
+				.append(yieldPosition).append(", ")
+				.append(originalSenderPosition).append(",\n\t\t\t\t")
+				.append(contextPositions).append(", ")
+				.append(contextNames).append(", ")
+				.append(contextTypes).append("));\n");
+	}
+	
+	/** Reads the expected message type through mirrors, as the class may not be compiled yet */
+	private TypeMirror getExpectedMessageType(ExecutableElement receiver)
+	{
+		for(AnnotationMirror annotation : receiver.getAnnotationMirrors())
+		{
+			if(!((TypeElement)annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(YieldReceiver.class.getName()))
+				continue;
+			
+			for(Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues().entrySet())
+			{
+				if(entry.getKey().getSimpleName().contentEquals("expectedMessageType"))
+					return (TypeMirror)entry.getValue().getValue();
+			}
+		}
+		
+		throw new IllegalStateException("Missing expectedMessageType on " + receiver);
+	}
+	
+	private boolean isAccessible(TypeElement type)
+	{
+		for(Element element = type; element instanceof TypeElement; element = element.getEnclosingElement())
+		{
+			if(element.getModifiers().contains(Modifier.PRIVATE))
+				return false;
+		}
+		return true;
+	}
+	
+	private String boxed(TypeMirror type)
+	{
+		if(type.getKind().isPrimitive())
+			return processingEnv.getTypeUtils().boxedClass((PrimitiveType)type).getQualifiedName().toString();
+		return type.getKind() == TypeKind.ERROR ? "Object" : type.toString();
+	}
+	
+	private static String quote(String value)
+	{
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.serialization;
+
+import io.inveasy.akka.actors.domain.AbstractHeader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes and reads the content of a header type in the binary wire format<br>
+ * The key and the passthru flag are handled by the serializer
+ * @param <T> The header type
+ * @see HeaderCodecs
+ */
+public interface HeaderCodec<T extends AbstractHeader>
+{
+	/** Writes the content of the header */
+	void write(T header, ByteBuffer buffer);
+	
+	/** Reads the content of a header and creates it */
+	T read(boolean passthru, ByteBuffer buffer);
+}
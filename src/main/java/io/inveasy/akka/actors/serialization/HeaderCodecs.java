@@ -0,0 +1,216 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.serialization;
+
+import io.inveasy.akka.actors.domain.AbstractHeader;
+import io.inveasy.akka.actors.domain.BinaryHeader;
+import io.inveasy.akka.actors.domain.DeadlineHeader;
+import io.inveasy.akka.actors.domain.IntHeader;
+import io.inveasy.akka.actors.domain.LongHeader;
+import io.inveasy.akka.actors.domain.RequestIdHeader;
+import io.inveasy.akka.actors.domain.SimpleHeader;
+import io.inveasy.akka.actors.domain.TraceHeader;
+import io.inveasy.akka.actors.domain.YieldHeader;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the header types the serializer encodes natively, each one having a numeric id<br>
+ * Ids must be registered the same way on every node, custom types should use ids from 64<br>
+ * Types which are not registered are written with their class name and serialized with Protostuff
+ */
+public final class HeaderCodecs
+{
+	/** Id of the header types which are not registered */
+	public static final int UNREGISTERED = 0;
+	
+	private static final ConcurrentHashMap<Class<?>, Registration<?>> BY_CLASS = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<Integer, Registration<?>> BY_ID = new ConcurrentHashMap<>();
+	
+	static
+	{
+		register(1, SimpleHeader.class, new HeaderCodec<SimpleHeader>()
+		{
+			@Override
+			public void write(SimpleHeader header, ByteBuffer buffer)
+			{
+				WireFormat.writeString(buffer, header.getContent());
+			}
+			
+			@Override
+			public SimpleHeader read(boolean passthru, ByteBuffer buffer)
+			{
+				return new SimpleHeader(passthru, WireFormat.readString(buffer));
+			}
+		});
+		register(2, YieldHeader.class, new HeaderCodec<YieldHeader>()
+		{
+			@Override
+			public void write(YieldHeader header, ByteBuffer buffer)
+			{
+				WireFormat.writeVarLong(buffer, header.getActorSerial());
+				WireFormat.writeVarLong(buffer, header.getYieldId());
+				WireFormat.writeVarInt(buffer, header.getIndex() + 1);
+			}
+			
+			@Override
+			public YieldHeader read(boolean passthru, ByteBuffer buffer)
+			{
+				return new YieldHeader(WireFormat.readVarLong(buffer), WireFormat.readVarLong(buffer), WireFormat.readVarInt(buffer) - 1);
+			}
+		});
+		register(3, TraceHeader.class, new HeaderCodec<TraceHeader>()
+		{
+			@Override
+			public void write(TraceHeader header, ByteBuffer buffer)
+			{
+				// Ids are random, so they are written on fixed bytes rather than as varints
+				WireFormat.writeFixedLong(buffer, header.getTraceId());
+				WireFormat.writeFixedLong(buffer, header.getSpanId());
+				buffer.put((byte)(header.isSampled() ? 1 : 0));
+			}
+			
+			@Override
+			public TraceHeader read(boolean passthru, ByteBuffer buffer)
+			{
+				return new TraceHeader(WireFormat.readFixedLong(buffer), WireFormat.readFixedLong(buffer), buffer.get() != 0);
+			}
+		});
+		register(4, LongHeader.class, new HeaderCodec<LongHeader>()
+		{
+			@Override
+			public void write(LongHeader header, ByteBuffer buffer)
+			{
+				WireFormat.writeZigZagLong(buffer, header.getValue());
+			}
+			
+			@Override
+			public LongHeader read(boolean passthru, ByteBuffer buffer)
+			{
+				return new LongHeader(passthru, WireFormat.readZigZagLong(buffer));
+			}
+		});
+		register(5, IntHeader.class, new HeaderCodec<IntHeader>()
+		{
+			@Override
+			public void write(IntHeader header, ByteBuffer buffer)
+			{
+				WireFormat.writeZigZagLong(buffer, header.getValue());
+			}
+			
+			@Override
+			public IntHeader read(boolean passthru, ByteBuffer buffer)
+			{
+				return new IntHeader(passthru, (int)WireFormat.readZigZagLong(buffer));
+			}
+		});
+		register(6, BinaryHeader.class, new HeaderCodec<BinaryHeader>()
+		{
+			@Override
+			public void write(BinaryHeader header, ByteBuffer buffer)
+			{
+				WireFormat.writeBytes(buffer, header.getValue());
+			}
+			
+			@Override
+			public BinaryHeader read(boolean passthru, ByteBuffer buffer)
+			{
+				return new BinaryHeader(passthru, WireFormat.readBytes(buffer));
+			}
+		});
+		register(7, DeadlineHeader.class, new HeaderCodec<DeadlineHeader>()
+		{
+			@Override
+			public void write(DeadlineHeader header, ByteBuffer buffer)
+			{
+				WireFormat.writeZigZagLong(buffer, header.getDeadline());
+			}
+			
+			@Override
+			public DeadlineHeader read(boolean passthru, ByteBuffer buffer)
+			{
+				return new DeadlineHeader(WireFormat.readZigZagLong(buffer));
+			}
+		});
+		register(8, RequestIdHeader.class, new HeaderCodec<RequestIdHeader>()
+		{
+			@Override
+			public void write(RequestIdHeader header, ByteBuffer buffer)
+			{
+				WireFormat.writeFixedLong(buffer, header.getRequestId());
+			}
+			
+			@Override
+			public RequestIdHeader read(boolean passthru, ByteBuffer buffer)
+			{
+				return new RequestIdHeader(WireFormat.readFixedLong(buffer));
+			}
+		});
+	}
+	
+	private HeaderCodecs()
+	{
+	}
+	
+	/**
+	 * Registers a header type, which will then be encoded with the given codec
+	 * @param id The id of the type on the wire, the same on every node
+	 * @param type The exact class of the headers
+	 * @param codec The codec of the headers
+	 */
+	public static <T extends AbstractHeader> void register(int id, Class<T> type, HeaderCodec<T> codec)
+	{
+		if(id <= UNREGISTERED)
+			throw new IllegalArgumentException("Header type ids must be positive");
+		
+		Registration<T> registration = new Registration<>(id, codec);
+		if(BY_ID.putIfAbsent(id, registration) != null)
+			throw new IllegalStateException("Header type id " + id + " is already registered");
+		BY_CLASS.put(type, registration);
+	}
+	
+	/** Returns the registration of the exact class, or null */
+	static Registration<?> forClass(Class<?> type)
+	{
+		return BY_CLASS.get(type);
+	}
+	
+	/** Returns the registration of the id, or null */
+	static Registration<?> forId(int id)
+	{
+		return BY_ID.get(id);
+	}
+	
+	static final class Registration<T extends AbstractHeader>
+	{
+		final int id;
+		final HeaderCodec<T> codec;
+		
+		private Registration(int id, HeaderCodec<T> codec)
+		{
+			this.id = id;
+			this.codec = codec;
+		}
+		
+		@SuppressWarnings("unchecked")
+		void write(AbstractHeader header, ByteBuffer buffer)
+		{
+			codec.write((T)header, buffer);
+		}
+	}
+}
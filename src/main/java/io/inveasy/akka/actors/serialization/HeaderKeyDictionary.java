@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.serialization;
+
+import io.inveasy.akka.actors.domain.DeadlineHeader;
+import io.inveasy.akka.actors.domain.RequestIdHeader;
+import io.inveasy.akka.actors.domain.TraceHeader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary of the header keys written as a numeric index instead of their text<br>
+ * The library keys come first, then the ones configured in inveasy.akka-actors.serialization.header-keys,
+ * so the configuration must be the same on every node
+ */
+public final class HeaderKeyDictionary
+{
+	/** Keys of the headers provided by this library */
+	private static final List<String> BUILTIN_KEYS = Arrays.asList(TraceHeader.KEY, DeadlineHeader.KEY, RequestIdHeader.KEY);
+	
+	private final Map<String, Integer> indexes = new HashMap<>();
+	private final List<String> keys = new ArrayList<>();
+	
+	/**
+	 * Creates a dictionary holding the library keys, followed by the given ones
+	 * @param configuredKeys The keys specific to the application
+	 */
+	public HeaderKeyDictionary(Collection<String> configuredKeys)
+	{
+		BUILTIN_KEYS.forEach(this::add);
+		configuredKeys.forEach(this::add);
+	}
+	
+	/** Returns the index of the key, or -1 when it is not part of the dictionary */
+	public int indexOf(String key)
+	{
+		Integer index = indexes.get(key);
+		return index == null ? -1 : index;
+	}
+	
+	/** Returns the key at this index */
+	public String keyAt(int index)
+	{
+		if(index < 0 || index >= keys.size())
+			throw new IllegalArgumentException("Unknown header key index " + index + ", check that header-keys is configured the same way on every node");
+		return keys.get(index);
+	}
+	
+	private void add(String key)
+	{
+		if(indexes.putIfAbsent(key, keys.size()) == null)
+			keys.add(key);
+	}
+}
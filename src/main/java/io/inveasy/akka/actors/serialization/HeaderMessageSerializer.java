@@ -0,0 +1,454 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.serialization;
+
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.ByteBufferSerializer;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.SerializerWithStringManifest;
+import akka.serialization.Serializers;
+import com.typesafe.config.Config;
+import io.inveasy.akka.actors.AbstractYieldActor;
+import io.inveasy.akka.actors.domain.AbstractHeader;
+import io.inveasy.akka.actors.domain.HeaderMap;
+import io.inveasy.akka.actors.messages.HeaderBatchMessage;
+import io.inveasy.akka.actors.messages.HeaderMessage;
+import io.protostuff.LinkedBuffer;
+import io.protostuff.ProtostuffIOUtil;
+import io.protostuff.Schema;
+import io.protostuff.runtime.RuntimeSchema;
+
+import java.io.NotSerializableException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binary serializer of header messages and headers<br>
+ * Header types registered in HeaderCodecs are written as a numeric id followed by their content,
+ * keys found in the HeaderKeyDictionary as an index, and yield keys as their raw UUID<br>
+ * The payload is serialized with the serializer Akka binds to it, written straight into the target buffer when it supports it
+ * @see HeaderCodecs
+ * @see HeaderKeyDictionary
+ */
+public class HeaderMessageSerializer extends SerializerWithStringManifest implements ByteBufferSerializer
+{
+	public static final int IDENTIFIER = 0x1DEA5E01;
+	
+	private static final String HEADER_MESSAGE_MANIFEST = "H";
+	private static final String HEADER_BATCH_MESSAGE_MANIFEST = "B";
+	private static final String HEADER_MANIFEST = "A";
+	private static final byte VERSION = 3;
+	
+	private static final byte KEY_DICTIONARY = 0;
+	private static final byte KEY_YIELD = 1;
+	private static final byte KEY_LITERAL = 2;
+	private static final String YIELD_KEY_PREFIX = "yield-";
+	private static final UUID LOCAL_YIELD_UUID = UUID.fromString(AbstractYieldActor.ACTOR_UUID);
+	private static final int YIELD_KEYS_LIMIT = 1024;
+	private static final ConcurrentHashMap<UUID, String> YIELD_KEYS = new ConcurrentHashMap<>();
+	
+	private final ExtendedActorSystem system;
+	private final HeaderKeyDictionary dictionary;
+	private final int initialBufferSize;
+	private final int maxBufferSize;
+	private final ThreadLocal<ByteBuffer> buffers;
+	private volatile Serialization serialization;
+	
+	public HeaderMessageSerializer(ExtendedActorSystem system)
+	{
+		Config config = system.settings().config().getConfig("inveasy.akka-actors.serialization");
+		
+		this.system = system;
+		this.dictionary = new HeaderKeyDictionary(config.getStringList("header-keys"));
+		this.initialBufferSize = (int)config.getBytes("initial-buffer-size").longValue();
+		this.maxBufferSize = (int)config.getBytes("max-buffer-size").longValue();
+		this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(initialBufferSize));
+	}
+	
+	@Override
+	public int identifier()
+	{
+		return IDENTIFIER;
+	}
+	
+	@Override
+	public String manifest(Object o)
+	{
+		if(o instanceof HeaderMessage)
+			return HEADER_MESSAGE_MANIFEST;
+		if(o instanceof HeaderBatchMessage)
+			return HEADER_BATCH_MESSAGE_MANIFEST;
+		if(o instanceof AbstractHeader)
+			return HEADER_MANIFEST;
+		throw new IllegalArgumentException("Cannot serialize " + o.getClass().getName());
+	}
+	
+	@Override
+	public byte[] toBinary(Object o)
+	{
+		// Serialize into a buffer pooled per thread, growing it until the message fits
+		ByteBuffer buffer = buffers.get();
+		while(true)
+		{
+			buffer.clear();
+			try
+			{
+				toBinary(o, buffer);
+				
+				byte[] bytes = new byte[buffer.position()];
+				buffer.flip();
+				buffer.get(bytes);
+				return bytes;
+			}
+			catch(BufferOverflowException e)
+			{
+				if(buffer.capacity() >= maxBufferSize)
+					throw new IllegalArgumentException("Serialized message exceeds max-buffer-size of " + maxBufferSize + " bytes", e);
+				
+				buffer = ByteBuffer.allocate(Math.min(maxBufferSize, buffer.capacity() << 1));
+				buffers.set(buffer);
+			}
+		}
+	}
+	
+	@Override
+	public void toBinary(Object o, ByteBuffer buffer)
+	{
+		buffer.put(VERSION);
+		if(o instanceof HeaderMessage)
+		{
+			HeaderMessage message = (HeaderMessage)o;
+			writeHeaders(message.getHeaders(), buffer);
+			writePayload(message.getOriginalMessage(), buffer);
+		}
+		else if(o instanceof HeaderBatchMessage)
+		{
+			HeaderBatchMessage batch = (HeaderBatchMessage)o;
+			writeHeaders(batch.getHeaders(), buffer);
+			WireFormat.writeVarInt(buffer, batch.getOriginalMessages().size());
+			for(Object payload : batch.getOriginalMessages())
+				writePayload(payload, buffer);
+		}
+		else if(o instanceof AbstractHeader)
+			writeHeader((AbstractHeader)o, buffer);
+		else
+			throw new IllegalArgumentException("Cannot serialize " + o.getClass().getName());
+	}
+	
+	@Override
+	public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException
+	{
+		return fromBinary(ByteBuffer.wrap(bytes), manifest);
+	}
+	
+	@Override
+	public Object fromBinary(ByteBuffer buffer, String manifest) throws NotSerializableException
+	{
+		byte version = buffer.get();
+		if(version != VERSION)
+			throw new NotSerializableException("Unsupported header message version " + version);
+		
+		switch(manifest)
+		{
+			case HEADER_MESSAGE_MANIFEST:
+				HeaderMap headers = readHeaders(buffer);
+				return new HeaderMessage(headers, readPayload(buffer));
+			case HEADER_BATCH_MESSAGE_MANIFEST:
+				HeaderMap batchHeaders = readHeaders(buffer);
+				int count = WireFormat.readVarInt(buffer);
+				List<Object> payloads = new ArrayList<>(count);
+				for(int i = 0; i < count; i++)
+					payloads.add(readPayload(buffer));
+				return new HeaderBatchMessage(batchHeaders, payloads);
+			case HEADER_MANIFEST:
+				return readHeader(buffer);
+			default:
+				throw new NotSerializableException("Unknown manifest " + manifest);
+		}
+	}
+	
+	//////////////////// Headers ////////////////////
+	/**
+	 * Writes the headers one layer at a time : own entries, then whether a parent layer follows<br>
+	 * Parent layers are shared along multi-hop chains, so their encoding is cached on them and copied as is,
+	 * unless they hold headers which may change without telling, see isCacheable()
+	 */
+	private void writeHeaders(Map<String, AbstractHeader> headers, ByteBuffer buffer)
+	{
+		if(!(headers instanceof HeaderMap))
+		{
+			WireFormat.writeVarInt(buffer, headers.size());
+			headers.forEach((key, header) -> writeEntry(key, header, buffer));
+			buffer.put((byte)0);
+			return;
+		}
+		
+		HeaderMap layer = (HeaderMap)headers;
+		WireFormat.writeVarInt(buffer, layer.ownSize());
+		layer.forEachOwn((key, header) -> writeEntry(key, header, buffer));
+		
+		HeaderMap parent = layer.getParent();
+		if(parent == null)
+		{
+			buffer.put((byte)0);
+			return;
+		}
+		
+		buffer.put((byte)1);
+		boolean cacheable = isCacheable(parent);
+		byte[] cached = cacheable ? parent.getCachedEncoding(this) : null;
+		if(cached != null)
+			buffer.put(cached);
+		else
+		{
+			int start = buffer.position();
+			writeHeaders(parent, buffer);
+			if(cacheable)
+				parent.cacheEncoding(this, copyOf(buffer, start));
+		}
+	}
+	
+	/**
+	 * Tells whether the encoding of the layer can be cached : processed headers may update themselves in postProcess(),
+	 * and headers without codec may have any state, neither of them calling AbstractHeader.changed()
+	 */
+	private static boolean isCacheable(HeaderMap layer)
+	{
+		if(layer.getProcessedHeaders().length > 0)
+			return false;
+		
+		for(HeaderMap current = layer; current != null; current = current.getParent())
+		{
+			boolean[] cacheable = {true};
+			current.forEachOwn((key, header) -> cacheable[0] &= header == null || HeaderCodecs.forClass(header.getClass()) != null);
+			if(!cacheable[0])
+				return false;
+		}
+		return true;
+	}
+	
+	private void writeEntry(String key, AbstractHeader header, ByteBuffer buffer)
+	{
+		writeKey(key, buffer);
+		writeHeader(header, buffer);
+	}
+	
+	private HeaderMap readHeaders(ByteBuffer buffer)
+	{
+		HeaderMap headers = new HeaderMap();
+		int count = WireFormat.readVarInt(buffer);
+		for(int i = 0; i < count; i++)
+		{
+			String key = readKey(buffer);
+			headers.put(key, readHeader(buffer));
+		}
+		
+		if(buffer.get() != 0)
+		{
+			int start = buffer.position();
+			HeaderMap parent = readHeaders(buffer);
+			if(isCacheable(parent))
+				parent.cacheEncoding(this, copyOf(buffer, start));
+			headers.inherit(parent);
+		}
+		return headers.freeze();
+	}
+	
+	/** Copies the bytes written or read since start */
+	private static byte[] copyOf(ByteBuffer buffer, int start)
+	{
+		ByteBuffer slice = buffer.duplicate();
+		slice.flip();
+		slice.position(start);
+		byte[] bytes = new byte[slice.remaining()];
+		slice.get(bytes);
+		return bytes;
+	}
+	
+	/** Writes the type id, the passthru flag and the content of the header */
+	private void writeHeader(AbstractHeader header, ByteBuffer buffer)
+	{
+		HeaderCodecs.Registration<?> registration = HeaderCodecs.forClass(header.getClass());
+		if(registration != null)
+		{
+			WireFormat.writeVarInt(buffer, registration.id);
+			buffer.put((byte)(header.isPassthru() ? 1 : 0));
+			registration.write(header, buffer);
+		}
+		else
+		{
+			WireFormat.writeVarInt(buffer, HeaderCodecs.UNREGISTERED);
+			WireFormat.writeString(buffer, header.getClass().getName());
+			WireFormat.writeBytes(buffer, ProtostuffIOUtil.toByteArray(header, schemaOf(header.getClass()), LinkedBuffer.allocate()));
+		}
+	}
+	
+	private AbstractHeader readHeader(ByteBuffer buffer)
+	{
+		int typeId = WireFormat.readVarInt(buffer);
+		if(typeId != HeaderCodecs.UNREGISTERED)
+		{
+			HeaderCodecs.Registration<?> registration = HeaderCodecs.forId(typeId);
+			if(registration == null)
+				throw new IllegalArgumentException("Unknown header type id " + typeId);
+			
+			boolean passthru = buffer.get() != 0;
+			return registration.codec.read(passthru, buffer);
+		}
+		
+		String className = WireFormat.readString(buffer);
+		byte[] bytes = WireFormat.readBytes(buffer);
+		try
+		{
+			// The class comes from the wire, it is not initialized before it is known to be a header
+			Class<?> type = Class.forName(className, false, system.dynamicAccess().classLoader());
+			if(!AbstractHeader.class.isAssignableFrom(type))
+				throw new IllegalArgumentException("Class " + className + " is not a header");
+			
+			Schema<AbstractHeader> schema = schemaOf(type);
+			AbstractHeader header = schema.newMessage();
+			ProtostuffIOUtil.mergeFrom(bytes, header, schema);
+			return header;
+		}
+		catch(ClassNotFoundException e)
+		{
+			throw new IllegalArgumentException("Unknown header class " + className, e);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static Schema<AbstractHeader> schemaOf(Class<?> type)
+	{
+		return (Schema<AbstractHeader>)RuntimeSchema.getSchema(type);
+	}
+	
+	//////////////////// Keys ////////////////////
+	private void writeKey(String key, ByteBuffer buffer)
+	{
+		int index = dictionary.indexOf(key);
+		if(index != -1)
+		{
+			buffer.put(KEY_DICTIONARY);
+			WireFormat.writeVarInt(buffer, index);
+			return;
+		}
+		
+		UUID yieldUuid = parseYieldKey(key);
+		if(yieldUuid != null)
+		{
+			buffer.put(KEY_YIELD);
+			WireFormat.writeFixedLong(buffer, yieldUuid.getMostSignificantBits());
+			WireFormat.writeFixedLong(buffer, yieldUuid.getLeastSignificantBits());
+			return;
+		}
+		
+		buffer.put(KEY_LITERAL);
+		WireFormat.writeString(buffer, key);
+	}
+	
+	private String readKey(ByteBuffer buffer)
+	{
+		byte kind = buffer.get();
+		switch(kind)
+		{
+			case KEY_DICTIONARY:
+				return dictionary.keyAt(WireFormat.readVarInt(buffer));
+			case KEY_YIELD:
+				return yieldKey(new UUID(WireFormat.readFixedLong(buffer), WireFormat.readFixedLong(buffer)));
+			case KEY_LITERAL:
+				return WireFormat.readString(buffer);
+			default:
+				throw new IllegalArgumentException("Unknown header key kind " + kind);
+		}
+	}
+	
+	/** Returns the UUID of a yield key, or null if the key is not one */
+	private static UUID parseYieldKey(String key)
+	{
+		if(key.equals(AbstractYieldActor.ACTOR_YIELD_UUID))
+			return LOCAL_YIELD_UUID;
+		if(!key.startsWith(YIELD_KEY_PREFIX) || key.length() != YIELD_KEY_PREFIX.length() + 36)
+			return null;
+		
+		try
+		{
+			UUID uuid = UUID.fromString(key.substring(YIELD_KEY_PREFIX.length()));
+			
+			// Only keys rendered back the same way can be shortened
+			return key.equals(yieldKey(uuid)) ? uuid : null;
+		}
+		catch(IllegalArgumentException e)
+		{
+			return null;
+		}
+	}
+	
+	private static String yieldKey(UUID uuid)
+	{
+		String key = YIELD_KEYS.get(uuid);
+		if(key == null)
+		{
+			key = HeaderMap.intern(YIELD_KEY_PREFIX + uuid);
+			if(YIELD_KEYS.size() < YIELD_KEYS_LIMIT)
+				YIELD_KEYS.putIfAbsent(uuid, key);
+		}
+		return key;
+	}
+	
+	//////////////////// Payload ////////////////////
+	private Serialization serialization()
+	{
+		if(serialization == null)
+			serialization = (Serialization)SerializationExtension.apply(system);
+		return serialization;
+	}
+	
+	private void writePayload(Object payload, ByteBuffer buffer)
+	{
+		Serializer serializer = serialization().findSerializerFor(payload);
+		WireFormat.writeVarInt(buffer, serializer.identifier());
+		WireFormat.writeString(buffer, Serializers.manifestFor(serializer, payload));
+		
+		// The length is written once the payload is, so that it can be serialized in place
+		int lengthIndex = buffer.position();
+		buffer.position(lengthIndex + 4);
+		if(serializer instanceof ByteBufferSerializer)
+			((ByteBufferSerializer)serializer).toBinary(payload, buffer);
+		else
+			buffer.put(serializer.toBinary(payload));
+		WireFormat.writeFixedInt(buffer, lengthIndex, buffer.position() - lengthIndex - 4);
+	}
+	
+	private Object readPayload(ByteBuffer buffer) throws NotSerializableException
+	{
+		int serializerId = WireFormat.readVarInt(buffer);
+		String manifest = WireFormat.readString(buffer);
+		int length = WireFormat.readFixedInt(buffer);
+		
+		ByteBuffer payload = buffer.slice();
+		payload.limit(length);
+		buffer.position(buffer.position() + length);
+		return serialization().deserializeByteBuffer(payload, serializerId, manifest == null ? "" : manifest);
+	}
+}
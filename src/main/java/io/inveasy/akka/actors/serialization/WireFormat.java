@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.serialization;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Primitives of the binary wire format of headers<br>
+ * Integers are written as unsigned varints, and nothing depends on the byte order of the buffer
+ */
+public final class WireFormat
+{
+	private WireFormat()
+	{
+	}
+	
+	/** Writes a long as an unsigned varint, from 1 to 10 bytes */
+	public static void writeVarLong(ByteBuffer buffer, long value)
+	{
+		while((value & ~0x7FL) != 0)
+		{
+			buffer.put((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte)value);
+	}
+	
+	/** Reads a long written as an unsigned varint */
+	public static long readVarLong(ByteBuffer buffer)
+	{
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7)
+		{
+			byte b = buffer.get();
+			value |= (long)(b & 0x7F) << shift;
+			if(b >= 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+	
+	/** Writes an int as an unsigned varint, from 1 to 5 bytes */
+	public static void writeVarInt(ByteBuffer buffer, int value)
+	{
+		writeVarLong(buffer, value & 0xFFFFFFFFL);
+	}
+	
+	/** Reads an int written as an unsigned varint */
+	public static int readVarInt(ByteBuffer buffer)
+	{
+		return (int)readVarLong(buffer);
+	}
+	
+	/** Writes a signed long as a zigzag varint, so that small negative values stay short */
+	public static void writeZigZagLong(ByteBuffer buffer, long value)
+	{
+		writeVarLong(buffer, (value << 1) ^ (value >> 63));
+	}
+	
+	/** Reads a signed long written as a zigzag varint */
+	public static long readZigZagLong(ByteBuffer buffer)
+	{
+		long value = readVarLong(buffer);
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	/** Writes an int on exactly 4 bytes, big endian */
+	public static void writeFixedInt(ByteBuffer buffer, int index, int value)
+	{
+		buffer.put(index, (byte)(value >>> 24));
+		buffer.put(index + 1, (byte)(value >>> 16));
+		buffer.put(index + 2, (byte)(value >>> 8));
+		buffer.put(index + 3, (byte)value);
+	}
+	
+	/** Reads an int written on exactly 4 bytes, big endian */
+	public static int readFixedInt(ByteBuffer buffer)
+	{
+		return (buffer.get() & 0xFF) << 24 | (buffer.get() & 0xFF) << 16 | (buffer.get() & 0xFF) << 8 | (buffer.get() & 0xFF);
+	}
+	
+	/** Writes a long on exactly 8 bytes, big endian */
+	public static void writeFixedLong(ByteBuffer buffer, long value)
+	{
+		for(int shift = 56; shift >= 0; shift -= 8)
+			buffer.put((byte)(value >>> shift));
+	}
+	
+	/** Reads a long written on exactly 8 bytes, big endian */
+	public static long readFixedLong(ByteBuffer buffer)
+	{
+		long value = 0;
+		for(int i = 0; i < 8; i++)
+			value = value << 8 | (buffer.get() & 0xFF);
+		return value;
+	}
+	
+	/** Writes a length-prefixed byte array, null being written as length 0 */
+	public static void writeBytes(ByteBuffer buffer, byte[] bytes)
+	{
+		if(bytes == null)
+			writeVarInt(buffer, 0);
+		else
+		{
+			writeVarInt(buffer, bytes.length + 1);
+			buffer.put(bytes);
+		}
+	}
+	
+	/** Reads a length-prefixed byte array */
+	public static byte[] readBytes(ByteBuffer buffer)
+	{
+		int length = readVarInt(buffer) - 1;
+		if(length < 0)
+			return null;
+		
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+	
+	/** Writes a nullable UTF-8 string */
+	public static void writeString(ByteBuffer buffer, String value)
+	{
+		writeBytes(buffer, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/** Reads a nullable UTF-8 string */
+	public static String readString(ByteBuffer buffer)
+	{
+		byte[] bytes = readBytes(buffer);
+		return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+	}
+}
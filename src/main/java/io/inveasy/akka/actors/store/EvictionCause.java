@@ -0,0 +1,30 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.store;
+
+/**
+ * Reason why a yield has been dropped from the store before its reply came
+ */
+public enum EvictionCause
+{
+	/** The yield lived longer than the configured time to live */
+	EXPIRED,
+	/** The store was full, the oldest yield has been dropped to make room */
+	CAPACITY,
+	/** The timeout given to the yield elapsed, and the actor has no receiver for YieldTimeout */
+	TIMEOUT
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.store;
+
+import io.inveasy.akka.actors.collections.LongLongHashMap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Off-heap region holding encoded yields, indexed by their id<br>
+ * Entries are appended to direct memory segments, each made of the yield id, its timestamp, its length then its bytes<br>
+ * Segments whose entries have all been removed are recycled, and the ones mostly made of removed entries are compacted
+ * into the segment being written<br>
+ * Not thread-safe, it is meant to be used from its store only
+ */
+public class OffHeapYieldSpill
+{
+	/** Default size of the segments, 1 MiB */
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+	
+	private static final int ENTRY_HEADER = 8 + 8 + 4;
+	private static final int MAX_FREE_SEGMENTS = 4;
+	
+	private final int segmentSize;
+	private final LongLongHashMap index = new LongLongHashMap();
+	private final List<ByteBuffer> segments = new ArrayList<>();
+	private final ArrayDeque<ByteBuffer> freeSegments = new ArrayDeque<>();
+	private int[] liveBytes = new int[4];
+	private int[] writtenBytes = new int[4];
+	private int writeSegment = -1;
+	private long usedBytes;
+	
+	public OffHeapYieldSpill()
+	{
+		this(DEFAULT_SEGMENT_SIZE);
+	}
+	
+	/**
+	 * Creates a new spill
+	 * @param segmentSize The size of the direct memory segments, which bounds the size of an entry
+	 */
+	public OffHeapYieldSpill(int segmentSize)
+	{
+		if(segmentSize <= ENTRY_HEADER)
+			throw new IllegalArgumentException("Segments must be larger than " + ENTRY_HEADER + " bytes");
+		this.segmentSize = segmentSize;
+	}
+	
+	/**
+	 * Stores an encoded yield
+	 * @param yieldId The id of the yield
+	 * @param timestamp When the yield has been created, kept aside so that expiring it does not need decoding it
+	 * @param bytes The encoded yield
+	 * @return false when the entry is larger than a segment, and has not been stored
+	 */
+	public boolean put(long yieldId, long timestamp, byte[] bytes)
+	{
+		int length = ENTRY_HEADER + bytes.length;
+		if(length > segmentSize)
+			return false;
+		
+		remove(yieldId);
+		append(yieldId, timestamp, bytes, length);
+		return true;
+	}
+	
+	/** Tells whether the yield with this id is stored */
+	public boolean contains(long yieldId)
+	{
+		return index.containsKey(yieldId);
+	}
+	
+	/** Returns the timestamp of the yield with this id, which must be stored */
+	public long getTimestamp(long yieldId)
+	{
+		long location = index.get(yieldId);
+		if(location == LongLongHashMap.MISSING)
+			throw new IllegalArgumentException("Yield " + yieldId + " is not stored");
+		return segments.get(segmentOf(location)).getLong(offsetOf(location) + 8);
+	}
+	
+	/** Removes the yield with this id and returns its bytes, or null */
+	public byte[] remove(long yieldId)
+	{
+		long location = index.remove(yieldId);
+		if(location == LongLongHashMap.MISSING)
+			return null;
+		
+		int segment = segmentOf(location);
+		int offset = offsetOf(location);
+		ByteBuffer buffer = segments.get(segment).duplicate();
+		byte[] bytes = new byte[buffer.getInt(offset + 16)];
+		buffer.position(offset + ENTRY_HEADER);
+		buffer.get(bytes);
+		
+		release(segment, ENTRY_HEADER + bytes.length);
+		return bytes;
+	}
+	
+	/** Returns the number of yields stored */
+	public int size()
+	{
+		return index.size();
+	}
+	
+	/** Returns the number of bytes used by the stored yields */
+	public long getUsedBytes()
+	{
+		return usedBytes;
+	}
+	
+	/** Returns the number of bytes of direct memory held, including free space */
+	public long getReservedBytes()
+	{
+		long reserved = (long)freeSegments.size() * segmentSize;
+		for(ByteBuffer segment : segments)
+		{
+			if(segment != null)
+				reserved += segmentSize;
+		}
+		return reserved;
+	}
+	
+	private void append(long yieldId, long timestamp, byte[] bytes, int length)
+	{
+		if(writeSegment < 0 || writtenBytes[writeSegment] + length > segmentSize)
+			nextSegment();
+		
+		int offset = writtenBytes[writeSegment];
+		ByteBuffer segment = segments.get(writeSegment);
+		segment.putLong(offset, yieldId);
+		segment.putLong(offset + 8, timestamp);
+		segment.putInt(offset + 16, bytes.length);
+		ByteBuffer target = segment.duplicate();
+		target.position(offset + ENTRY_HEADER);
+		target.put(bytes);
+		
+		index.put(yieldId, location(writeSegment, offset));
+		writtenBytes[writeSegment] += length;
+		liveBytes[writeSegment] += length;
+		usedBytes += length;
+	}
+	
+	private void release(int segment, int length)
+	{
+		liveBytes[segment] -= length;
+		usedBytes -= length;
+		
+		if(segment == writeSegment)
+		{
+			// The segment being written is simply written again from its start once empty
+			if(liveBytes[segment] == 0)
+				writtenBytes[segment] = 0;
+		}
+		else if(liveBytes[segment] == 0)
+			recycle(segment);
+		else if(liveBytes[segment] < segmentSize / 4)
+			compact(segment);
+	}
+	
+	/** Moves the live entries of the segment to the segment being written, then recycles it */
+	private void compact(int segment)
+	{
+		ByteBuffer buffer = segments.get(segment);
+		for(int offset = 0; offset < writtenBytes[segment]; )
+		{
+			long yieldId = buffer.getLong(offset);
+			int length = buffer.getInt(offset + 16);
+			if(index.get(yieldId) == location(segment, offset))
+			{
+				byte[] bytes = new byte[length];
+				ByteBuffer source = buffer.duplicate();
+				source.position(offset + ENTRY_HEADER);
+				source.get(bytes);
+				append(yieldId, buffer.getLong(offset + 8), bytes, ENTRY_HEADER + length);
+				liveBytes[segment] -= ENTRY_HEADER + length;
+				usedBytes -= ENTRY_HEADER + length;
+			}
+			offset += ENTRY_HEADER + length;
+		}
+		
+		recycle(segment);
+	}
+	
+	private void recycle(int segment)
+	{
+		ByteBuffer buffer = segments.set(segment, null);
+		liveBytes[segment] = 0;
+		writtenBytes[segment] = 0;
+		
+		// A few free segments are kept, the other ones are left to the garbage collector
+		if(freeSegments.size() < MAX_FREE_SEGMENTS)
+			freeSegments.push(buffer);
+	}
+	
+	private void nextSegment()
+	{
+		ByteBuffer buffer = freeSegments.isEmpty() ? ByteBuffer.allocateDirect(segmentSize) : freeSegments.pop();
+		
+		int segment = segments.indexOf(null);
+		if(segment < 0)
+		{
+			segment = segments.size();
+			segments.add(buffer);
+			if(segment == liveBytes.length)
+			{
+				liveBytes = Arrays.copyOf(liveBytes, segment << 1);
+				writtenBytes = Arrays.copyOf(writtenBytes, segment << 1);
+			}
+		}
+		else
+			segments.set(segment, buffer);
+		
+		// The previous segment may be empty already
+		int previous = writeSegment;
+		writeSegment = segment;
+		if(previous >= 0 && liveBytes[previous] == 0)
+			recycle(previous);
+	}
+	
+	private static long location(int segment, int offset)
+	{
+		return ((long)segment << 32) | offset;
+	}
+	
+	private static int segmentOf(long location)
+	{
+		return (int)(location >>> 32);
+	}
+	
+	private static int offsetOf(long location)
+	{
+		return (int)location;
+	}
+}
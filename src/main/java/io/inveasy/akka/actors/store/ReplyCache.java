@@ -0,0 +1,212 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.store;
+
+import akka.actor.ActorRef;
+import io.inveasy.akka.actors.collections.LongObjectHashMap;
+import io.inveasy.akka.actors.domain.HeaderMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cache of the replies an actor sent to requests, keyed by their request id, so that they can be replayed to duplicates<br>
+ * It is bounded in size, and entries expire after a time to live<br>
+ * Ids are kept in creation order alongside the map, so evicting or expiring entries only visits the oldest ones<br>
+ * Not thread-safe, it is meant to be used from its actor only
+ */
+public class ReplyCache
+{
+	/** Replies recorded for a request */
+	public static final class Replies
+	{
+		private final long timestamp;
+		private final ActorRef requester;
+		private final List<Object> messages = new ArrayList<>(1);
+		private final List<HeaderMap> headers = new ArrayList<>(1);
+		private List<ActorRef> waiting;
+		private int inProgress;
+		
+		private Replies(long timestamp, ActorRef requester)
+		{
+			this.timestamp = timestamp;
+			this.requester = requester;
+		}
+		
+		/** Returns the sender of the request, messages sent to it being its replies */
+		public ActorRef getRequester()
+		{
+			return requester;
+		}
+		
+		/**
+		 * Records a reply
+		 * @param message The reply
+		 * @param headers The headers put by the actor for it, frozen
+		 */
+		public void add(Object message, HeaderMap headers)
+		{
+			this.messages.add(message);
+			this.headers.add(headers);
+		}
+		
+		/** Returns the number of replies recorded */
+		public int size()
+		{
+			return messages.size();
+		}
+		
+		/** Returns the reply at this index */
+		public Object getMessage(int index)
+		{
+			return messages.get(index);
+		}
+		
+		/** Returns the headers of the reply at this index */
+		public HeaderMap getHeaders(int index)
+		{
+			return headers.get(index);
+		}
+		
+		/** Tells that the request is being processed, until as many release() calls */
+		public void retain()
+		{
+			inProgress++;
+		}
+		
+		/** Tells that a part of the processing of the request is over, forgetting the waiting duplicates once it is all over */
+		public void release()
+		{
+			if(--inProgress == 0)
+				waiting = null;
+		}
+		
+		/** Tells whether the request is still being processed, so that more replies may come */
+		public boolean isInProgress()
+		{
+			return inProgress > 0;
+		}
+		
+		/** Adds the sender of a duplicate received while the request is in progress, to which the next replies are sent too */
+		public void await(ActorRef sender)
+		{
+			if(sender.equals(requester))
+				return;
+			if(waiting == null)
+				waiting = new ArrayList<>(1);
+			if(!waiting.contains(sender))
+				waiting.add(sender);
+		}
+		
+		/** Returns the senders of the duplicates waiting for the next replies */
+		public List<ActorRef> getWaiting()
+		{
+			return waiting == null ? Collections.emptyList() : waiting;
+		}
+	}
+	
+	private final LongObjectHashMap<Replies> entries = new LongObjectHashMap<>();
+	private final int capacity;
+	private final long timeToLive;
+	
+	// Ring of the ids in creation order, entries only leave the cache from its head
+	private long[] order = new long[16];
+	private int orderHead;
+	
+	/**
+	 * Creates a new cache
+	 * @param capacity The maximum number of requests whose replies are kept
+	 * @param timeToLive The time to live of the entries in nanoseconds, 0 or less meaning forever
+	 */
+	public ReplyCache(int capacity, long timeToLive)
+	{
+		if(capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+		
+		this.capacity = capacity;
+		this.timeToLive = timeToLive;
+	}
+	
+	/**
+	 * Returns the replies recorded for the request, or null when it has not been seen or its entry expired
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	public Replies get(long requestId, long now)
+	{
+		expire(now);
+		return entries.get(requestId);
+	}
+	
+	/**
+	 * Creates the entry of a request, evicting the oldest one when the cache is full
+	 * @param now The current time, as given by System.nanoTime()
+	 * @param requester The sender of the request
+	 * @return The entry, to record the replies in
+	 */
+	public Replies put(long requestId, long now, ActorRef requester)
+	{
+		expire(now);
+		Replies replies = new Replies(now, requester);
+		if(entries.put(requestId, replies) != null)
+			return replies;
+		
+		if(entries.size() > capacity)
+			entries.remove(popOrder());
+		pushOrder(requestId);
+		return replies;
+	}
+	
+	/** Returns the number of requests whose replies are kept */
+	public int size()
+	{
+		return entries.size();
+	}
+	
+	/** Drops the entries which have outlived their time to live, which are the oldest ones */
+	private void expire(long now)
+	{
+		if(timeToLive <= 0)
+			return;
+		
+		while(entries.size() > 0 && now - entries.get(order[orderHead]).timestamp >= timeToLive)
+			entries.remove(popOrder());
+	}
+	
+	private long popOrder()
+	{
+		long requestId = order[orderHead];
+		orderHead = (orderHead + 1) & (order.length - 1);
+		return requestId;
+	}
+	
+	private void pushOrder(long requestId)
+	{
+		// Ids are in the ring as long as their entry is in the map
+		int size = entries.size() - 1;
+		if(size == order.length)
+		{
+			long[] grown = new long[order.length << 1];
+			for(int i = 0; i < size; i++)
+				grown[i] = order[(orderHead + i) & (order.length - 1)];
+			order = grown;
+			orderHead = 0;
+		}
+		
+		order[(orderHead + size) & (order.length - 1)] = requestId;
+	}
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.store;
+
+import io.inveasy.akka.actors.AbstractYieldActor.Yield;
+import io.inveasy.akka.actors.collections.LongObjectHashMap;
+
+import java.util.function.Consumer;
+
+/**
+ * Store of the in-flight yields of an actor, keyed by their correlation id<br>
+ * It is bounded in size, and yields can expire after a time to live<br>
+ * Ids are kept in creation order alongside the map, so evicting or expiring yields only visits the oldest ones<br>
+ * Above a number of yields on heap, the oldest ones can be spilled off-heap, and are decoded back when they are needed<br>
+ * Not thread-safe, it is meant to be used from its actor only
+ */
+public class YieldStore
+{
+	/** Called when a yield is dropped before its reply came */
+	@FunctionalInterface
+	public interface EvictionListener
+	{
+		void onEvicted(Yield yield, EvictionCause cause);
+	}
+	
+	private final LongObjectHashMap<Yield> yields = new LongObjectHashMap<>();
+	private final int maxInFlight;
+	private final long timeToLive;
+	private final EvictionListener listener;
+	private final int maxOnHeap;
+	private final YieldCodec codec;
+	private final OffHeapYieldSpill spill;
+	
+	// Ring of the ids in creation order, ids whose yield has already been removed are skipped lazily
+	private long[] order = new long[16];
+	private int orderHead;
+	private int orderSize;
+	
+	// Number of ids at the head of the ring already considered for spilling
+	private int spillCursor;
+	
+	/**
+	 * Creates a new store
+	 * @param maxInFlight The maximum number of yields stored at once
+	 * @param timeToLive The time to live of the yields in nanoseconds, 0 or less meaning forever
+	 * @param listener Called when yields are evicted or expire
+	 */
+	public YieldStore(int maxInFlight, long timeToLive, EvictionListener listener)
+	{
+		this(maxInFlight, timeToLive, listener, Integer.MAX_VALUE, null, null);
+	}
+	
+	/**
+	 * Creates a new store spilling its oldest yields off-heap
+	 * @param maxInFlight The maximum number of yields stored at once
+	 * @param timeToLive The time to live of the yields in nanoseconds, 0 or less meaning forever
+	 * @param listener Called when yields are evicted or expire
+	 * @param maxOnHeap The number of yields kept on heap, above which the oldest ones are spilled
+	 * @param codec Encodes the spilled yields, those it cannot encode stay on heap
+	 * @param spill Where the spilled yields are stored
+	 */
+	public YieldStore(int maxInFlight, long timeToLive, EvictionListener listener, int maxOnHeap, YieldCodec codec, OffHeapYieldSpill spill)
+	{
+		if(maxInFlight <= 0)
+			throw new IllegalArgumentException("maxInFlight must be positive");
+		if(spill != null && (codec == null || maxOnHeap < 0))
+			throw new IllegalArgumentException("Spilling yields needs a codec and a positive number of yields on heap");
+		
+		this.maxInFlight = maxInFlight;
+		this.timeToLive = timeToLive;
+		this.listener = listener;
+		this.maxOnHeap = maxOnHeap;
+		this.codec = codec;
+		this.spill = spill;
+	}
+	
+	/** Stores a yield, evicting the oldest one when the store is full */
+	public void put(long yieldId, Yield yield)
+	{
+		if(size() >= maxInFlight && !contains(yieldId))
+		{
+			Yield evicted = pollOldest();
+			if(evicted != null)
+				listener.onEvicted(evicted, EvictionCause.CAPACITY);
+		}
+		
+		if(yields.put(yieldId, yield) == null && (spill == null || spill.remove(yieldId) == null))
+			pushOrder(yieldId);
+		
+		if(spill != null && yields.size() > maxOnHeap)
+			spillOldest();
+	}
+	
+	/** Returns the yield with this id, or null, bringing it back on heap if it was spilled */
+	public Yield get(long yieldId)
+	{
+		Yield yield = yields.get(yieldId);
+		if(yield == null && spill != null)
+		{
+			yield = unspill(yieldId);
+			if(yield != null)
+				yields.put(yieldId, yield);
+		}
+		return yield;
+	}
+	
+	/** Removes the yield with this id and returns it, or null */
+	public Yield remove(long yieldId)
+	{
+		Yield yield = yields.remove(yieldId);
+		if(yield == null && spill != null)
+			yield = unspill(yieldId);
+		return yield;
+	}
+	
+	/** Returns the number of yields in flight */
+	public int size()
+	{
+		return spill == null ? yields.size() : yields.size() + spill.size();
+	}
+	
+	/** Returns the number of yields in flight held on heap */
+	public int getHeapSize()
+	{
+		return yields.size();
+	}
+	
+	/** Calls the action for each yield in flight held on heap, in no particular order */
+	public void forEachOnHeap(Consumer<Yield> action)
+	{
+		yields.forEach((yieldId, yield) -> action.accept(yield));
+	}
+	
+	/** Returns the number of yields in flight spilled off-heap */
+	public int getOffHeapSize()
+	{
+		return spill == null ? 0 : spill.size();
+	}
+	
+	/** Returns the number of bytes used by the yields spilled off-heap */
+	public long getOffHeapBytes()
+	{
+		return spill == null ? 0 : spill.getUsedBytes();
+	}
+	
+	/** Returns the number of bytes of direct memory held to spill yields, including free space */
+	public long getOffHeapReservedBytes()
+	{
+		return spill == null ? 0 : spill.getReservedBytes();
+	}
+	
+	/** Tells whether yields of this store expire */
+	public boolean isExpiring()
+	{
+		return timeToLive > 0;
+	}
+	
+	/**
+	 * Drops the yields which have outlived their time to live
+	 * @param now The current time, as given by System.nanoTime()
+	 * @return The number of expired yields
+	 */
+	public int sweep(long now)
+	{
+		if(!isExpiring())
+			return 0;
+		
+		int expired = 0;
+		while(orderSize > 0)
+		{
+			long yieldId = order[orderHead];
+			Yield yield = yields.get(yieldId);
+			boolean spilled = yield == null && spill != null && spill.contains(yieldId);
+			
+			// Yields are ordered by creation, the first one still alive ends the sweep
+			if(yield != null && now - yield.getTimestamp() < timeToLive)
+				break;
+			if(spilled && now - spill.getTimestamp(yieldId) < timeToLive)
+				break;
+			
+			popOrder();
+			if(yield != null || spilled)
+			{
+				listener.onEvicted(remove(yieldId), EvictionCause.EXPIRED);
+				expired++;
+			}
+		}
+		
+		return expired;
+	}
+	
+	/** Removes and returns the oldest yield still in flight, or null */
+	private Yield pollOldest()
+	{
+		while(orderSize > 0)
+		{
+			Yield yield = remove(popOrder());
+			if(yield != null)
+				return yield;
+		}
+		return null;
+	}
+	
+	private boolean contains(long yieldId)
+	{
+		return yields.containsKey(yieldId) || (spill != null && spill.contains(yieldId));
+	}
+	
+	/** Spills the oldest yields on heap, until few enough are left or none can be spilled */
+	private void spillOldest()
+	{
+		while(yields.size() > maxOnHeap && spillCursor < orderSize)
+		{
+			long yieldId = order[(orderHead + spillCursor++) & (order.length - 1)];
+			Yield yield = yields.get(yieldId);
+			if(yield == null)
+				continue;
+			
+			byte[] bytes = codec.encode(yield);
+			if(bytes != null && spill.put(yieldId, yield.getTimestamp(), bytes))
+				yields.remove(yieldId);
+		}
+	}
+	
+	private Yield unspill(long yieldId)
+	{
+		byte[] bytes = spill.remove(yieldId);
+		return bytes == null ? null : codec.decode(bytes);
+	}
+	
+	private long popOrder()
+	{
+		long yieldId = order[orderHead];
+		orderHead = (orderHead + 1) & (order.length - 1);
+		orderSize--;
+		if(spillCursor > 0)
+			spillCursor--;
+		return yieldId;
+	}
+	
+	private void pushOrder(long yieldId)
+	{
+		if(orderSize == order.length)
+		{
+			// Most ids are stale when yields are answered out of order, drop them rather than growing
+			if(orderSize >= 2 * size())
+				compactOrder();
+			else
+				growOrder();
+		}
+		
+		order[(orderHead + orderSize) & (order.length - 1)] = yieldId;
+		orderSize++;
+	}
+	
+	private void compactOrder()
+	{
+		// The cursor moves back by the stale ids dropped before it, so that yields left on heap are not considered again
+		int live = 0;
+		int cursor = 0;
+		for(int i = 0; i < orderSize; i++)
+		{
+			long yieldId = order[(orderHead + i) & (order.length - 1)];
+			if(!contains(yieldId))
+				continue;
+			order[(orderHead + live++) & (order.length - 1)] = yieldId;
+			if(i < spillCursor)
+				cursor++;
+		}
+		orderSize = live;
+		spillCursor = cursor;
+	}
+	
+	private void growOrder()
+	{
+		long[] grown = new long[order.length << 1];
+		for(int i = 0; i < orderSize; i++)
+			grown[i] = order[(orderHead + i) & (order.length - 1)];
+		order = grown;
+		orderHead = 0;
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.timer;
+
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import com.typesafe.config.Config;
+import io.inveasy.akka.actors.messages.TimerBatch;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed timing wheel shared by the actors of a system, driven by a single task of the system scheduler<br>
+ * Timers are put in the bucket of the tick they expire at, with the number of turns of the wheel left before then,
+ * so that adding, cancelling and expiring them cost the same whatever the number of timers<br>
+ * Timers are only precise to the tick, configured by inveasy.akka-actors.timing-wheel
+ * @see TimingWheelExtension
+ */
+public final class TimingWheel implements Extension
+{
+	private final long tickNanos;
+	private final int mask;
+	private final WheelTimer[] buckets;
+	private final long startNanos;
+	private final AtomicLong ids = new AtomicLong();
+	private final Queue<WheelTimer> added = new ConcurrentLinkedQueue<>();
+	private final Queue<WheelTimer> cancelled = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean advancing = new AtomicBoolean();
+	private final Cancellable driver;
+	
+	// Next tick to process, owned by the thread advancing the wheel
+	private long tick;
+	
+	TimingWheel(ExtendedActorSystem system)
+	{
+		Config config = system.settings().config().getConfig("inveasy.akka-actors.timing-wheel");
+		tickNanos = Math.max(1, config.getDuration("tick-duration", TimeUnit.NANOSECONDS));
+		int wheelSize = Integer.highestOneBit(Math.max(2, config.getInt("wheel-size")) * 2 - 1);
+		mask = wheelSize - 1;
+		buckets = new WheelTimer[wheelSize];
+		startNanos = System.nanoTime();
+		tick = 1;
+		
+		Duration tickDuration = Duration.ofNanos(tickNanos);
+		driver = system.scheduler().schedule(tickDuration, tickDuration, this::advance, system.dispatcher());
+		system.registerOnTermination((Runnable)driver::cancel);
+	}
+	
+	/////////////////// Schedule Message ////////////////////
+	/** Sends the message to the target once, after delay */
+	public Cancellable scheduleOnce(Duration delay, ActorRef target, Object message, ActorRef sender)
+	{
+		return add(new WheelTimer(this, ids.incrementAndGet(), deadline(delay), 0, target, message, sender, false));
+	}
+	
+	/** Sends the message to the target every interval, sending first message after initialDelay */
+	public Cancellable schedule(Duration initialDelay, Duration interval, ActorRef target, Object message, ActorRef sender)
+	{
+		return add(new WheelTimer(this, ids.incrementAndGet(), deadline(initialDelay), ticks(interval), target, message, sender, false));
+	}
+	
+	/**
+	 * Sends the message to an AbstractSchedulerActor once, after delay, sender being the actor itself<br>
+	 * Messages of the timers of an actor expiring together are sent to it in a single TimerBatch
+	 */
+	public Cancellable scheduleOnceToSelf(Duration delay, ActorRef self, Object message)
+	{
+		return add(new WheelTimer(this, ids.incrementAndGet(), deadline(delay), 0, self, message, self, true));
+	}
+	
+	/**
+	 * Sends the message to an AbstractSchedulerActor every interval, sending first message after initialDelay, sender being the actor itself<br>
+	 * Messages of the timers of an actor expiring together are sent to it in a single TimerBatch
+	 */
+	public Cancellable scheduleToSelf(Duration initialDelay, Duration interval, ActorRef self, Object message)
+	{
+		return add(new WheelTimer(this, ids.incrementAndGet(), deadline(initialDelay), ticks(interval), self, message, self, true));
+	}
+	
+	/////////////////// Schedule Runnable ////////////////////
+	/** Runs the runnable on the executor once, after delay */
+	public Cancellable scheduleOnce(Duration delay, Runnable runnable, Executor executor)
+	{
+		return add(new WheelTimer(this, ids.incrementAndGet(), deadline(delay), 0, runnable, executor));
+	}
+	
+	/** Runs the runnable on the executor every interval, first run being after initialDelay */
+	public Cancellable schedule(Duration initialDelay, Duration interval, Runnable runnable, Executor executor)
+	{
+		return add(new WheelTimer(this, ids.incrementAndGet(), deadline(initialDelay), ticks(interval), runnable, executor));
+	}
+	
+	//////////////////// Wheel ////////////////////
+	private long deadline(Duration delay)
+	{
+		return System.nanoTime() + Math.max(0, delay.toNanos());
+	}
+	
+	private long ticks(Duration interval)
+	{
+		return Math.max(1, (interval.toNanos() + tickNanos - 1) / tickNanos);
+	}
+	
+	private Cancellable add(WheelTimer timer)
+	{
+		added.add(timer);
+		return timer;
+	}
+	
+	void cancelled(WheelTimer timer)
+	{
+		cancelled.add(timer);
+	}
+	
+	/** Processes the ticks elapsed since last time, timers added or cancelled meanwhile first */
+	private void advance()
+	{
+		// The scheduler may run this again before the previous run is over, the late one catches up next tick
+		if(!advancing.compareAndSet(false, true))
+			return;
+		
+		try
+		{
+			for(WheelTimer timer = cancelled.poll(); timer != null; timer = cancelled.poll())
+				unlink(timer);
+			
+			for(WheelTimer timer = added.poll(); timer != null; timer = added.poll())
+			{
+				if(!timer.isCancelled())
+				{
+					long deadlineTick = (timer.deadlineNanos - startNanos + tickNanos - 1) / tickNanos;
+					insert(timer, Math.max(tick, deadlineTick), tick);
+				}
+			}
+			
+			Map<ActorRef, List<Object>> batches = new HashMap<>();
+			long lastTick = (System.nanoTime() - startNanos) / tickNanos;
+			for(; tick <= lastTick; tick++)
+				expire(tick, batches);
+			
+			batches.forEach((target, messages) ->
+					target.tell(messages.size() == 1 ? messages.get(0) : new TimerBatch(messages), target));
+		}
+		finally
+		{
+			advancing.set(false);
+		}
+	}
+	
+	private void expire(long currentTick, Map<ActorRef, List<Object>> batches)
+	{
+		int index = (int)(currentTick & mask);
+		WheelTimer timer = buckets[index];
+		buckets[index] = null;
+		
+		while(timer != null)
+		{
+			WheelTimer next = timer.next;
+			timer.previous = null;
+			timer.next = null;
+			timer.bucket = -1;
+			
+			if(timer.remainingRounds > 0)
+			{
+				timer.remainingRounds--;
+				link(timer, index);
+			}
+			else if(timer.expire())
+			{
+				fire(timer, batches);
+				if(timer.intervalTicks > 0)
+					insert(timer, currentTick + timer.intervalTicks, currentTick + 1);
+			}
+			timer = next;
+		}
+	}
+	
+	private void fire(WheelTimer timer, Map<ActorRef, List<Object>> batches)
+	{
+		if(timer.runnable != null)
+		{
+			try
+			{
+				timer.executor.execute(timer.runnable);
+			}
+			catch(RejectedExecutionException e)
+			{
+				// Executor is shutting down, along with the system
+			}
+		}
+		else if(timer.batched)
+			batches.computeIfAbsent(timer.target, target -> new ArrayList<>(2)).add(timer.message);
+		else
+			timer.target.tell(timer.message, timer.sender);
+	}
+	
+	/** Puts the timer in the bucket of its deadline, with the turns of the wheel left before nextTick reaches it */
+	private void insert(WheelTimer timer, long deadlineTick, long nextTick)
+	{
+		timer.remainingRounds = (deadlineTick - nextTick) / buckets.length;
+		link(timer, (int)(deadlineTick & mask));
+	}
+	
+	private void link(WheelTimer timer, int index)
+	{
+		WheelTimer head = buckets[index];
+		timer.next = head;
+		if(head != null)
+			head.previous = timer;
+		buckets[index] = timer;
+		timer.bucket = index;
+	}
+	
+	private void unlink(WheelTimer timer)
+	{
+		if(timer.bucket < 0)
+			return;
+		
+		if(timer.previous != null)
+			timer.previous.next = timer.next;
+		else
+			buckets[timer.bucket] = timer.next;
+		if(timer.next != null)
+			timer.next.previous = timer.previous;
+		
+		timer.previous = null;
+		timer.next = null;
+		timer.bucket = -1;
+	}
+}
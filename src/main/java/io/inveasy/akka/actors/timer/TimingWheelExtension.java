@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.timer;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.ExtensionIdProvider;
+
+/**
+ * Gives access to the timing wheel shared by the actors of a system
+ */
+public class TimingWheelExtension extends AbstractExtensionId<TimingWheel> implements ExtensionIdProvider
+{
+	public static final TimingWheelExtension INSTANCE = new TimingWheelExtension();
+	
+	private TimingWheelExtension()
+	{
+	}
+	
+	@Override
+	public TimingWheel createExtension(ExtendedActorSystem system)
+	{
+		return new TimingWheel(system);
+	}
+	
+	@Override
+	public TimingWheelExtension lookup()
+	{
+		return INSTANCE;
+	}
+}
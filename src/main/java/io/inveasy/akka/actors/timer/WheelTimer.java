@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.timer;
+
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Timer of the timing wheel<br>
+ * Its links and rounds are only touched by the thread advancing the wheel, its state by anyone cancelling it
+ */
+final class WheelTimer implements Cancellable
+{
+	private static final int PENDING = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+	private static final AtomicIntegerFieldUpdater<WheelTimer> STATE = AtomicIntegerFieldUpdater.newUpdater(WheelTimer.class, "state");
+	
+	final TimingWheel wheel;
+	final long id;
+	final long deadlineNanos;
+	final long intervalTicks;
+	final ActorRef target;
+	final Object message;
+	final ActorRef sender;
+	final boolean batched;
+	final Runnable runnable;
+	final Executor executor;
+	
+	private volatile int state;
+	
+	// Owned by the thread advancing the wheel
+	long remainingRounds;
+	int bucket = -1;
+	WheelTimer previous;
+	WheelTimer next;
+	
+	WheelTimer(TimingWheel wheel, long id, long deadlineNanos, long intervalTicks, ActorRef target, Object message, ActorRef sender, boolean batched)
+	{
+		this.wheel = wheel;
+		this.id = id;
+		this.deadlineNanos = deadlineNanos;
+		this.intervalTicks = intervalTicks;
+		this.target = target;
+		this.message = message;
+		this.sender = sender;
+		this.batched = batched;
+		this.runnable = null;
+		this.executor = null;
+	}
+	
+	WheelTimer(TimingWheel wheel, long id, long deadlineNanos, long intervalTicks, Runnable runnable, Executor executor)
+	{
+		this.wheel = wheel;
+		this.id = id;
+		this.deadlineNanos = deadlineNanos;
+		this.intervalTicks = intervalTicks;
+		this.target = null;
+		this.message = null;
+		this.sender = null;
+		this.batched = false;
+		this.runnable = runnable;
+		this.executor = executor;
+	}
+	
+	/** Returns the handle of this timer, unique within its wheel */
+	public long getId()
+	{
+		return id;
+	}
+	
+	@Override
+	public boolean cancel()
+	{
+		if(!STATE.compareAndSet(this, PENDING, CANCELLED))
+			return false;
+		
+		wheel.cancelled(this);
+		return true;
+	}
+	
+	@Override
+	public boolean isCancelled()
+	{
+		return state == CANCELLED;
+	}
+	
+	/** Marks a single shot timer as expired, fails if it has been cancelled */
+	boolean expire()
+	{
+		return intervalTicks > 0 ? state == PENDING : STATE.compareAndSet(this, PENDING, EXPIRED);
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.inveasy.akka.actors.tracing;
+
+/**
+ * Span of a sampled hop : the time an actor spent between receiving a traced message and sending the next one
+ */
+public final class Span
+{
+	private final long traceId;
+	private final long spanId;
+	private final long parentSpanId;
+	private final String actor;
+	private final long startMillis;
+	private final long durationNanos;
+	
+	public Span(long traceId, long spanId, long parentSpanId, String actor, long startMillis, long durationNanos)
+	{
+		this.traceId = traceId;
+		this.spanId = spanId;
+		this.parentSpanId = parentSpanId;
+		this.actor = actor;
+		this.startMillis = startMillis;
+		this.durationNanos = durationNanos;
+	}
+	
+	/** Returns the id of the trace, shared by every hop of the chain */
+	public long getTraceId()
+	{
+		return traceId;
+	}
+	
+	/** Returns the id of this span, given to the messages sent by the hop */
+	public long getSpanId()
+	{
+		return spanId;
+	}
+	
+	/** Returns the id of the span which sent the message received by the hop */
+	public long getParentSpanId()
+	{
+		return parentSpanId;
+	}
+	
+	/** Returns the path of the actor, null when it is not known */
+	public String getActor()
+	{
+		return actor;
+	}
+	
+	/** Returns when the message was received, in milliseconds since the epoch */
+	public long getStartMillis()
+	{
+		return startMillis;
+	}
+	
+	/** Returns the time between the reception of the message and the first send */
+	public long getDurationNanos()
+	{
+		return durationNanos;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return Long.toHexString(traceId) + '/' + Long.toHexString(parentSpanId) + '>' + Long.toHexString(spanId) + ' ' + actor + ' ' + durationNanos + "ns";
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.inveasy.akka.actors.tracing;
+
+import java.util.List;
+
+/**
+ * Receives the recorded spans, drained from the span buffer by a background thread
+ * @see Tracing#setExporter(SpanExporter, java.time.Duration)
+ */
+@FunctionalInterface
+public interface SpanExporter
+{
+	/**
+	 * Exports a batch of spans, the list is only valid during the call
+	 * @param spans The spans, in the order they were recorded
+	 */
+	void export(List<Span> spans);
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.inveasy.akka.actors.tracing;
+
+import io.inveasy.akka.actors.collections.RingBuffer;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded lock-free ring buffer of spans, written by the actors and drained by the exporter<br>
+ * Spans offered while the buffer is full are dropped rather than blocking the actor
+ */
+public final class SpanRingBuffer extends RingBuffer<Span>
+{
+	private final LongAdder dropped = new LongAdder();
+	
+	/**
+	 * Creates an empty buffer
+	 * @param capacity The number of spans it holds, rounded up to a power of two
+	 */
+	public SpanRingBuffer(int capacity)
+	{
+		super(capacity);
+	}
+	
+	/**
+	 * Adds a span to the buffer
+	 * @return False when the buffer is full and the span has been dropped
+	 */
+	@Override
+	public boolean offer(Span span)
+	{
+		if(super.offer(span))
+			return true;
+		dropped.increment();
+		return false;
+	}
+	
+	/**
+	 * Moves the oldest spans to the target collection
+	 * @param max The maximum number of spans to move
+	 * @return The number of spans moved
+	 */
+	public int drainTo(Collection<? super Span> target, int max)
+	{
+		int count = 0;
+		Span span;
+		while(count < max && (span = poll()) != null)
+		{
+			target.add(span);
+			count++;
+		}
+		return count;
+	}
+	
+	/** Returns the number of spans dropped because the buffer was full */
+	public long getDropped()
+	{
+		return dropped.sum();
+	}
+}
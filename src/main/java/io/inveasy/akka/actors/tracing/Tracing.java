@@ -0,0 +1,202 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.inveasy.akka.actors.tracing;
+
+import akka.actor.ActorRef;
+import io.inveasy.akka.actors.domain.TraceHeader;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the spans of the sampled hops, and hands them to the exporter<br>
+ * A hop starts when an actor receives a sampled TraceHeader, and ends when it sends its first message :
+ * its span is then written to a bounded buffer, drained by a background thread into the exporter<br>
+ * The share of traces sampled is read from the system property inveasy.akka-actors.tracing.sample-rate (0 by default),
+ * and the size of the buffer from inveasy.akka-actors.tracing.buffer-size (8192 by default)
+ * @see TraceHeader
+ */
+public final class Tracing
+{
+	private static final int EXPORT_BATCH_SIZE = 512;
+	
+	private static final SpanRingBuffer BUFFER = new SpanRingBuffer(Integer.getInteger("inveasy.akka-actors.tracing.buffer-size", 8192));
+	private static final ThreadLocal<Hop> HOPS = ThreadLocal.withInitial(Hop::new);
+	private static final LongAdder EXPORT_FAILURES = new LongAdder();
+	
+	private static volatile double sampleRate = Double.parseDouble(System.getProperty("inveasy.akka-actors.tracing.sample-rate", "0"));
+	private static ScheduledExecutorService exportExecutor;
+	
+	private Tracing()
+	{
+	}
+	
+	/** Returns the share of the new traces which are sampled, from 0 to 1 */
+	public static double getSampleRate()
+	{
+		return sampleRate;
+	}
+	
+	/** Sets the share of the new traces which are sampled, from 0 to 1 */
+	public static void setSampleRate(double sampleRate)
+	{
+		if(sampleRate < 0 || sampleRate > 1)
+			throw new IllegalArgumentException("Sample rate must be between 0 and 1");
+		Tracing.sampleRate = sampleRate;
+	}
+	
+	/** Tells whether a new trace should be sampled, according to the sample rate */
+	public static boolean sample()
+	{
+		double rate = sampleRate;
+		return rate > 0 && (rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate);
+	}
+	
+	/** Returns a new random id for a trace or a span, never 0 */
+	public static long newId()
+	{
+		long id;
+		do
+			id = ThreadLocalRandom.current().nextLong();
+		while(id == 0);
+		return id;
+	}
+	
+	/** Returns the buffer the spans are recorded into */
+	public static SpanRingBuffer getBuffer()
+	{
+		return BUFFER;
+	}
+	
+	/** Returns the number of batches the exporter failed to export */
+	public static long getExportFailures()
+	{
+		return EXPORT_FAILURES.sum();
+	}
+	
+	/**
+	 * Sets the exporter of the spans, replacing the previous one<br>
+	 * It is called from a single background thread, with the spans recorded since its previous call
+	 * @param exporter The exporter, null to stop exporting : spans are then dropped once the buffer is full
+	 * @param interval The delay between two drains of the buffer
+	 */
+	public static synchronized void setExporter(SpanExporter exporter, Duration interval)
+	{
+		if(exportExecutor != null)
+		{
+			exportExecutor.shutdown();
+			exportExecutor = null;
+		}
+		if(exporter == null)
+			return;
+		
+		exportExecutor = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "inveasy-span-exporter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long nanos = interval.toNanos();
+		exportExecutor.scheduleWithFixedDelay(() -> export(exporter), nanos, nanos, TimeUnit.NANOSECONDS);
+	}
+	
+	private static void export(SpanExporter exporter)
+	{
+		List<Span> batch = new ArrayList<>(EXPORT_BATCH_SIZE);
+		List<Span> view = Collections.unmodifiableList(batch);
+		while(BUFFER.drainTo(batch, EXPORT_BATCH_SIZE) > 0)
+		{
+			try
+			{
+				exporter.export(view);
+			}
+			catch(RuntimeException e)
+			{
+				// The batch is lost, but the next ones must still be exported
+				EXPORT_FAILURES.increment();
+			}
+			batch.clear();
+		}
+	}
+	
+	//////////////////// Hops ////////////////////
+	/** Starts the hop of a sampled header, called when the current thread receives it */
+	public static void hopStarted(TraceHeader header)
+	{
+		Hop hop = HOPS.get();
+		hop.header = header;
+		hop.actor = null;
+		hop.spanId = newId();
+		hop.next = null;
+		hop.recorded = false;
+		hop.startMillis = System.currentTimeMillis();
+		hop.startNanos = System.nanoTime();
+	}
+	
+	/** Tells which actor the hop started on the current thread runs in */
+	public static void hopActor(ActorRef actor)
+	{
+		Hop hop = HOPS.get();
+		if(hop.header != null && hop.actor == null)
+			hop.actor = actor;
+	}
+	
+	/** Ends the hop of a sampled header when the current thread sends its first message, recording its span */
+	public static void hopSending(TraceHeader header)
+	{
+		Hop hop = HOPS.get();
+		if(hop.header != header || hop.recorded)
+			return;
+		
+		hop.recorded = true;
+		long duration = System.nanoTime() - hop.startNanos;
+		String actor = hop.actor == null ? null : hop.actor.path().toString();
+		BUFFER.offer(new Span(header.getTraceId(), hop.spanId, header.getSpanId(), actor, hop.startMillis, duration));
+	}
+	
+	/** Returns the header to send in place of a sampled header, carrying the span of its hop on the current thread */
+	public static TraceHeader nextHop(TraceHeader header)
+	{
+		Hop hop = HOPS.get();
+		if(hop.header != header)
+			return header;
+		
+		if(hop.next == null)
+			hop.next = new TraceHeader(header.getTraceId(), hop.spanId, true);
+		return hop.next;
+	}
+	
+	/** Hop started on a thread, reused for the next ones */
+	private static final class Hop
+	{
+		private TraceHeader header;
+		private ActorRef actor;
+		private long spanId;
+		private TraceHeader next;
+		private boolean recorded;
+		private long startMillis;
+		private long startNanos;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.javadsl.TestKit;
+import io.inveasy.akka.actors.domain.AbstractHeader;
+import io.inveasy.akka.actors.messages.HeaderMessage;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AbstractHeaderActorTest
+{
+	private static ActorSystem system;
+	
+	@BeforeClass
+	public static void setUp()
+	{
+		system = ActorSystem.create("AbstractHeaderActorTest");
+	}
+	
+	@AfterClass
+	public static void tearDown()
+	{
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+	
+	/** Passthru header replaced by a new span for each hop */
+	public static class SpanHeader extends AbstractHeader
+	{
+		private static final AtomicInteger SPANS = new AtomicInteger();
+		
+		private final int span;
+		
+		public SpanHeader(int span)
+		{
+			super(true, null);
+			this.span = span;
+		}
+		
+		@Override
+		public void preProcess()
+		{
+			// Nothing to do
+		}
+		
+		@Override
+		public void postProcess()
+		{
+			// Nothing to do
+		}
+		
+		@Override
+		public AbstractHeader nextHop()
+		{
+			return new SpanHeader(SPANS.incrementAndGet());
+		}
+	}
+	
+	/** Sends two messages to the probe, then tells whether its own headers hold the span */
+	public static class Sender extends AbstractHeaderActor
+	{
+		private final ActorRef probe;
+		
+		public Sender(ActorRef probe)
+		{
+			this.probe = probe;
+		}
+		
+		@Override
+		public Receive createReceive()
+		{
+			return receiveBuilder().matchEquals("go", go ->
+			{
+				tell(probe, "one");
+				tell(probe, "two");
+				tell(probe, headers.containsKey("span"));
+			}).build();
+		}
+	}
+	
+	@Test
+	public void nextHopHeadersAreOnlyPutInTheSentMessage()
+	{
+		TestKit probe = new TestKit(system);
+		ActorRef sender = system.actorOf(Props.create(Sender.class, probe.getRef()));
+		sender.tell(new HeaderMessage(Collections.singletonMap("span", new SpanHeader(0)), "go"), ActorRef.noSender());
+		
+		SpanHeader one = (SpanHeader)probe.expectMsgClass(Duration.ofSeconds(2), HeaderMessage.class).getHeaders().get("span");
+		SpanHeader two = (SpanHeader)probe.expectMsgClass(Duration.ofSeconds(2), HeaderMessage.class).getHeaders().get("span");
+		assertNotEquals(0, one.span);
+		assertNotEquals(one.span, two.span);
+		assertEquals(false, probe.expectMsgClass(Duration.ofSeconds(2), HeaderMessage.class).getOriginalMessage());
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.javadsl.TestKit;
+import io.inveasy.akka.actors.annotations.YieldReceiver;
+import io.inveasy.akka.actors.domain.RequestIdHeader;
+import io.inveasy.akka.actors.messages.HeaderMessage;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class IdempotencyTest
+{
+	private static ActorSystem system;
+	
+	@BeforeClass
+	public static void setUp()
+	{
+		system = ActorSystem.create("IdempotencyTest");
+	}
+	
+	@AfterClass
+	public static void tearDown()
+	{
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+	
+	/** Replies to each request with the answer of the downstream actor */
+	public static class Service extends AbstractYieldActor
+	{
+		private final ActorRef downstream;
+		
+		public Service(ActorRef downstream)
+		{
+			this.downstream = downstream;
+		}
+		
+		@Override
+		protected int getIdempotencyCacheSize()
+		{
+			return 10;
+		}
+		
+		@YieldReceiver(expectedMessageType = Integer.class)
+		void request(Integer request)
+		{
+			this.yield(String.class, (answer, yield) ->
+			{
+				headers.putAll(yield.getRequestHeaders());
+				tell(yield.getOriginalSender(), answer);
+			});
+			tell(downstream, "work " + request);
+		}
+	}
+	
+	@Test
+	public void duplicatesInProgressAreGivenTheReplies()
+	{
+		TestKit downstream = new TestKit(system);
+		TestKit first = new TestKit(system);
+		TestKit duplicate = new TestKit(system);
+		ActorRef service = system.actorOf(Props.create(Service.class, downstream.getRef()));
+		
+		service.tell(request(1, 7), first.getRef());
+		HeaderMessage work = downstream.expectMsgClass(HeaderMessage.class);
+		
+		// The duplicate comes while the downstream actor still works, it is not processed again
+		service.tell(request(1, 7), duplicate.getRef());
+		service.tell(request(1, 7), first.getRef());
+		downstream.expectNoMessage(Duration.ofMillis(100));
+		
+		downstream.getLastSender().tell(new HeaderMessage(work.getHeaders(), "done"), downstream.getRef());
+		assertEquals("done", payload(first.receiveOne(Duration.ofSeconds(2))));
+		assertEquals("done", payload(duplicate.receiveOne(Duration.ofSeconds(2))));
+		first.expectNoMessage(Duration.ofMillis(100));
+		
+		// Later duplicates are replayed the recorded replies
+		TestKit late = new TestKit(system);
+		service.tell(request(1, 7), late.getRef());
+		assertEquals("done", payload(late.receiveOne(Duration.ofSeconds(2))));
+		downstream.expectNoMessage(Duration.ofMillis(100));
+	}
+	
+	@Test
+	public void requestsWithOtherIdsAreProcessed()
+	{
+		TestKit downstream = new TestKit(system);
+		TestKit client = new TestKit(system);
+		ActorRef service = system.actorOf(Props.create(Service.class, downstream.getRef()));
+		
+		service.tell(request(1, 1), client.getRef());
+		service.tell(request(2, 2), client.getRef());
+		
+		assertEquals("work 1", payload(downstream.receiveOne(Duration.ofSeconds(2))));
+		assertEquals("work 2", payload(downstream.receiveOne(Duration.ofSeconds(2))));
+	}
+	
+	private static HeaderMessage request(int request, long requestId)
+	{
+		return new HeaderMessage(Collections.singletonMap(RequestIdHeader.KEY, new RequestIdHeader(requestId)), request);
+	}
+	
+	private static Object payload(Object message)
+	{
+		return message instanceof HeaderMessage ? ((HeaderMessage)message).getOriginalMessage() : message;
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.collections;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongLongHashMapTest
+{
+	@Test
+	public void putGetRemove()
+	{
+		LongLongHashMap map = new LongLongHashMap();
+		assertTrue(map.isEmpty());
+		assertEquals(LongLongHashMap.MISSING, map.put(Long.MAX_VALUE, 0));
+		assertEquals(LongLongHashMap.MISSING, map.put(-7, 7));
+		assertEquals(7, map.put(-7, 8));
+		
+		assertEquals(2, map.size());
+		assertEquals(0, map.get(Long.MAX_VALUE));
+		assertEquals(8, map.get(-7));
+		assertEquals(LongLongHashMap.MISSING, map.get(7));
+		
+		assertEquals(8, map.remove(-7));
+		assertEquals(LongLongHashMap.MISSING, map.remove(-7));
+		assertFalse(map.containsKey(-7));
+		
+		map.clear();
+		assertTrue(map.isEmpty());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeValuesAreRefused()
+	{
+		new LongLongHashMap().put(1, -1);
+	}
+	
+	@Test
+	public void removalShiftsBackWrappedChains()
+	{
+		long[] keys = LongObjectHashMapTest.collidingKeys(6);
+		LongLongHashMap map = new LongLongHashMap(64);
+		for(int i = 0; i < keys.length; i++)
+			map.put(keys[i], i);
+		
+		assertEquals(0, map.remove(keys[0]));
+		assertEquals(3, map.remove(keys[3]));
+		assertEquals(5, map.remove(keys[5]));
+		for(int i = 0; i < keys.length; i++)
+		{
+			boolean removed = i == 0 || i == 3 || i == 5;
+			assertEquals(removed ? LongLongHashMap.MISSING : i, map.get(keys[i]));
+		}
+		assertEquals(3, map.size());
+	}
+	
+	@Test
+	public void matchesHashMap()
+	{
+		Random random = new Random(42);
+		LongLongHashMap map = new LongLongHashMap();
+		Map<Long, Long> expected = new HashMap<>();
+		for(int i = 0; i < 200_000; i++)
+		{
+			long key = random.nextInt(300) - 150;
+			if(random.nextBoolean())
+			{
+				Long previous = expected.put(key, (long)i);
+				assertEquals(previous == null ? LongLongHashMap.MISSING : previous, map.put(key, i));
+			}
+			else
+			{
+				Long previous = expected.remove(key);
+				assertEquals(previous == null ? LongLongHashMap.MISSING : previous, map.remove(key));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		for(long key = -150; key < 150; key++)
+			assertEquals(expected.getOrDefault(key, LongLongHashMap.MISSING).longValue(), map.get(key));
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.collections;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongObjectHashMapTest
+{
+	/** Keys whose hash puts them in the last slot of any table of up to 1024 slots, so that their chain wraps around */
+	static long[] collidingKeys(int count)
+	{
+		long[] keys = new long[count];
+		int found = 0;
+		for(long key = 0; found < count; key++)
+		{
+			if((((key * 0x9E3779B97F4A7C15L) >>> 32) & 1023) == 1023)
+				keys[found++] = key;
+		}
+		return keys;
+	}
+	
+	@Test
+	public void putGetRemove()
+	{
+		LongObjectHashMap<String> map = new LongObjectHashMap<>();
+		assertTrue(map.isEmpty());
+		assertNull(map.put(Long.MIN_VALUE, "min"));
+		assertNull(map.put(0, "zero"));
+		assertNull(map.put(-1, "minus one"));
+		assertEquals("zero", map.put(0, "zero again"));
+		
+		assertEquals(3, map.size());
+		assertEquals("min", map.get(Long.MIN_VALUE));
+		assertEquals("zero again", map.get(0));
+		assertTrue(map.containsKey(-1));
+		assertNull(map.get(1));
+		
+		assertEquals("minus one", map.remove(-1));
+		assertNull(map.remove(-1));
+		assertFalse(map.containsKey(-1));
+		assertEquals(2, map.size());
+		
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertNull(map.get(0));
+	}
+	
+	@Test
+	public void removalShiftsBackWrappedChains()
+	{
+		long[] keys = collidingKeys(6);
+		LongObjectHashMap<Long> map = new LongObjectHashMap<>(64);
+		for(long key : keys)
+			map.put(key, key);
+		
+		// Removing from the head, the middle then the end of the chain leaves the other keys reachable
+		assertEquals(Long.valueOf(keys[0]), map.remove(keys[0]));
+		assertEquals(Long.valueOf(keys[3]), map.remove(keys[3]));
+		assertEquals(Long.valueOf(keys[5]), map.remove(keys[5]));
+		for(int i = 0; i < keys.length; i++)
+		{
+			boolean removed = i == 0 || i == 3 || i == 5;
+			assertEquals(removed ? null : Long.valueOf(keys[i]), map.get(keys[i]));
+		}
+		assertEquals(3, map.size());
+	}
+	
+	@Test
+	public void forEachVisitsEveryEntry()
+	{
+		LongObjectHashMap<String> map = new LongObjectHashMap<>();
+		for(long key = 0; key < 100; key++)
+			map.put(key, "v" + key);
+		
+		Map<Long, String> visited = new HashMap<>();
+		map.forEach(visited::put);
+		assertEquals(100, visited.size());
+		assertEquals("v42", visited.get(42L));
+	}
+	
+	@Test
+	public void matchesHashMap()
+	{
+		Random random = new Random(42);
+		LongObjectHashMap<Long> map = new LongObjectHashMap<>();
+		Map<Long, Long> expected = new HashMap<>();
+		for(int i = 0; i < 200_000; i++)
+		{
+			// Few keys, so that tables stay small and chains collide, wrap around and get removed from
+			long key = random.nextInt(300) - 150;
+			if(random.nextBoolean())
+				assertEquals(expected.put(key, (long)i), map.put(key, (long)i));
+			else
+				assertEquals(expected.remove(key), map.remove(key));
+			assertEquals(expected.size(), map.size());
+		}
+		for(long key = -150; key < 150; key++)
+			assertEquals(expected.get(key), map.get(key));
+	}
+}
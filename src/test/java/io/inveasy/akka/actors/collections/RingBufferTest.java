@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class RingBufferTest
+{
+	@Test
+	public void capacityIsRoundedUpToAPowerOfTwo()
+	{
+		assertEquals(1, new RingBuffer<>(1).capacity());
+		assertEquals(2, new RingBuffer<>(2).capacity());
+		assertEquals(4, new RingBuffer<>(3).capacity());
+		assertEquals(1024, new RingBuffer<>(1000).capacity());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void capacityMustBePositive()
+	{
+		new RingBuffer<>(0);
+	}
+	
+	@Test
+	public void wrapsAroundAtFullCapacity()
+	{
+		RingBuffer<Integer> buffer = new RingBuffer<>(4);
+		int next = 0;
+		int expected = 0;
+		for(int turn = 0; turn < 10; turn++)
+		{
+			// Fill it up, check it refuses more, then drain part of it so that the next turn starts mid ring
+			while(buffer.offer(next))
+				next++;
+			assertEquals(4, buffer.size());
+			assertFalse(buffer.offer(-1));
+			
+			for(int i = 0; i < 3; i++)
+				assertEquals(Integer.valueOf(expected++), buffer.poll());
+			assertEquals(1, buffer.size());
+		}
+		
+		assertEquals(Integer.valueOf(expected), buffer.poll());
+		assertNull(buffer.poll());
+		assertTrue(buffer.isEmpty());
+	}
+	
+	@Test
+	public void concurrentProducersAndConsumersLoseNothing() throws InterruptedException
+	{
+		RingBuffer<Long> buffer = new RingBuffer<>(64);
+		int producers = 2;
+		int perProducer = 20_000;
+		AtomicLong sum = new AtomicLong();
+		AtomicLong count = new AtomicLong();
+		CountDownLatch done = new CountDownLatch(producers * 2);
+		
+		List<Thread> threads = new ArrayList<>();
+		for(int p = 0; p < producers; p++)
+		{
+			threads.add(new Thread(() -> {
+				for(long i = 1; i <= perProducer; )
+				{
+					if(buffer.offer(i))
+						i++;
+					else
+						Thread.yield();
+				}
+				done.countDown();
+			}));
+			threads.add(new Thread(() -> {
+				while(count.get() < (long)producers * perProducer)
+				{
+					Long value = buffer.poll();
+					if(value == null)
+						Thread.yield();
+					else
+					{
+						sum.addAndGet(value);
+						count.incrementAndGet();
+					}
+				}
+				done.countDown();
+			}));
+		}
+		threads.forEach(Thread::start);
+		done.await();
+		
+		assertEquals((long)producers * perProducer, count.get());
+		assertEquals((long)producers * perProducer * (perProducer + 1) / 2, sum.get());
+		assertTrue(buffer.isEmpty());
+	}
+}
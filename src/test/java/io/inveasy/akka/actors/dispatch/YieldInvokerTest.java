@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.dispatch;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class YieldInvokerTest
+{
+	public static class Receivers
+	{
+		final List<Object> calls = new ArrayList<>();
+		
+		public String publicReceiver(String message, int count, long id)
+		{
+			calls.add(message + count + id);
+			return "ignored";
+		}
+		
+		void packageReceiver(String message)
+		{
+			calls.add(message);
+		}
+		
+		public void failingReceiver() throws IOException
+		{
+			throw new IOException("failed");
+		}
+		
+		public void manyParameters(Object a, Object b, Object c, Object d, Object e, Object f, Object g)
+		{
+			calls.add("" + a + b + c + d + e + f + g);
+		}
+		
+		public static void staticReceiver(List<Object> calls, String message)
+		{
+			calls.add(message);
+		}
+	}
+	
+	@Test
+	public void publicReceiversAreCalledByASpunInvoker() throws Exception
+	{
+		Receivers receivers = new Receivers();
+		YieldInvoker invoker = YieldInvoker.of(Receivers.class, "publicReceiver", String.class, int.class, long.class);
+		
+		assertTrue(invoker instanceof DirectInvokers.Invoker3);
+		invoker.invoke(receivers, new Object[]{"m", 2, 3L});
+		assertEquals("m23", receivers.calls.get(0));
+	}
+	
+	@Test
+	public void otherReceiversAreCalledThroughAHandle() throws Exception
+	{
+		Receivers receivers = new Receivers();
+		YieldInvoker packageInvoker = YieldInvoker.of(Receivers.class, "packageReceiver", String.class);
+		YieldInvoker staticInvoker = YieldInvoker.of(Receivers.class, "staticReceiver", List.class, String.class);
+		YieldInvoker manyInvoker = YieldInvoker.of(Receivers.class, "manyParameters",
+				Object.class, Object.class, Object.class, Object.class, Object.class, Object.class, Object.class);
+		
+		assertFalse(packageInvoker instanceof DirectInvokers.Invoker1);
+		assertFalse(staticInvoker instanceof DirectInvokers.Invoker2);
+		packageInvoker.invoke(receivers, new Object[]{"package"});
+		staticInvoker.invoke(null, new Object[]{receivers.calls, "static"});
+		manyInvoker.invoke(receivers, new Object[]{1, 2, 3, 4, 5, 6, 7});
+		assertEquals("package", receivers.calls.get(0));
+		assertEquals("static", receivers.calls.get(1));
+		assertEquals("1234567", receivers.calls.get(2));
+	}
+	
+	@Test(expected = IOException.class)
+	public void exceptionsOfReceiversAreThrownAsIs() throws Exception
+	{
+		YieldInvoker invoker = YieldInvoker.of(Receivers.class, "failingReceiver");
+		
+		assertTrue(invoker instanceof DirectInvokers.Invoker0);
+		invoker.invoke(new Receivers(), new Object[0]);
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.domain;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class HeaderMapTest
+{
+	@Test
+	public void matchesTreeMap()
+	{
+		Random random = new Random(42);
+		HeaderMap map = new HeaderMap();
+		TreeMap<String, AbstractHeader> expected = new TreeMap<>();
+		for(int i = 0; i < 20_000; i++)
+		{
+			String key = "k" + random.nextInt(20);
+			if(random.nextInt(3) > 0)
+			{
+				AbstractHeader header = new SimpleHeader(false, Integer.toString(i));
+				assertSame(expected.put(key, header), map.put(key, header));
+			}
+			else
+				assertSame(expected.remove(key), map.remove(key));
+			
+			assertEquals(expected.size(), map.size());
+		}
+		
+		// Entries are iterated in key order, as a TreeMap's
+		assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(map.keySet()));
+		assertEquals(expected, map);
+	}
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void frozenMapsCannotBeModified()
+	{
+		HeaderMap map = new HeaderMap();
+		map.put("a", new SimpleHeader(false, "a"));
+		map.freeze().put("b", new SimpleHeader(false, "b"));
+	}
+	
+	@Test
+	public void snapshotsAreCopiedOnWrite()
+	{
+		HeaderMap map = new HeaderMap();
+		map.put("a", new SimpleHeader(false, "a"));
+		HeaderMap snapshot = map.snapshot();
+		HeaderMap copy = HeaderMap.copyOnWrite(snapshot);
+		
+		map.put("b", new SimpleHeader(false, "b"));
+		copy.remove("a");
+		
+		assertTrue(snapshot.isFrozen());
+		assertSame(snapshot, HeaderMap.frozenCopyOf(snapshot));
+		assertEquals(Arrays.asList("a"), new ArrayList<>(snapshot.keySet()));
+		assertEquals(Arrays.asList("a", "b"), new ArrayList<>(map.keySet()));
+		assertTrue(copy.isEmpty());
+	}
+	
+	//////////////////// Layers ////////////////////
+	@Test
+	public void ownEntriesShadowInheritedOnes()
+	{
+		HeaderMap parent = new HeaderMap();
+		parent.put("a", new SimpleHeader(true, "parent a"));
+		parent.put("b", new SimpleHeader(true, "parent b"));
+		parent.freeze();
+		
+		HeaderMap child = new HeaderMap();
+		child.put("b", new SimpleHeader(false, "child b"));
+		child.inherit(parent);
+		AbstractHeader shadowed = child.put("c", new SimpleHeader(false, "child c"));
+		
+		assertNull(shadowed);
+		assertSame(parent, child.getParent());
+		assertEquals(3, child.size());
+		assertEquals(2, child.ownSize());
+		assertEquals("parent a", child.get("a").getContent());
+		assertEquals("child b", child.get("b").getContent());
+		assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(child.keySet()));
+		
+		// Removing an inherited entry flattens the map, leaving the layer untouched
+		assertEquals("parent a", child.remove("a").getContent());
+		assertNull(child.getParent());
+		assertEquals(Arrays.asList("b", "c"), new ArrayList<>(child.keySet()));
+		assertEquals("parent a", parent.get("a").getContent());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void onlyFrozenMapsCanBeInherited()
+	{
+		HeaderMap parent = new HeaderMap();
+		parent.put("a", new SimpleHeader(true, "a"));
+		new HeaderMap().inherit(parent);
+	}
+	
+	@Test
+	public void longChainsAreFlattened()
+	{
+		HeaderMap previous = HeaderMap.EMPTY;
+		for(int hop = 0; hop < 20; hop++)
+		{
+			HeaderMap map = new HeaderMap();
+			map.put("h" + hop, new SimpleHeader(true, Integer.toString(hop)));
+			map.inherit(previous);
+			previous = map.freeze();
+		}
+		
+		int depth = 0;
+		for(HeaderMap layer = previous.getParent(); layer != null; layer = layer.getParent())
+			depth++;
+		assertTrue("Depth " + depth, depth <= 4);
+		assertEquals(20, previous.size());
+		for(int hop = 0; hop < 20; hop++)
+			assertEquals(Integer.toString(hop), previous.get("h" + hop).getContent());
+	}
+	
+	@Test
+	public void passthruLayerHoldsVisiblePassthruHeaders()
+	{
+		HeaderMap allPassthru = new HeaderMap();
+		allPassthru.put("a", new SimpleHeader(true, "a"));
+		allPassthru.put("b", new SimpleHeader(true, "b"));
+		allPassthru.freeze();
+		assertSame(allPassthru, allPassthru.getPassthruLayer());
+		
+		HeaderMap child = new HeaderMap();
+		child.put("b", new SimpleHeader(false, "dropped b"));
+		child.put("c", new SimpleHeader(true, "c"));
+		child.put("d", new SimpleHeader(false, "d"));
+		child.inherit(allPassthru);
+		child.freeze();
+		
+		// The dropped b hides the inherited one along
+		Map<String, AbstractHeader> passthru = child.getPassthruLayer();
+		assertEquals(Arrays.asList("a", "c"), new ArrayList<>(passthru.keySet()));
+	}
+	
+	@Test
+	public void processedHeadersSkipNoOps()
+	{
+		TraceHeader sampled = new TraceHeader(1, 2, true);
+		HeaderMap map = new HeaderMap();
+		map.put("simple", new SimpleHeader(true, "a"));
+		map.put(TraceHeader.KEY, sampled);
+		map.put("unsampled", new TraceHeader(3, 4, false));
+		
+		assertArrayEquals(new AbstractHeader[] {sampled}, map.getProcessedHeaders());
+		assertArrayEquals(new AbstractHeader[] {sampled}, map.freeze().getProcessedHeaders());
+	}
+	
+	//////////////////// Cached encodings ////////////////////
+	@Test
+	public void cachedEncodingsFollowHeaderChanges()
+	{
+		Object owner = new Object();
+		byte[] bytes = {1, 2, 3};
+		IntHeader parentHeader = new IntHeader(true, 1);
+		HeaderMap parent = new HeaderMap();
+		parent.put("p", parentHeader);
+		parent.freeze();
+		LongHeader header = new LongHeader(true, 1);
+		HeaderMap map = new HeaderMap();
+		map.put("a", header);
+		map.cacheEncoding(owner, bytes);
+		assertNull("Only frozen maps cache their encoding", map.getCachedEncoding(owner));
+		
+		map.inherit(parent);
+		map.freeze();
+		map.cacheEncoding(owner, bytes);
+		assertSame(bytes, map.getCachedEncoding(owner));
+		assertNull(map.getCachedEncoding(new Object()));
+		
+		header.setValue(2);
+		assertNull(map.getCachedEncoding(owner));
+		map.cacheEncoding(owner, bytes);
+		parentHeader.setPassthru(true);
+		assertNull(map.getCachedEncoding(owner));
+	}
+	
+	@Test
+	public void keysAreInterned()
+	{
+		String key = new String(new char[] {'i', 'n', 't', 'e', 'r', 'n', 'e', 'd'});
+		HeaderMap map = new HeaderMap();
+		map.put(key, new SimpleHeader(false, "x"));
+		
+		List<String> keys = new ArrayList<>(map.keySet());
+		assertSame(HeaderMap.intern("interned"), keys.get(0));
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.mailbox;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.DeadLetter;
+import akka.dispatch.Envelope;
+import akka.dispatch.MessageQueue;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.inveasy.akka.actors.domain.AbstractHeader;
+import io.inveasy.akka.actors.domain.IntHeader;
+import io.inveasy.akka.actors.domain.LongHeader;
+import io.inveasy.akka.actors.domain.SimpleHeader;
+import io.inveasy.akka.actors.messages.HeaderMessage;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.Option;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HeaderPriorityMailboxTest
+{
+	private static ActorSystem system;
+	
+	@BeforeClass
+	public static void setUp()
+	{
+		system = ActorSystem.create("HeaderPriorityMailboxTest");
+	}
+	
+	@AfterClass
+	public static void tearDown()
+	{
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+	
+	//////////////////// Lanes ////////////////////
+	@Test
+	public void lanesAreReadFromThePriorityHeader()
+	{
+		HeaderPriorityMailbox mailbox = mailbox("");
+		
+		assertEquals(0, mailbox.laneOf(prioritized("a", new IntHeader(false, 0))));
+		assertEquals(2, mailbox.laneOf(prioritized("b", new LongHeader(false, 2))));
+		assertEquals(0, mailbox.laneOf(prioritized("c", new SimpleHeader(false, " 0 "))));
+		assertEquals(1, mailbox.laneOf(prioritized("d", new SimpleHeader(false, "urgent"))));
+		assertEquals(1, mailbox.laneOf(new HeaderMessage(Collections.emptyMap(), "e")));
+		assertEquals(1, mailbox.laneOf("f"));
+		
+		// Out of range priorities go to the nearest lane
+		assertEquals(0, mailbox.laneOf(prioritized("g", new IntHeader(false, -5))));
+		assertEquals(2, mailbox.laneOf(prioritized("h", new LongHeader(false, Long.MAX_VALUE))));
+	}
+	
+	@Test
+	public void messagesAreDequeuedByLane()
+	{
+		MessageQueue queue = queue(mailbox(""));
+		enqueue(queue, prioritized("low", new IntHeader(false, 2)));
+		enqueue(queue, "normal");
+		enqueue(queue, prioritized("high", new IntHeader(false, 0)));
+		enqueue(queue, prioritized("high2", new IntHeader(false, 0)));
+		
+		assertEquals(4, queue.numberOfMessages());
+		assertEquals(Collections.singletonList("high"), payloads(queue, 1));
+		assertEquals(Collections.singletonList("high2"), payloads(queue, 1));
+		assertEquals(Collections.singletonList("normal"), payloads(queue, 1));
+		assertEquals(Collections.singletonList("low"), payloads(queue, 1));
+		assertNull(queue.dequeue());
+		assertFalse(queue.hasMessages());
+	}
+	
+	//////////////////// Starvation ////////////////////
+	@Test
+	public void lowerLanesAreServedInTurn()
+	{
+		MessageQueue queue = queue(mailbox("starvation-interval = 3"));
+		for(int i = 0; i < 6; i++)
+			enqueue(queue, prioritized("high" + i, new IntHeader(false, 0)));
+		enqueue(queue, "normal0");
+		enqueue(queue, "normal1");
+		enqueue(queue, prioritized("low0", new IntHeader(false, 2)));
+		
+		// Every third dequeue takes from lanes 1 and 2 in turn, the others from the upmost lane with messages
+		assertEquals(listOf("high0", "high1", "normal0", "high2", "high3", "low0", "high4", "high5", "normal1"), payloads(queue, 9));
+		assertNull(queue.dequeue());
+	}
+	
+	@Test
+	public void starvedLaneSkipsEmptyLanes()
+	{
+		MessageQueue queue = queue(mailbox("starvation-interval = 2"));
+		for(int i = 0; i < 4; i++)
+			enqueue(queue, prioritized("high" + i, new IntHeader(false, 0)));
+		enqueue(queue, prioritized("low0", new IntHeader(false, 2)));
+		enqueue(queue, prioritized("low1", new IntHeader(false, 2)));
+		
+		assertEquals(listOf("high0", "low0", "high1", "low1", "high2", "high3"), payloads(queue, 6));
+	}
+	
+	//////////////////// Capacity ////////////////////
+	@Test
+	public void fullLaneSendsToDeadLetters()
+	{
+		TestKit probe = new TestKit(system);
+		system.eventStream().subscribe(probe.getRef(), DeadLetter.class);
+		try
+		{
+			MessageQueue queue = queue(mailbox("lane-capacity = 2"));
+			enqueue(queue, prioritized("high0", new IntHeader(false, 0)));
+			enqueue(queue, prioritized("high1", new IntHeader(false, 0)));
+			enqueue(queue, prioritized("high2", new IntHeader(false, 0)), probe.getRef());
+			enqueue(queue, "normal");
+			
+			DeadLetter deadLetter = probe.expectMsgClass(DeadLetter.class);
+			assertEquals("high2", ((HeaderMessage)deadLetter.message()).getOriginalMessage());
+			assertEquals(probe.getRef(), deadLetter.sender());
+			assertEquals(probe.getRef(), deadLetter.recipient());
+			assertEquals(listOf("high0", "high1", "normal"), payloads(queue, 3));
+		}
+		finally
+		{
+			system.eventStream().unsubscribe(probe.getRef());
+		}
+	}
+	
+	//////////////////// Helpers ////////////////////
+	private static HeaderPriorityMailbox mailbox(String overrides)
+	{
+		Config config = ConfigFactory.parseString(overrides).withFallback(system.settings().config().getConfig(HeaderPriorityMailbox.CONFIG_PATH));
+		return new HeaderPriorityMailbox(system.settings(), config);
+	}
+	
+	private static MessageQueue queue(HeaderPriorityMailbox mailbox)
+	{
+		return mailbox.create(Option.empty(), Option.apply(system));
+	}
+	
+	private static HeaderMessage prioritized(Object payload, AbstractHeader priority)
+	{
+		return new HeaderMessage(Collections.singletonMap("priority", priority), payload);
+	}
+	
+	private static void enqueue(MessageQueue queue, Object message)
+	{
+		enqueue(queue, message, system.deadLetters());
+	}
+	
+	/** Enqueues the message as if the sender had sent it to itself */
+	private static void enqueue(MessageQueue queue, Object message, ActorRef sender)
+	{
+		queue.enqueue(sender, Envelope.apply(message, sender, system));
+	}
+	
+	private static List<Object> payloads(MessageQueue queue, int count)
+	{
+		List<Object> payloads = new ArrayList<>();
+		for(int i = 0; i < count; i++)
+		{
+			Object message = queue.dequeue().message();
+			payloads.add(message instanceof HeaderMessage ? ((HeaderMessage)message).getOriginalMessage() : message);
+		}
+		return payloads;
+	}
+	
+	private static List<Object> listOf(Object... values)
+	{
+		List<Object> list = new ArrayList<>();
+		Collections.addAll(list, values);
+		return list;
+	}
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.serialization;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.Serializers;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import io.inveasy.akka.actors.AbstractYieldActor;
+import io.inveasy.akka.actors.domain.*;
+import io.inveasy.akka.actors.messages.HeaderBatchMessage;
+import io.inveasy.akka.actors.messages.HeaderMessage;
+import io.protostuff.LinkedBuffer;
+import io.protostuff.ProtostuffIOUtil;
+import io.protostuff.runtime.RuntimeSchema;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class HeaderMessageSerializerTest
+{
+	private static ActorSystem system;
+	private static Serialization serialization;
+	private static volatile boolean initialized;
+	
+	@BeforeClass
+	public static void setUp()
+	{
+		system = ActorSystem.create("HeaderMessageSerializerTest", ConfigFactory.parseString(
+				"inveasy.akka-actors.serialization.header-keys = [\"tenant\"]").withFallback(ConfigFactory.load()));
+		serialization = (Serialization)SerializationExtension.apply(system);
+	}
+	
+	@AfterClass
+	public static void tearDown()
+	{
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+	
+	/** Header without codec, written with Protostuff */
+	public static class CustomHeader extends AbstractHeader
+	{
+		private int number;
+		
+		public CustomHeader(boolean passthru, String content, int number)
+		{
+			super(passthru, content);
+			this.number = number;
+		}
+		
+		@Override
+		public void preProcess()
+		{
+			// Nothing to do
+		}
+		
+		@Override
+		public void postProcess()
+		{
+			// Nothing to do
+		}
+	}
+	
+	/** Header counting the hops it went through, updating itself without calling changed() */
+	public static class HopCountHeader extends AbstractHeader
+	{
+		private int hops;
+		
+		public HopCountHeader()
+		{
+			super(true, null);
+		}
+		
+		@Override
+		public void preProcess()
+		{
+			// Nothing to do
+		}
+		
+		@Override
+		public void postProcess()
+		{
+			hops++;
+		}
+	}
+	
+	/** Class whose name is swapped with the one of CustomHeader on the wire, it must never be initialized */
+	public static class CustomHeadeX
+	{
+		static
+		{
+			initialized = true;
+		}
+	}
+	
+	//////////////////// Header messages ////////////////////
+	@Test
+	public void headerMessageRoundTrip()
+	{
+		Map<String, AbstractHeader> headers = new LinkedHashMap<>();
+		headers.put("tenant", new SimpleHeader(true, "acme"));
+		headers.put(AbstractYieldActor.ACTOR_YIELD_UUID, new YieldHeader(12, 345, 2));
+		headers.put("custom", new CustomHeader(false, "c", 42));
+		
+		HeaderMessage back = roundTrip(new HeaderMessage(headers, "payload"));
+		
+		assertEquals("payload", back.getOriginalMessage());
+		assertEquals(3, back.getHeaders().size());
+		assertEquals("acme", back.getHeaders().get("tenant").getContent());
+		assertTrue(back.getHeaders().get("tenant").isPassthru());
+		YieldHeader yieldHeader = (YieldHeader)back.getHeaders().get(AbstractYieldActor.ACTOR_YIELD_UUID);
+		assertEquals(12, yieldHeader.getActorSerial());
+		assertEquals(345, yieldHeader.getYieldId());
+		assertEquals(2, yieldHeader.getIndex());
+		CustomHeader custom = (CustomHeader)back.getHeaders().get("custom");
+		assertEquals(42, custom.number);
+		assertEquals("c", custom.getContent());
+		assertFalse(custom.isPassthru());
+	}
+	
+	@Test
+	public void headerBatchMessageRoundTrip()
+	{
+		Map<String, AbstractHeader> headers = new LinkedHashMap<>();
+		headers.put("tenant", new SimpleHeader(true, "acme"));
+		
+		HeaderBatchMessage back = roundTrip(new HeaderBatchMessage(headers, Arrays.asList("a", "b", "c")));
+		
+		assertEquals(Arrays.asList("a", "b", "c"), back.getOriginalMessages());
+		assertEquals("acme", back.getHeaders().get("tenant").getContent());
+	}
+	
+	@Test
+	public void emptyHeadersRoundTrip()
+	{
+		HeaderMessage back = roundTrip(new HeaderMessage(HeaderMap.EMPTY, "payload"));
+		
+		assertEquals("payload", back.getOriginalMessage());
+		assertTrue(back.getHeaders().isEmpty());
+	}
+	
+	@Test
+	public void yieldKeysAreWrittenOnAFixedSize()
+	{
+		// Random UUIDs have high bits set, which a variable length encoding would write on more bytes
+		String small = "yield-" + new UUID(1, 1);
+		String random = "yield-" + new UUID(-1, Long.MIN_VALUE);
+		byte[] smallBytes = serialization.serialize(new HeaderMessage(Collections.singletonMap(small, new YieldHeader(1, 2, -1)), "payload")).get();
+		byte[] randomBytes = serialization.serialize(new HeaderMessage(Collections.singletonMap(random, new YieldHeader(1, 2, -1)), "payload")).get();
+		assertEquals(smallBytes.length, randomBytes.length);
+		
+		HeaderMessage back = roundTrip(new HeaderMessage(Collections.singletonMap(random, new YieldHeader(1, 2, -1)), "payload"));
+		assertEquals(2, ((YieldHeader)back.getHeaders().get(random)).getYieldId());
+	}
+	
+	//////////////////// Header maps ////////////////////
+	@Test
+	public void layeredHeaderMapRoundTrip()
+	{
+		HeaderMap received = new HeaderMap();
+		received.put("tenant", new SimpleHeader(true, "acme"));
+		received.put("auth", new SimpleHeader(true, "token"));
+		received.put("local", new SimpleHeader(false, "dropped"));
+		received.freeze();
+		
+		HeaderMap sent = new HeaderMap();
+		sent.put("auth", new SimpleHeader(false, "shadowed"));
+		sent.put("own", new IntHeader(false, 3));
+		sent.inherit(received.getPassthruLayer());
+		HeaderMap frozen = HeaderMap.frozenCopyOf(sent);
+		
+		HeaderMessage back = roundTrip(new HeaderMessage(frozen, "payload"));
+		Map<String, AbstractHeader> headers = back.getHeaders();
+		
+		assertEquals(3, headers.size());
+		assertEquals("acme", headers.get("tenant").getContent());
+		assertTrue(headers.get("tenant").isPassthru());
+		assertEquals("shadowed", headers.get("auth").getContent());
+		assertFalse(headers.get("auth").isPassthru());
+		assertEquals(3, ((IntHeader)headers.get("own")).getValue());
+		assertNull(headers.get("local"));
+		
+		// The received passthru layer is read back as a layer, so that it is shared again on the next hop
+		assertTrue(headers instanceof HeaderMap);
+		HeaderMap passthru = ((HeaderMap)headers).getPassthruLayer();
+		assertEquals(1, passthru.size());
+		assertEquals("acme", passthru.get("tenant").getContent());
+	}
+	
+	@Test
+	public void cachedLayerEncodingIsReused()
+	{
+		HeaderMap received = new HeaderMap();
+		received.put("tenant", new SimpleHeader(true, "acme"));
+		received.freeze();
+		
+		HeaderMap first = new HeaderMap();
+		first.put("hop", new IntHeader(false, 1));
+		first.inherit(received);
+		HeaderMap second = new HeaderMap();
+		second.put("hop", new IntHeader(false, 2));
+		second.inherit(received);
+		
+		HeaderMessage backFirst = roundTrip(new HeaderMessage(first.freeze(), "one"));
+		HeaderMessage backSecond = roundTrip(new HeaderMessage(second.freeze(), "two"));
+		
+		assertEquals("acme", backFirst.getHeaders().get("tenant").getContent());
+		assertEquals("acme", backSecond.getHeaders().get("tenant").getContent());
+		assertEquals(2, ((IntHeader)backSecond.getHeaders().get("hop")).getValue());
+	}
+	
+	@Test
+	public void cachedLayerEncodingFollowsHeaderChanges()
+	{
+		IntHeader attempt = new IntHeader(true, 1);
+		HeaderMap received = new HeaderMap();
+		received.put("attempt", attempt);
+		received.freeze();
+		
+		HeaderMap first = new HeaderMap();
+		first.put("hop", new IntHeader(false, 1));
+		first.inherit(received);
+		roundTrip(new HeaderMessage(first.freeze(), "one"));
+		
+		attempt.setValue(2);
+		HeaderMap second = new HeaderMap();
+		second.put("hop", new IntHeader(false, 2));
+		second.inherit(received);
+		HeaderMessage back = roundTrip(new HeaderMessage(second.freeze(), "two"));
+		
+		assertEquals(2, ((IntHeader)back.getHeaders().get("attempt")).getValue());
+	}
+	
+	@Test
+	public void layersUpdatedInPostProcessAreNotCached()
+	{
+		HopCountHeader hopCount = new HopCountHeader();
+		HeaderMap received = new HeaderMap();
+		received.put("hops", hopCount);
+		received.freeze();
+		
+		// Sent once, then updated for the next send as an actor would
+		HeaderMap first = new HeaderMap();
+		first.put("hop", new IntHeader(false, 1));
+		first.inherit(received);
+		roundTrip(new HeaderMessage(first.freeze(), "one"));
+		hopCount.postProcess();
+		
+		HeaderMap second = new HeaderMap();
+		second.put("hop", new IntHeader(false, 2));
+		second.inherit(received);
+		HeaderMessage secondHop = roundTrip(new HeaderMessage(second.freeze(), "two"));
+		assertEquals(1, ((HopCountHeader)secondHop.getHeaders().get("hops")).hops);
+		
+		// The layer read from the wire is passed along again by the next remote hop, after its own postProcess()
+		HeaderMap receivedAgain = ((HeaderMap)secondHop.getHeaders()).getPassthruLayer();
+		((HopCountHeader)receivedAgain.get("hops")).postProcess();
+		HeaderMap third = new HeaderMap();
+		third.put("hop", new IntHeader(false, 3));
+		third.inherit(receivedAgain);
+		HeaderMessage thirdHop = roundTrip(new HeaderMessage(third.freeze(), "three"));
+		assertEquals(2, ((HopCountHeader)thirdHop.getHeaders().get("hops")).hops);
+	}
+	
+	//////////////////// Codecs ////////////////////
+	@Test
+	public void registeredCodecsRoundTrip()
+	{
+		byte[] bytes = {1, 2, 3, (byte)0xFF};
+		
+		SimpleHeader simple = roundTripHeader(new SimpleHeader(true, "text"), 1);
+		assertEquals("text", simple.getContent());
+		assertTrue(simple.isPassthru());
+		
+		YieldHeader yieldHeader = roundTripHeader(new YieldHeader(Long.MAX_VALUE, 7, 3), 2);
+		assertEquals(Long.MAX_VALUE, yieldHeader.getActorSerial());
+		assertEquals(7, yieldHeader.getYieldId());
+		assertEquals(3, yieldHeader.getIndex());
+		
+		TraceHeader trace = roundTripHeader(new TraceHeader(-1, 0x1234567890ABCDEFL, true), 3);
+		assertEquals(-1, trace.getTraceId());
+		assertEquals(0x1234567890ABCDEFL, trace.getSpanId());
+		assertTrue(trace.isSampled());
+		
+		LongHeader longHeader = roundTripHeader(new LongHeader(false, Long.MIN_VALUE), 4);
+		assertEquals(Long.MIN_VALUE, longHeader.getValue());
+		assertFalse(longHeader.isPassthru());
+		
+		IntHeader intHeader = roundTripHeader(new IntHeader(true, -42), 5);
+		assertEquals(-42, intHeader.getValue());
+		assertTrue(intHeader.isPassthru());
+		
+		BinaryHeader binary = roundTripHeader(new BinaryHeader(false, bytes), 6);
+		assertArrayEquals(bytes, binary.getValue());
+		
+		DeadlineHeader deadline = roundTripHeader(new DeadlineHeader(1234567890123L), 7);
+		assertEquals(1234567890123L, deadline.getDeadline());
+		assertTrue(deadline.isPassthru());
+		
+		RequestIdHeader requestId = roundTripHeader(new RequestIdHeader(-7), 8);
+		assertEquals(-7, requestId.getRequestId());
+		assertFalse(requestId.isPassthru());
+	}
+	
+	@Test
+	public void protostuffFallbackRoundTrip()
+	{
+		CustomHeader back = roundTrip(new CustomHeader(true, "content", -5));
+		
+		assertEquals(-5, back.number);
+		assertEquals("content", back.getContent());
+		assertTrue(back.isPassthru());
+	}
+	
+	@Test
+	public void fallbackClassMustBeAHeader()
+	{
+		Serializer serializer = serialization.findSerializerFor(new CustomHeader(false, "c", 1));
+		byte[] bytes = serializer.toBinary(new CustomHeader(false, "c", 1));
+		replace(bytes, CustomHeader.class.getName(), CustomHeadeX.class.getName());
+		
+		assertTrue(serialization.deserialize(bytes, serializer.identifier(), "A").isFailure());
+		assertFalse(initialized);
+	}
+	
+	//////////////////// Keys and size ////////////////////
+	@Test
+	public void dictionaryKeysAreWrittenAsIndexes()
+	{
+		Map<String, AbstractHeader> headers = new LinkedHashMap<>();
+		headers.put("tenant", new SimpleHeader(true, "acme"));
+		headers.put(TraceHeader.KEY, new TraceHeader(1, 2, false));
+		headers.put("literal-key", new SimpleHeader(false, "x"));
+		HeaderMessage message = new HeaderMessage(headers, "payload");
+		
+		String encoded = new String(serialization.findSerializerFor(message).toBinary(message), StandardCharsets.ISO_8859_1);
+		assertFalse(encoded.contains("tenant"));
+		assertFalse(encoded.contains(TraceHeader.KEY));
+		assertTrue(encoded.contains("literal-key"));
+		
+		HeaderMessage back = roundTrip(message);
+		assertEquals("acme", back.getHeaders().get("tenant").getContent());
+		assertEquals(2, ((TraceHeader)back.getHeaders().get(TraceHeader.KEY)).getSpanId());
+		assertEquals("x", back.getHeaders().get("literal-key").getContent());
+	}
+	
+	@Test
+	public void encodingIsSmallerThanProtostuff()
+	{
+		Map<String, AbstractHeader> headers = new LinkedHashMap<>();
+		headers.put("tenant", new SimpleHeader(true, "acme"));
+		headers.put(AbstractYieldActor.ACTOR_YIELD_UUID, new YieldHeader(12, 345));
+		headers.put(TraceHeader.KEY, new TraceHeader(1, 2, true));
+		headers.put("attempt", new IntHeader(true, 3));
+		HeaderMessage message = new HeaderMessage(headers, "payload");
+		
+		int binary = serialization.findSerializerFor(message).toBinary(message).length;
+		int protostuff = ProtostuffIOUtil.toByteArray(message, RuntimeSchema.getSchema(HeaderMessage.class), LinkedBuffer.allocate()).length;
+		
+		assertTrue("Binary encoding of " + binary + " bytes is not smaller than Protostuff's " + protostuff, binary * 2 < protostuff);
+	}
+	
+	//////////////////// Helpers ////////////////////
+	@SuppressWarnings("unchecked")
+	private static <T> T roundTrip(T message)
+	{
+		Serializer serializer = serialization.findSerializerFor(message);
+		assertTrue(serializer instanceof HeaderMessageSerializer);
+		byte[] bytes = serializer.toBinary(message);
+		return (T)serialization.deserialize(bytes, serializer.identifier(), Serializers.manifestFor(serializer, message)).get();
+	}
+	
+	private static <T extends AbstractHeader> T roundTripHeader(T header, int typeId)
+	{
+		assertEquals(typeId, HeaderCodecs.forClass(header.getClass()).id);
+		
+		T back = roundTrip(header);
+		assertEquals(header.getClass(), back.getClass());
+		assertEquals(header.getContent(), back.getContent());
+		assertEquals(header.isPassthru(), back.isPassthru());
+		
+		// Also within a message, where the key is written along
+		HeaderMessage message = roundTrip(new HeaderMessage(Collections.singletonMap("key", header), "payload"));
+		assertEquals(header.getContent(), message.getHeaders().get("key").getContent());
+		return back;
+	}
+	
+	private static void replace(byte[] bytes, String from, String to)
+	{
+		byte[] source = from.getBytes(StandardCharsets.UTF_8);
+		byte[] target = to.getBytes(StandardCharsets.UTF_8);
+		assertEquals(source.length, target.length);
+		for(int i = 0; i + source.length <= bytes.length; i++)
+		{
+			if(Arrays.equals(Arrays.copyOfRange(bytes, i, i + source.length), source))
+			{
+				System.arraycopy(target, 0, bytes, i, target.length);
+				return;
+			}
+		}
+		fail("Class name not found in the encoding");
+	}
+}
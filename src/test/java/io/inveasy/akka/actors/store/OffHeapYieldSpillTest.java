@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.store;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OffHeapYieldSpillTest
+{
+	// Entries of 4 bytes take 24 bytes with their header, so 5 of them fit in a segment
+	private static final int SEGMENT_SIZE = 128;
+	private static final int ENTRY_SIZE = 24;
+	
+	@Test
+	public void entriesRoundTrip()
+	{
+		OffHeapYieldSpill spill = new OffHeapYieldSpill(SEGMENT_SIZE);
+		assertTrue(spill.put(7, 700, bytes(7)));
+		assertTrue(spill.put(8, 800, new byte[0]));
+		
+		assertEquals(2, spill.size());
+		assertTrue(spill.contains(7));
+		assertEquals(700, spill.getTimestamp(7));
+		assertEquals(ENTRY_SIZE + 20, spill.getUsedBytes());
+		assertArrayEquals(bytes(7), spill.remove(7));
+		assertNull(spill.remove(7));
+		assertArrayEquals(new byte[0], spill.remove(8));
+		assertEquals(0, spill.size());
+		assertEquals(0, spill.getUsedBytes());
+	}
+	
+	@Test
+	public void putReplacesTheEntry()
+	{
+		OffHeapYieldSpill spill = new OffHeapYieldSpill(SEGMENT_SIZE);
+		spill.put(1, 100, bytes(1));
+		spill.put(1, 200, bytes(2));
+		
+		assertEquals(1, spill.size());
+		assertEquals(ENTRY_SIZE, spill.getUsedBytes());
+		assertEquals(200, spill.getTimestamp(1));
+		assertArrayEquals(bytes(2), spill.remove(1));
+	}
+	
+	@Test
+	public void entriesLargerThanASegmentAreRefused()
+	{
+		OffHeapYieldSpill spill = new OffHeapYieldSpill(SEGMENT_SIZE);
+		assertFalse(spill.put(1, 0, new byte[SEGMENT_SIZE]));
+		assertEquals(0, spill.size());
+		assertEquals(0, spill.getReservedBytes());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void timestampOfMissingEntryFails()
+	{
+		new OffHeapYieldSpill(SEGMENT_SIZE).getTimestamp(1);
+	}
+	
+	@Test
+	public void emptySegmentsAreRecycled()
+	{
+		OffHeapYieldSpill spill = new OffHeapYieldSpill(SEGMENT_SIZE);
+		long reserved = -1;
+		for(int round = 0; round < 10; round++)
+		{
+			for(int i = 0; i < 15; i++)
+				assertTrue(spill.put(round * 100 + i, i, bytes(i)));
+			for(int i = 0; i < 15; i++)
+				assertArrayEquals(bytes(i), spill.remove(round * 100 + i));
+			assertEquals(0, spill.getUsedBytes());
+			
+			// Freed segments are recycled, so the direct memory held does not grow round after round
+			if(reserved < 0)
+				reserved = spill.getReservedBytes();
+			assertEquals(reserved, spill.getReservedBytes());
+		}
+		assertTrue(reserved <= 4 * SEGMENT_SIZE);
+	}
+	
+	@Test
+	public void sparseSegmentsAreCompacted()
+	{
+		OffHeapYieldSpill spill = new OffHeapYieldSpill(SEGMENT_SIZE);
+		for(int i = 0; i < 15; i++)
+			spill.put(i, 1000 + i, bytes(i));
+		
+		// Once less than a quarter of the first segment is live, its last entry is moved to a new segment
+		for(int i = 0; i < 4; i++)
+			spill.remove(i);
+		
+		assertEquals(11, spill.size());
+		assertEquals(11 * ENTRY_SIZE, spill.getUsedBytes());
+		assertEquals(4 * SEGMENT_SIZE, spill.getReservedBytes());
+		for(int i = 4; i < 15; i++)
+		{
+			assertEquals(1000 + i, spill.getTimestamp(i));
+			assertArrayEquals(bytes(i), spill.remove(i));
+		}
+		assertEquals(0, spill.getUsedBytes());
+	}
+	
+	private static byte[] bytes(int value)
+	{
+		return new byte[] {(byte)value, (byte)(value >> 8), 42, -1};
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.store;
+
+import akka.actor.ActorRef;
+import io.inveasy.akka.actors.domain.HeaderMap;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReplyCacheTest
+{
+	@Test
+	public void repliesAreRecorded()
+	{
+		ReplyCache cache = new ReplyCache(10, 0);
+		assertNull(cache.get(1, 0));
+		
+		ReplyCache.Replies replies = cache.put(1, 0, ActorRef.noSender());
+		replies.add("first", HeaderMap.EMPTY);
+		replies.add("second", HeaderMap.EMPTY);
+		
+		assertSame(replies, cache.get(1, 0));
+		assertEquals(2, replies.size());
+		assertEquals("second", replies.getMessage(1));
+		assertSame(HeaderMap.EMPTY, replies.getHeaders(0));
+		assertEquals(ActorRef.noSender(), replies.getRequester());
+	}
+	
+	@Test
+	public void oldestEntriesAreEvictedAboveCapacity()
+	{
+		ReplyCache cache = new ReplyCache(40, 0);
+		for(long id = 0; id < 100; id++)
+			cache.put(id, id, ActorRef.noSender());
+		
+		// The ring of ids grows then wraps around while entries are evicted from its head
+		assertEquals(40, cache.size());
+		for(long id = 0; id < 100; id++)
+			assertEquals("Request " + id, id >= 60, cache.get(id, 100) != null);
+	}
+	
+	@Test
+	public void putAgainReplacesTheEntry()
+	{
+		ReplyCache cache = new ReplyCache(2, 0);
+		cache.put(1, 0, ActorRef.noSender()).add("old", HeaderMap.EMPTY);
+		ReplyCache.Replies replies = cache.put(1, 1, ActorRef.noSender());
+		cache.put(2, 2, ActorRef.noSender());
+		
+		assertEquals(2, cache.size());
+		assertSame(replies, cache.get(1, 2));
+		assertEquals(0, replies.size());
+	}
+	
+	@Test
+	public void entriesExpire()
+	{
+		ReplyCache cache = new ReplyCache(10, 100);
+		cache.put(1, 0, ActorRef.noSender());
+		cache.put(2, 50, ActorRef.noSender());
+		
+		assertNotNull(cache.get(1, 99));
+		assertNull(cache.get(1, 100));
+		assertNotNull(cache.get(2, 100));
+		assertEquals(1, cache.size());
+		assertNull(cache.get(2, 150));
+		assertEquals(0, cache.size());
+		
+		cache.put(3, 200, ActorRef.noSender());
+		assertNotNull(cache.get(3, 200));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void capacityMustBePositive()
+	{
+		new ReplyCache(0, 0);
+	}
+}
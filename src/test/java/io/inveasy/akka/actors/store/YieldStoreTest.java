@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.store;
+
+import io.inveasy.akka.actors.AbstractYieldActor.Yield;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class YieldStoreTest
+{
+	/** Spills yields whose message starts with "s", keeping them aside to decode them back */
+	private static class TestCodec implements YieldCodec
+	{
+		private final Map<Long, Yield> encoded = new HashMap<>();
+		private final List<Object> attempts = new ArrayList<>();
+		
+		@Override
+		public byte[] encode(Yield yield)
+		{
+			attempts.add(yield.getOriginalMessage());
+			if(!((String)yield.getOriginalMessage()).startsWith("s"))
+				return null;
+			encoded.put(yield.getYieldId(), yield);
+			return ByteBuffer.allocate(8).putLong(yield.getYieldId()).array();
+		}
+		
+		@Override
+		public Yield decode(byte[] bytes)
+		{
+			return encoded.remove(ByteBuffer.wrap(bytes).getLong());
+		}
+	}
+	
+	private final List<String> evicted = new ArrayList<>();
+	private final TestCodec codec = new TestCodec();
+	
+	@Test
+	public void oldestYieldsAreEvictedAboveCapacity()
+	{
+		YieldStore store = new YieldStore(2, 0, this::onEvicted);
+		store.put(1, newYield(1, "a"));
+		store.put(2, newYield(2, "b"));
+		store.remove(1);
+		store.put(3, newYield(3, "c"));
+		store.put(4, newYield(4, "d"));
+		
+		assertEquals(2, store.size());
+		assertEquals(listOf("CAPACITY:b"), evicted);
+		assertNull(store.get(2));
+		assertEquals("d", store.get(4).getOriginalMessage());
+	}
+	
+	@Test
+	public void expiredYieldsAreSwept() throws InterruptedException
+	{
+		YieldStore store = new YieldStore(10, 1_000_000, this::onEvicted);
+		Yield first = newYield(1, "a");
+		store.put(1, first);
+		Thread.sleep(2);
+		Yield second = newYield(2, "b");
+		store.put(2, second);
+		
+		assertEquals(0, store.sweep(first.getTimestamp()));
+		assertEquals(1, store.sweep(second.getTimestamp()));
+		assertEquals(listOf("EXPIRED:a"), evicted);
+		assertEquals(1, store.size());
+		assertSame(second, store.get(2));
+	}
+	
+	@Test
+	public void oldestYieldsAreSpilledAndBroughtBack()
+	{
+		YieldStore store = new YieldStore(100, 0, this::onEvicted, 2, codec, new OffHeapYieldSpill(64));
+		for(int i = 0; i < 5; i++)
+			store.put(i, newYield(i, "s" + i));
+		
+		assertEquals(5, store.size());
+		assertEquals(2, store.getHeapSize());
+		assertEquals(3, store.getOffHeapSize());
+		assertEquals("s0", store.get(0).getOriginalMessage());
+		assertEquals("s1", store.remove(1).getOriginalMessage());
+		assertEquals(4, store.size());
+	}
+	
+	@Test
+	public void unspillableYieldsAreNotEncodedAgainAfterCompaction()
+	{
+		YieldStore store = new YieldStore(100, 0, this::onEvicted, 2, codec, new OffHeapYieldSpill(64));
+		for(int i = 0; i < 3; i++)
+			store.put(i, newYield(i, "p" + i));
+		
+		// Short lived yields fill the ring of ids with stale ones, until it is compacted rather than grown
+		for(int i = 3; i < 20; i++)
+		{
+			store.put(i, newYield(i, "s" + i));
+			assertEquals("s" + i, store.remove(i).getOriginalMessage());
+		}
+		store.put(20, newYield(20, "s20"));
+		
+		long pinnedAttempts = codec.attempts.stream().filter(message -> ((String)message).startsWith("p")).count();
+		assertEquals(3, pinnedAttempts);
+		assertEquals(4, store.size());
+		assertEquals(3, store.getHeapSize());
+		assertEquals("p0", store.get(0).getOriginalMessage());
+	}
+	
+	private static Yield newYield(long yieldId, String message)
+	{
+		return new Yield.YieldBuilder(message).setYieldId(yieldId).create();
+	}
+	
+	private void onEvicted(Yield yield, EvictionCause cause)
+	{
+		evicted.add(cause + ":" + yield.getOriginalMessage());
+	}
+	
+	private static List<String> listOf(String... values)
+	{
+		List<String> list = new ArrayList<>();
+		for(String value : values)
+			list.add(value);
+		return list;
+	}
+}
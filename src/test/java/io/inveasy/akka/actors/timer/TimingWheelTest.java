@@ -0,0 +1,166 @@
+/*
+ * Copyright 2018 Guillaume Gravetot
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inveasy.akka.actors.timer;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import io.inveasy.akka.actors.AbstractHeaderActor;
+import io.inveasy.akka.actors.messages.TimerBatch;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest
+{
+	// A turn of the wheel lasts 4 ticks of 10ms
+	private static final long TURN_MILLIS = 40;
+	
+	private static ActorSystem system;
+	private static TimingWheel wheel;
+	
+	@BeforeClass
+	public static void setUp()
+	{
+		system = ActorSystem.create("TimingWheelTest", ConfigFactory.parseString(
+				"inveasy.akka-actors.timing-wheel { tick-duration = 10ms, wheel-size = 4 }").withFallback(ConfigFactory.load()));
+		wheel = TimingWheelExtension.INSTANCE.get(system);
+	}
+	
+	@AfterClass
+	public static void tearDown()
+	{
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+	
+	@Test
+	public void timersFurtherThanATurnWaitForTheirRounds()
+	{
+		TestKit probe = new TestKit(system);
+		long start = System.nanoTime();
+		wheel.scheduleOnce(Duration.ofMillis(5 * TURN_MILLIS + 15), probe.getRef(), "late", probe.getRef());
+		wheel.scheduleOnce(Duration.ofMillis(15), probe.getRef(), "early", probe.getRef());
+		
+		probe.expectMsgEquals(Duration.ofSeconds(2), "early");
+		probe.expectMsgEquals(Duration.ofSeconds(2), "late");
+		
+		// Timers never fire before their delay, a missed round would fire it a turn early
+		long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+		assertTrue("Fired after " + elapsedMillis + " ms", elapsedMillis >= 5 * TURN_MILLIS + 15);
+	}
+	
+	@Test
+	public void cancelledTimersDoNotFire()
+	{
+		TestKit probe = new TestKit(system);
+		Cancellable beforeAdded = wheel.scheduleOnce(Duration.ofMillis(20), probe.getRef(), "cancelled early", probe.getRef());
+		Cancellable inWheel = wheel.scheduleOnce(Duration.ofMillis(3 * TURN_MILLIS), probe.getRef(), "cancelled late", probe.getRef());
+		wheel.scheduleOnce(Duration.ofMillis(3 * TURN_MILLIS), probe.getRef(), "kept", probe.getRef());
+		
+		assertTrue(beforeAdded.cancel());
+		assertFalse(beforeAdded.cancel());
+		assertTrue(beforeAdded.isCancelled());
+		
+		// Lets a few ticks pass, so that the second timer is linked in its bucket before it is cancelled
+		probe.expectNoMessage(Duration.ofMillis(TURN_MILLIS));
+		assertTrue(inWheel.cancel());
+		
+		probe.expectMsgEquals(Duration.ofSeconds(2), "kept");
+		probe.expectNoMessage(Duration.ofMillis(2 * TURN_MILLIS));
+	}
+	
+	@Test
+	public void periodicTimersFireUntilCancelled()
+	{
+		TestKit probe = new TestKit(system);
+		Cancellable timer = wheel.schedule(Duration.ofMillis(10), Duration.ofMillis(30), probe.getRef(), "tick", probe.getRef());
+		
+		for(int i = 0; i < 3; i++)
+			probe.expectMsgEquals(Duration.ofSeconds(2), "tick");
+		timer.cancel();
+		
+		// A tick may already be on its way when the timer is cancelled
+		probe.receiveWhile(Duration.ofMillis(3 * TURN_MILLIS), message -> message);
+		probe.expectNoMessage(Duration.ofMillis(3 * TURN_MILLIS));
+	}
+	
+	@Test
+	public void timersToSelfExpiringTogetherAreBatched()
+	{
+		TestKit probe = new TestKit(system);
+		wheel.scheduleOnceToSelf(Duration.ofMillis(30), probe.getRef(), "a");
+		wheel.scheduleOnceToSelf(Duration.ofMillis(30), probe.getRef(), "b");
+		
+		TimerBatch batch = probe.expectMsgClass(Duration.ofSeconds(2), TimerBatch.class);
+		assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(batch.getMessages()));
+	}
+	
+	/** Header actor telling the probe each message it lets in */
+	public static class Recorder extends AbstractHeaderActor
+	{
+		private final ActorRef probe;
+		
+		public Recorder(ActorRef probe)
+		{
+			this.probe = probe;
+		}
+		
+		@Override
+		protected Object preReceive(Object message)
+		{
+			probe.tell(message, getSelf());
+			return message;
+		}
+		
+		@Override
+		public Receive createReceive()
+		{
+			return receiveBuilder().matchAny(message -> {}).build();
+		}
+	}
+	
+	@Test
+	public void headerActorsUnpackBatchesBeforeHandlingThem()
+	{
+		TestKit probe = new TestKit(system);
+		ActorRef recorder = system.actorOf(Props.create(Recorder.class, probe.getRef()));
+		recorder.tell(new TimerBatch(Arrays.<Object>asList("a", "b")), ActorRef.noSender());
+		
+		probe.expectMsgEquals(Duration.ofSeconds(2), "a");
+		probe.expectMsgEquals(Duration.ofSeconds(2), "b");
+		probe.expectNoMessage(Duration.ofMillis(100));
+	}
+	
+	@Test
+	public void runnablesAreRunOnTheExecutor()
+	{
+		TestKit probe = new TestKit(system);
+		wheel.scheduleOnce(Duration.ofMillis(10), () -> probe.getRef().tell("ran", probe.getRef()), system.dispatcher());
+		
+		probe.expectMsgEquals(Duration.ofSeconds(2), "ran");
+	}
+}